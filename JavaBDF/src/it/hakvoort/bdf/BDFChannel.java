@@ -285,8 +285,35 @@ public class BDFChannel {
 		Arrays.fill(this.reserved, (byte) ' ');
 		byte[] bytes = reserved.getBytes();
 		System.arraycopy(bytes, 0, this.reserved, 0, Math.min(bytes.length, this.reserved.length));
-	}	
-	
+	}
+
+	/**
+	 * Returns the gain for converting digital values of this channel into physical values.
+	 * physical value = digital value * gain + offset.
+	 *
+	 * @return	the gain of this channel
+	 * @throws	NumberFormatException
+	 * 			if the physical or digital minimum or maximum is not set.
+	 */
+	public double computeGain() {
+		double physicalRange = Double.parseDouble(getPhysicalMaximum()) - Double.parseDouble(getPhysicalMinimum());
+		double digitalRange = Double.parseDouble(getDigitalMaximum()) - Double.parseDouble(getDigitalMinimum());
+
+		return physicalRange / digitalRange;
+	}
+
+	/**
+	 * Returns the offset for converting digital values of this channel into physical values.
+	 * physical value = digital value * gain + offset.
+	 *
+	 * @return	the offset of this channel
+	 * @throws	NumberFormatException
+	 * 			if the physical or digital minimum or maximum is not set.
+	 */
+	public double computeOffset() {
+		return Double.parseDouble(getPhysicalMinimum()) - Double.parseDouble(getDigitalMinimum()) * computeGain();
+	}
+
 	@Override
 	public String toString() {
 		StringBuffer buffer = new StringBuffer();
@@ -0,0 +1,332 @@
+package it.hakvoort.bdf;
+
+import java.util.Arrays;
+
+/**
+ * The <code>BDFCompressor</code> compresses blocks of encoded samples, e.g. to send a stream over a slow network connection.
+ *
+ * The samples are expected in the order of the ActiView stream (all channels of a sample, one sample after another).
+ * Every channel is replaced by the differences between successive samples, which are small for most signals. The
+ * differences are zigzag encoded and split in 3 byte planes, so the high bytes, which are mostly zero, end up next to each
+ * other. The planes are compressed in the LZ4 block format, implemented here without native libraries. Signals without a
+ * smooth course, e.g. of unconnected electrodes, may compress better without the differences: when the differences do not
+ * compress well, the encoded samples are also compressed as they are and the smaller block is kept.
+ *
+ * Every block is compressed on its own and can be decompressed without the blocks before it. A compressor keeps the
+ * buffers of the last block and is not thread safe.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFCompressor {
+
+	// the minimum length of a match
+	private static final int MIN_MATCH = 4;
+
+	// the last bytes of a block are always literals
+	private static final int LAST_LITERALS = 5;
+
+	// a match does not start in the last bytes of a block
+	private static final int MATCH_LIMIT = 12;
+
+	// the maximum distance of a match
+	private static final int MAX_OFFSET = 65535;
+
+	// the number of bits of the hash of 4 bytes
+	private static final int HASH_BITS = 14;
+
+	// the first byte of a block: the planes of the differences, or the encoded samples as they are
+	private static final byte DELTA = 0;
+	private static final byte PLAIN = 1;
+
+	// the number of channels of a sample
+	private final int numChannels;
+
+	// the last position of each hash of 4 bytes, -1 for none
+	private final int[] table = new int[1 << HASH_BITS];
+
+	// the values and byte planes of the last block
+	private int[] values = new int[0];
+	private byte[] planes = new byte[0];
+
+	// the block compressed without the differences
+	private byte[] plain = new byte[0];
+
+	public BDFCompressor(int numChannels) {
+		if(numChannels < 1) {
+			throw new IllegalArgumentException(String.format("Invalid number of channels: %s", numChannels));
+		}
+
+		this.numChannels = numChannels;
+	}
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	/**
+	 * Returns the maximum size of a compressed block of samples.
+	 */
+	public int getMaxCompressedSize(int samples) {
+		int length = samples * numChannels * BDFCodec.SAMPLE_SIZE;
+
+		return length + length / 255 + 17;
+	}
+
+	/**
+	 * Returns the maximum number of samples of which the compressed block fits in the given number of bytes.
+	 */
+	public int getMaxSamples(int bytes) {
+		return (int) (Math.max(bytes - 17, 0) * 255l / 256 / (numChannels * BDFCodec.SAMPLE_SIZE));
+	}
+
+	/**
+	 * Compresses encoded samples from src, starting at srcOffset, into dst starting at dstOffset. Dst should have room for
+	 * {@link #getMaxCompressedSize(int)} bytes.
+	 *
+	 * @return	the size of the compressed block
+	 */
+	public int compress(byte[] src, int srcOffset, int samples, byte[] dst, int dstOffset) {
+		int n = samples * numChannels;
+
+		ensureCapacity(n);
+
+		BDFCodec.decode(src, srcOffset, values, 0, n);
+
+		// the zigzag encoded 24 bit difference with the previous sample of the channel, the first sample is compared with 0
+		for(int i = n - 1; i >= 0; i--) {
+			int delta = i >= numChannels ? ((values[i] - values[i - numChannels]) << 8) >> 8 : values[i];
+			int zigzag = ((delta << 1) ^ (delta >> 31)) & 0xFFFFFF;
+
+			planes[i] 			= (byte) zigzag;
+			planes[n + i] 		= (byte) (zigzag >>> 8);
+			planes[2 * n + i] 	= (byte) (zigzag >>> 16);
+		}
+
+		int size = compressBlock(planes, 0, 3 * n, dst, dstOffset + 1);
+
+		dst[dstOffset] = DELTA;
+
+		if(size > 3 * n * 7 / 8) {
+			if(plain.length < getMaxCompressedSize(samples)) {
+				plain = new byte[getMaxCompressedSize(samples)];
+			}
+
+			int plainSize = compressBlock(src, srcOffset, 3 * n, plain, 0);
+
+			if(plainSize < size) {
+				System.arraycopy(plain, 0, dst, dstOffset + 1, plainSize);
+
+				dst[dstOffset] 	= PLAIN;
+				size 			= plainSize;
+			}
+		}
+
+		return 1 + size;
+	}
+
+	/**
+	 * Decompresses a block of samples from src into dst starting at dstOffset, as interleaved int values.
+	 *
+	 * @param 	length
+	 * 			the size of the compressed block
+	 * @param 	samples
+	 * 			the number of samples of the block
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			if the block is not valid.
+	 */
+	public void decompress(byte[] src, int srcOffset, int length, int samples, int[] dst, int dstOffset) {
+		int n = samples * numChannels;
+
+		ensureCapacity(n);
+
+		byte mode = length > 0 ? src[srcOffset] : -1;
+
+		if((mode != DELTA && mode != PLAIN) || decompressBlock(src, srcOffset + 1, length - 1, planes, 3 * n) != 3 * n) {
+			throw new IllegalArgumentException(String.format("Invalid compressed block of %s samples", samples));
+		}
+
+		if(mode == PLAIN) {
+			BDFCodec.decode(planes, 0, dst, dstOffset, n);
+			return;
+		}
+
+		for(int i = 0; i < n; i++) {
+			int zigzag = (planes[i] & 0xFF) | ((planes[n + i] & 0xFF) << 8) | ((planes[2 * n + i] & 0xFF) << 16);
+			int delta = (zigzag >>> 1) ^ -(zigzag & 1);
+
+			dst[dstOffset + i] = i >= numChannels ? ((dst[dstOffset + i - numChannels] + delta) << 8) >> 8 : delta;
+		}
+	}
+
+	private void ensureCapacity(int n) {
+		if(values.length < n) {
+			values = new int[n];
+			planes = new byte[3 * n];
+		}
+	}
+
+	// compress the bytes of src in the LZ4 block format, returns the size of the compressed block
+	private int compressBlock(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+		int op = dstOffset;
+		int anchor = srcOffset;
+		int end = srcOffset + length;
+
+		if(length > MATCH_LIMIT) {
+			Arrays.fill(table, -1);
+
+			int limit = end - MATCH_LIMIT;
+			int matchEnd = end - LAST_LITERALS;
+
+			// the step grows while no match is found, so incompressible data is skipped quickly
+			int misses = 0;
+
+			for(int ip = srcOffset; ip < limit;) {
+				int sequence = readInt(src, ip);
+				int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+				int ref = table[hash];
+
+				table[hash] = ip;
+
+				if(ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+					ip += 1 + (misses++ >> 6);
+					continue;
+				}
+
+				misses = 0;
+
+				// extend the match backwards into the literals, and forwards
+				while(ip > anchor && ref > srcOffset && src[ip - 1] == src[ref - 1]) {
+					ip--;
+					ref--;
+				}
+
+				int match = MIN_MATCH;
+
+				while(ip + match < matchEnd && src[ip + match] == src[ref + match]) {
+					match++;
+				}
+
+				int literals = ip - anchor;
+				int token = op++;
+
+				dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(match - MIN_MATCH, 15));
+
+				op = writeLength(dst, op, literals);
+
+				System.arraycopy(src, anchor, dst, op, literals);
+				op += literals;
+
+				dst[op++] = (byte) (ip - ref);
+				dst[op++] = (byte) ((ip - ref) >>> 8);
+
+				op = writeLength(dst, op, match - MIN_MATCH);
+
+				ip += match;
+				anchor = ip;
+			}
+		}
+
+		// the last literals
+		int literals = end - anchor;
+
+		dst[op++] = (byte) (Math.min(literals, 15) << 4);
+
+		op = writeLength(dst, op, literals);
+
+		System.arraycopy(src, anchor, dst, op, literals);
+		op += literals;
+
+		return op - dstOffset;
+	}
+
+	// write the rest of a length of 15 or more, after the 4 bits in the token
+	private static int writeLength(byte[] dst, int op, int length) {
+		if(length < 15) {
+			return op;
+		}
+
+		for(length -= 15; length >= 255; length -= 255) {
+			dst[op++] = (byte) 255;
+		}
+
+		dst[op++] = (byte) length;
+
+		return op;
+	}
+
+	// decompress a block in the LZ4 block format, returns the size of the decompressed bytes
+	private static int decompressBlock(byte[] src, int offset, int length, byte[] dst, int dstLength) {
+		int ip = offset;
+		int end = offset + length;
+		int op = 0;
+
+		try {
+			while(ip < end) {
+				int token = src[ip++] & 0xFF;
+				int literals = token >>> 4;
+
+				if(literals == 15) {
+					int b;
+
+					do {
+						b = src[ip++] & 0xFF;
+						literals += b;
+					} while(b == 255);
+				}
+
+				if(ip + literals > end || op + literals > dstLength) {
+					return -1;
+				}
+
+				System.arraycopy(src, ip, dst, op, literals);
+				ip += literals;
+				op += literals;
+
+				// the last sequence has no match
+				if(ip == end) {
+					break;
+				}
+
+				int distance = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+				ip += 2;
+
+				int match = token & 15;
+
+				if(match == 15) {
+					int b;
+
+					do {
+						b = src[ip++] & 0xFF;
+						match += b;
+					} while(b == 255);
+				}
+
+				match += MIN_MATCH;
+
+				if(distance == 0 || distance > op || op + match > dstLength) {
+					return -1;
+				}
+
+				// a match can overlap the bytes it copies
+				if(distance >= match) {
+					System.arraycopy(dst, op - distance, dst, op, match);
+					op += match;
+				} else {
+					for(int i = 0; i < match; i++, op++) {
+						dst[op] = dst[op - distance];
+					}
+				}
+			}
+		} catch(ArrayIndexOutOfBoundsException e) {
+			return -1;
+		}
+
+		return op;
+	}
+
+	private static int readInt(byte[] src, int offset) {
+		return (src[offset] & 0xFF) | ((src[offset + 1] & 0xFF) << 8) | ((src[offset + 2] & 0xFF) << 16) | (src[offset + 3] << 24);
+	}
+}
@@ -0,0 +1,166 @@
+package it.hakvoort.bdf;
+
+import java.util.Arrays;
+
+/**
+ * The <code>BDFDecimator</code> reduces the sample rate of blocks of samples by an integer factor.
+ *
+ * Before every factor-th sample is kept, the samples are filtered by a low-pass FIR filter (a windowed sinc with the
+ * cut-off at the new Nyquist frequency) to prevent aliasing. The filter is only evaluated for the samples which are kept.
+ * The filter state is kept between blocks, so a stream can be decimated in blocks of any size. The filter delays the
+ * signal by (taps - 1) / 2 samples of the original rate.
+ *
+ * Blocks contain the samples channel by channel: data[c * samples + s].
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFDecimator {
+
+	// the number of filter taps for each step of the decimation factor
+	private static final int TAPS_PER_FACTOR = 8;
+
+	// the number of channels in a block
+	private final int numChannels;
+
+	// the decimation factor
+	private final int factor;
+
+	// the filter coefficients, oldest sample first
+	private final float[] coefficients;
+
+	// the last taps - 1 samples of each channel
+	private final float[][] history;
+
+	// the history followed by the samples of the current block of a channel
+	private float[] work = new float[0];
+
+	// the position of the next sample to keep, relative to the start of the next block
+	private int phase = 0;
+
+	public BDFDecimator(int numChannels, int factor) {
+		if(factor < 1) {
+			throw new IllegalArgumentException(String.format("Invalid decimation factor: %s", factor));
+		}
+
+		this.numChannels 	= numChannels;
+		this.factor 		= factor;
+
+		coefficients 	= factor == 1 ? new float[] {1} : createFilter(TAPS_PER_FACTOR * factor + 1, 0.5 / factor);
+		history 		= new float[numChannels][coefficients.length - 1];
+	}
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	public int getFactor() {
+		return factor;
+	}
+
+	public int getTaps() {
+		return coefficients.length;
+	}
+
+	/**
+	 * Returns the maximum number of samples produced from a block of samples.
+	 */
+	public int getMaxOutput(int samples) {
+		return (samples + factor - 1) / factor;
+	}
+
+	/**
+	 * Clears the filter state, e.g. when the stream restarts.
+	 */
+	public void reset() {
+		for(int c = 0; c < numChannels; c++) {
+			Arrays.fill(history[c], 0);
+		}
+
+		phase = 0;
+	}
+
+	/**
+	 * Decimates a block of samples.
+	 *
+	 * @param 	src
+	 * 			the block, containing the samples of each channel
+	 * @param 	srcOffset
+	 * 			the start of the block in src
+	 * @param 	samples
+	 * 			the number of samples of each channel in the block
+	 * @param 	dst
+	 * 			the target for the decimated block, should contain at least numChannels * getMaxOutput(samples) values
+	 * @param 	dstOffset
+	 * 			the start of the decimated block in dst
+	 * @return	the number of samples of each channel in the decimated block.
+	 */
+	public int process(int[] src, int srcOffset, int samples, int[] dst, int dstOffset) {
+		if(factor == 1) {
+			System.arraycopy(src, srcOffset, dst, dstOffset, numChannels * samples);
+			return samples;
+		}
+
+		// the number of kept samples in this block
+		int output = phase < samples ? (samples - phase + factor - 1) / factor : 0;
+
+		int taps = coefficients.length;
+
+		if(work.length < taps - 1 + samples) {
+			work = new float[taps - 1 + samples];
+		}
+
+		for(int c = 0; c < numChannels; c++) {
+			float[] previous = history[c];
+
+			System.arraycopy(previous, 0, work, 0, taps - 1);
+
+			for(int s = 0, i = srcOffset + c * samples; s < samples; s++, i++) {
+				work[taps - 1 + s] = src[i];
+			}
+
+			// sample s of the block is at work[taps - 1 + s], the filter ends at the kept sample
+			for(int o = 0, s = phase; o < output; o++, s += factor) {
+				double sum = 0;
+
+				for(int t = 0; t < taps; t++) {
+					sum += coefficients[t] * work[s + t];
+				}
+
+				dst[dstOffset + c * output + o] = (int) Math.round(sum);
+			}
+
+			System.arraycopy(work, samples, previous, 0, taps - 1);
+		}
+
+		phase = phase + output * factor - samples;
+
+		return output;
+	}
+
+	// create a low-pass filter, a sinc with a Hamming window, with the cut-off as a fraction of the sample rate
+	private static float[] createFilter(int taps, double cutoff) {
+		float[] filter = new float[taps];
+
+		double middle = (taps - 1) / 2.0;
+		double sum = 0;
+
+		double[] values = new double[taps];
+
+		for(int t = 0; t < taps; t++) {
+			double x = t - middle;
+			double sinc = x == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+			double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * t / (taps - 1));
+
+			values[t] = sinc * window;
+			sum += values[t];
+		}
+
+		// unity gain for DC
+		for(int t = 0; t < taps; t++) {
+			filter[t] = (float) (values[t] / sum);
+		}
+
+		return filter;
+	}
+}
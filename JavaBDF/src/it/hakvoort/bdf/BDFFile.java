@@ -5,6 +5,9 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class BDFFile {
 	
@@ -20,6 +23,9 @@ public class BDFFile {
 	// the writer for this bdf file
 	private BDFWriter writer = null;
 	
+	// the random access reader for this bdf file
+	private BDFRandomAccessReader randomAccessReader = null;
+	
 	public BDFFile(String pathname, boolean open) throws IOException, BDFException {
 		file = new File(pathname);
 		
@@ -97,6 +103,65 @@ public class BDFFile {
 		return reader;
 	}
 	
+	public BDFRandomAccessReader getRandomAccessReader() throws IOException, BDFException {
+		if(randomAccessReader == null) {
+			randomAccessReader = new BDFRandomAccessReader(this);
+		}
+		
+		return randomAccessReader;
+	}
+	
+	/**
+	 * Makes the file consistent after an interrupted recording. A partially written record at the end of the file
+	 * is removed and the number of records in the header is set to the number of complete records.
+	 * 
+	 * @return	the number of complete records in the file.
+	 */
+	public long recover() throws IOException, BDFException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		
+		try {
+			return recover(raf.getChannel());
+		} finally {
+			raf.close();
+		}
+	}
+	
+	// truncate a partial trailing record and update the number of records in the header
+	long recover(FileChannel channel) throws IOException, BDFException {
+		if(header == null) {
+			throw new BDFException("BDFHeader was not set.");
+		}
+		
+		long headerLength = header.computeLength();
+		long recordLength = header.computeRecordLength();
+		
+		if(channel.size() < headerLength || recordLength == 0) {
+			throw new BDFException(String.format("Invalid BDF file: %s", file));
+		}
+		
+		long numRecords = (channel.size() - headerLength) / recordLength;
+		
+		channel.truncate(headerLength + numRecords * recordLength);
+		
+		writeNumRecords(channel, numRecords);
+		
+		return numRecords;
+	}
+	
+	// rewrite the number of records in the header of the file, without touching the rest of the file
+	void writeNumRecords(FileChannel channel, long numRecords) throws IOException {
+		header.setNumRecords(Long.toString(numRecords));
+		
+		ByteBuffer buffer = ByteBuffer.wrap(header.numRecords);
+		
+		long position = BDFHeader.NUM_RECORDS_OFFSET;
+		
+		while(buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+	
 	public static BDFFile open(String pathname) throws IOException, BDFException {
 		return new BDFFile(pathname, true);
 	}
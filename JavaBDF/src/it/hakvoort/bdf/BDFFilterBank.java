@@ -0,0 +1,439 @@
+package it.hakvoort.bdf;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The <code>BDFFilterBank</code> filters blocks of samples of all channels in the time domain, e.g. to remove the power line
+ * frequency and slow drifts from a live stream.
+ *
+ * The filter is a cascade of biquad (second order IIR) sections, optionally followed by a FIR filter, with a separate state
+ * for each channel. The state is kept between blocks, so a stream can be filtered in blocks of any size. Notch, high-pass,
+ * low-pass and band-pass (Butterworth) sections are designed from the sample rate, which can be taken from the header of
+ * the stream. The FIR filter delays the signal by (taps - 1) / 2 samples.
+ *
+ * Blocks contain the samples channel by channel: data[c * samples + s], and are filtered in place. Once the sections are
+ * added, filtering does not allocate, apart from growing the buffers for a larger block. As a BDFBlockListener the filter
+ * bank is a stage between a source, e.g. a BDFClient or BDFReader, and its own listeners: each block is copied, filtered
+ * and sent to the listeners of the filter bank, so the other listeners of the source still receive the original block.
+ *
+ * A filter bank is not thread safe.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFFilterBank implements BDFBlockListener {
+
+	// the number of coefficients of a biquad section: b0, b1, b2, a1, a2, normalized by a0
+	private static final int COEFFICIENTS = 5;
+
+	// states smaller than this are flushed to zero, subnormal numbers are very slow
+	private static final double SUBNORMAL = 1e-30;
+
+	// the number of channels in a block
+	private final int numChannels;
+
+	// the sample rate of the stream
+	private final double sampleRate;
+
+	// the coefficients of the biquad sections
+	private double[] sections = new double[0];
+
+	// the two state variables of each section of each channel
+	private double[][] state;
+
+	// the coefficients of the FIR filter, oldest sample first
+	private double[] fir = new double[0];
+
+	// the last taps - 1 samples of each channel before the FIR filter
+	private double[][] history;
+
+	// the history followed by the samples of the current block of a channel
+	private double[] work = new double[0];
+
+	// the copy of the block which is filtered for the listeners
+	private int[] block = new int[0];
+
+	// the listeners receiving the filtered blocks
+	private List<BDFBlockListener> blockListeners = new CopyOnWriteArrayList<BDFBlockListener>();
+
+	// the listeners receiving the filtered samples one by one
+	private List<BDFListener> listeners = new CopyOnWriteArrayList<BDFListener>();
+
+	private final BDFListenerAdapter listenerAdapter;
+
+	public BDFFilterBank(int numChannels, double sampleRate) {
+		if(numChannels < 1 || sampleRate <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid number of channels %s or sample rate %s", numChannels, sampleRate));
+		}
+
+		this.numChannels 	= numChannels;
+		this.sampleRate 	= sampleRate;
+
+		state 	= new double[numChannels][0];
+		history = new double[numChannels][0];
+
+		listenerAdapter = new BDFListenerAdapter(numChannels, listeners);
+	}
+
+	/**
+	 * Creates a filter bank for the channels and the sample rate of a stream.
+	 */
+	public BDFFilterBank(BDFHeader header) {
+		this(header.computeNumChannels(), getSampleRate(header));
+	}
+
+	/**
+	 * Returns the sample rate of the channels of a header: the number of samples of a record divided by the duration of a
+	 * record.
+	 */
+	public static double getSampleRate(BDFHeader header) {
+		if(header.computeNumChannels() == 0) {
+			return -1;
+		}
+
+		double duration = Double.parseDouble(header.getDuration().trim());
+		int samples = Integer.parseInt(header.getChannel(0).getNumSamples().trim());
+
+		return duration > 0 ? samples / duration : samples;
+	}
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Returns the number of biquad sections.
+	 */
+	public int getSections() {
+		return sections.length / COEFFICIENTS;
+	}
+
+	/**
+	 * Returns the number of taps of the FIR filter, 0 without FIR filter.
+	 */
+	public int getTaps() {
+		return fir.length;
+	}
+
+	/**
+	 * Adds a biquad section with the transfer function (b0 + b1 z^-1 + b2 z^-2) / (a0 + a1 z^-1 + a2 z^-2). Clears the
+	 * filter state.
+	 */
+	public void addBiquad(double b0, double b1, double b2, double a0, double a1, double a2) {
+		int offset = sections.length;
+
+		sections = Arrays.copyOf(sections, offset + COEFFICIENTS);
+
+		sections[offset] 		= b0 / a0;
+		sections[offset + 1] 	= b1 / a0;
+		sections[offset + 2] 	= b2 / a0;
+		sections[offset + 3] 	= a1 / a0;
+		sections[offset + 4] 	= a2 / a0;
+
+		for(int c = 0; c < numChannels; c++) {
+			state[c] = new double[2 * getSections()];
+		}
+	}
+
+	/**
+	 * Adds a notch at the frequency, e.g. 50 or 60 Hz for the power line. The quality sets the width of the notch, the
+	 * frequency divided by the bandwidth; 30 removes about 2 Hz around 50 Hz.
+	 */
+	public void addNotch(double frequency, double quality) {
+		double w0 = 2 * Math.PI * frequency / sampleRate;
+		double alpha = Math.sin(w0) / (2 * quality);
+
+		addBiquad(1, -2 * Math.cos(w0), 1, 1 + alpha, -2 * Math.cos(w0), 1 - alpha);
+	}
+
+	/**
+	 * Adds notches at the power line frequency and its harmonics below half the sample rate.
+	 */
+	public void addPowerLineNotch(double frequency, double quality, int harmonics) {
+		for(int h = 1; h <= harmonics && h * frequency < sampleRate / 2; h++) {
+			addNotch(h * frequency, quality);
+		}
+	}
+
+	/**
+	 * Adds a Butterworth high-pass filter of the given order, e.g. to remove slow drifts.
+	 */
+	public void addHighpass(double frequency, int order) {
+		addButterworth(frequency, order, true);
+	}
+
+	/**
+	 * Adds a Butterworth low-pass filter of the given order.
+	 */
+	public void addLowpass(double frequency, int order) {
+		addButterworth(frequency, order, false);
+	}
+
+	/**
+	 * Adds a band-pass filter, a Butterworth high-pass at the low frequency followed by a Butterworth low-pass at the high
+	 * frequency, each of the given order.
+	 */
+	public void addBandpass(double low, double high, int order) {
+		addHighpass(low, order);
+		addLowpass(high, order);
+	}
+
+	// add the sections of a Butterworth filter, designed with the bilinear transform
+	private void addButterworth(double frequency, int order, boolean highpass) {
+		if(order < 1 || frequency <= 0 || frequency >= sampleRate / 2) {
+			throw new IllegalArgumentException(String.format("Invalid order %s or frequency %s for a sample rate of %s", order, frequency, sampleRate));
+		}
+
+		double w0 = 2 * Math.PI * frequency / sampleRate;
+		double cos = Math.cos(w0);
+
+		// a section for each pair of poles
+		for(int k = 0; k < order / 2; k++) {
+			double quality = 1 / (2 * Math.sin(Math.PI * (2 * k + 1) / (2 * order)));
+			double alpha = Math.sin(w0) / (2 * quality);
+
+			if(highpass) {
+				addBiquad((1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+			} else {
+				addBiquad((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+			}
+		}
+
+		// a first order section for the real pole of an odd order
+		if(order % 2 == 1) {
+			double k = Math.tan(w0 / 2);
+
+			if(highpass) {
+				addBiquad(1, -1, 0, 1 + k, k - 1, 0);
+			} else {
+				addBiquad(k, k, 0, 1 + k, k - 1, 0);
+			}
+		}
+	}
+
+	/**
+	 * Sets the coefficients of the FIR filter which follows the biquad sections, oldest sample first, or removes it if the
+	 * coefficients are null or empty. Clears the state of the FIR filter.
+	 */
+	public void setFir(double[] coefficients) {
+		fir = coefficients == null ? new double[0] : coefficients.clone();
+
+		for(int c = 0; c < numChannels; c++) {
+			history[c] = new double[Math.max(fir.length - 1, 0)];
+		}
+	}
+
+	/**
+	 * Creates the coefficients of a linear phase band-pass FIR filter: a sinc with a Hamming window. A low frequency of 0
+	 * gives a low-pass filter, a high frequency of half the sample rate or more gives a high-pass filter; a high-pass filter
+	 * should have an odd number of taps.
+	 */
+	public static double[] createFir(int taps, double low, double high, double sampleRate) {
+		double[] coefficients = new double[taps];
+
+		double middle = (taps - 1) / 2.0;
+
+		double f1 = Math.max(low, 0) / sampleRate;
+		double f2 = Math.min(high, sampleRate / 2) / sampleRate;
+
+		for(int t = 0; t < taps; t++) {
+			double x = t - middle;
+
+			// the difference of two low-pass filters
+			double sinc = x == 0 ? 2 * (f2 - f1) : (Math.sin(2 * Math.PI * f2 * x) - Math.sin(2 * Math.PI * f1 * x)) / (Math.PI * x);
+			double window = taps > 1 ? 0.54 - 0.46 * Math.cos(2 * Math.PI * t / (taps - 1)) : 1;
+
+			coefficients[t] = sinc * window;
+		}
+
+		return coefficients;
+	}
+
+	/**
+	 * Clears the filter state, e.g. when the stream restarts.
+	 */
+	public void reset() {
+		for(int c = 0; c < numChannels; c++) {
+			Arrays.fill(state[c], 0);
+			Arrays.fill(history[c], 0);
+		}
+	}
+
+	/**
+	 * Filters a block of samples in place, the samples are rounded to integers.
+	 *
+	 * @param 	data
+	 * 			the block, containing the samples of each channel
+	 * @param 	offset
+	 * 			the start of the block in data
+	 * @param 	samples
+	 * 			the number of samples of each channel in the block
+	 */
+	public void process(int[] data, int offset, int samples) {
+		int start = ensureCapacity(samples);
+
+		for(int c = 0; c < numChannels; c++) {
+			for(int s = 0, i = offset + c * samples; s < samples; s++, i++) {
+				work[start + s] = data[i];
+			}
+
+			filter(c, samples);
+
+			for(int s = 0, i = offset + c * samples; s < samples; s++, i++) {
+				data[i] = (int) Math.round(work[s]);
+			}
+		}
+	}
+
+	/**
+	 * Filters a block of samples in place.
+	 */
+	public void process(float[] data, int offset, int samples) {
+		int start = ensureCapacity(samples);
+
+		for(int c = 0; c < numChannels; c++) {
+			for(int s = 0, i = offset + c * samples; s < samples; s++, i++) {
+				work[start + s] = data[i];
+			}
+
+			filter(c, samples);
+
+			for(int s = 0, i = offset + c * samples; s < samples; s++, i++) {
+				data[i] = (float) work[s];
+			}
+		}
+	}
+
+	/**
+	 * Filters a single sample of a channel, e.g. of a NiaNetworkClient.
+	 */
+	public double process(int channel, double value) {
+		int start = ensureCapacity(1);
+
+		work[start] = value;
+
+		filter(channel, 1);
+
+		return work[0];
+	}
+
+	// make room for the history and a block, returns the start of the block in work
+	private int ensureCapacity(int samples) {
+		int start = Math.max(fir.length - 1, 0);
+
+		if(work.length < start + samples) {
+			work = new double[start + samples];
+		}
+
+		return start;
+	}
+
+	// filter the samples of a channel in work, the output starts at work[0]
+	private void filter(int channel, int samples) {
+		double[] work = this.work;
+		double[] sections = this.sections;
+		double[] state = this.state[channel];
+
+		int start = Math.max(fir.length - 1, 0);
+		int end = start + samples;
+
+		// the biquad sections one after another over the whole block, in transposed direct form II
+		for(int i = 0, j = 0; i < sections.length; i += COEFFICIENTS, j += 2) {
+			double b0 = sections[i];
+			double b1 = sections[i + 1];
+			double b2 = sections[i + 2];
+			double a1 = sections[i + 3];
+			double a2 = sections[i + 4];
+
+			double z1 = state[j];
+			double z2 = state[j + 1];
+
+			for(int s = start; s < end; s++) {
+				double x = work[s];
+				double y = b0 * x + z1;
+
+				z1 = b1 * x - a1 * y + z2;
+				z2 = b2 * x - a2 * y;
+
+				work[s] = y;
+			}
+
+			state[j] 		= Math.abs(z1) < SUBNORMAL ? 0 : z1;
+			state[j + 1] 	= Math.abs(z2) < SUBNORMAL ? 0 : z2;
+		}
+
+		if(fir.length == 0) {
+			return;
+		}
+
+		double[] fir = this.fir;
+		double[] previous = history[channel];
+
+		System.arraycopy(previous, 0, work, 0, start);
+
+		// the filter of output s covers work[s] up to work[s + taps - 1], so the output can replace work[s]
+		for(int s = 0; s < samples; s++) {
+			double sum = 0;
+
+			for(int t = 0; t < fir.length; t++) {
+				sum += fir[t] * work[s + t];
+			}
+
+			work[s] = sum;
+		}
+
+		System.arraycopy(work, samples, previous, 0, start);
+	}
+
+	/**
+	 * Filters a copy of the block and sends it to the listeners of the filter bank.
+	 */
+	@Override
+	public void receivedBlock(long firstSample, int[] data, int samples) {
+		int length = numChannels * samples;
+
+		if(block.length < length) {
+			block = new int[length];
+		}
+
+		System.arraycopy(data, 0, block, 0, length);
+
+		process(block, 0, samples);
+
+		for(BDFBlockListener listener : blockListeners) {
+			listener.receivedBlock(firstSample, block, samples);
+		}
+
+		listenerAdapter.receivedBlock(firstSample, block, samples);
+	}
+
+	public void addBlockListener(BDFBlockListener listener) {
+		blockListeners.add(listener);
+	}
+
+	public void removeBlockListener(BDFBlockListener listener) {
+		blockListeners.remove(listener);
+	}
+
+	public List<BDFBlockListener> getBlockListeners() {
+		return blockListeners;
+	}
+
+	public void addListener(BDFListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(BDFListener listener) {
+		listeners.remove(listener);
+	}
+
+	public List<BDFListener> getListeners() {
+		return listeners;
+	}
+}
@@ -1,5 +1,6 @@
 package it.hakvoort.bdf;
 
+import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -15,6 +16,9 @@ import java.util.List;
  */
 public class BDFHeader {
 	
+	// the byte offset of the number of data records within the header
+	public final static int NUM_RECORDS_OFFSET = 236;
+	
 	// version of this data format
 	public byte[] version = new byte[8];
 
@@ -151,6 +155,99 @@ public class BDFHeader {
 		}
 	}
 	
+	/**
+	 * Creates a header from its bytes, as returned by {@link #getBytes()}.
+	 * 
+	 * @param 	bytes
+	 * 			A byte array containing the main header followed by the header data of the channels.
+	 */
+	public static BDFHeader parse(byte[] bytes) throws BDFException {
+		if(bytes.length < 256) {
+			throw new BDFException(String.format("Invalid BDF Header, length: %s", bytes.length));
+		}
+		
+		BDFHeader header = new BDFHeader();
+		header.loadMainHeader(Arrays.copyOfRange(bytes, 0, 256));
+		header.loadChannelHeader(Arrays.copyOfRange(bytes, 256, bytes.length));
+		
+		return header;
+	}
+	
+	/**
+	 * Creates a header for a stream containing a selection of the channels of this header, with the sample rate reduced
+	 * by an integer factor. The number of records is unknown. When the factor does not divide the number of samples of
+	 * the records, the duration of a record is extended so the sample rate stays exact, e.g. 512 samples per second
+	 * reduced by 3 gives records of 512 samples in 3 seconds.
+	 * 
+	 * @param 	channels
+	 * 			the indices of the selected channels
+	 * @param 	decimation
+	 * 			the factor the number of samples of each channel is divided by
+	 */
+	public BDFHeader createSubset(int[] channels, int decimation) throws BDFException {
+		BDFHeader header = new BDFHeader();
+		header.loadMainHeader(Arrays.copyOf(getBytes(), 256));
+		header.setNumChannels("0");
+		header.setNumRecords("-1");
+		
+		for(int c : channels) {
+			if(getChannel(c) == null) {
+				throw new BDFException(String.format("Invalid channel: %s", c));
+			}
+			
+			header.addChannel(getChannel(c));
+		}
+		
+		// copy the channels before changing them
+		header = parse(header.getBytes());
+		
+		if(decimation > 1) {
+			int numChannels = header.computeNumChannels();
+			int[] numSamples = new int[numChannels];
+			
+			// the largest divisor of the decimation factor and the number of samples of every channel
+			int divisor = decimation;
+			
+			for(int c = 0; c < numChannels; c++) {
+				try {
+					numSamples[c] = Integer.parseInt(header.getChannel(c).getNumSamples().trim());
+				} catch(NumberFormatException e) {
+					throw new BDFException(String.format("Invalid number of samples of channel %s", c));
+				}
+				
+				divisor = gcd(divisor, numSamples[c]);
+			}
+			
+			// a record of the stream lasts this number of records of this header
+			int records = decimation / divisor;
+			
+			for(int c = 0; c < numChannels; c++) {
+				header.getChannel(c).setNumSamples(Integer.toString(Math.max(numSamples[c] / divisor, 1)));
+			}
+			
+			if(records > 1) {
+				try {
+					header.setDuration(new BigDecimal(getDuration()).multiply(BigDecimal.valueOf(records)).stripTrailingZeros().toPlainString());
+				} catch(NumberFormatException e) {
+					throw new BDFException(String.format("Invalid duration: %s", getDuration()));
+				}
+			}
+		}
+		
+		return header;
+	}
+	
+	// the greatest common divisor of a and b
+	private static int gcd(int a, int b) {
+		while(b != 0) {
+			int r = a % b;
+			a = b;
+			b = r;
+		}
+		
+		return Math.abs(a);
+	}
+	
     /**
      * Returns a string summarizing this object.
      *
@@ -340,6 +437,28 @@ public class BDFHeader {
 		return (channels.size() + 1) * 256;
 	}
 	
+	/**
+	 * Returns the calculated length of a single data record described by this object.
+	 * The sum of the number of samples of all channels * 3 bytes.
+	 * 
+	 * @return	the calculated length of a data record.
+	 * @throws	BDFException
+	 * 			if the number of samples of a channel is invalid.
+	 */
+	public int computeRecordLength() throws BDFException {
+		int recordLength = 0;
+		
+		try {
+			for(BDFChannel channel : channels) {
+				recordLength += Integer.parseInt(channel.getNumSamples()) * 3;
+			}
+		} catch(NumberFormatException e) {
+			throw new BDFException("Invalid number of samples in channel header");
+		}
+		
+		return recordLength;
+	}
+	
 	/**
 	 * Returns the length of this object.
 	 * 
@@ -0,0 +1,45 @@
+package it.hakvoort.bdf;
+
+import java.util.List;
+
+/**
+ * The <code>BDFListenerAdapter</code> converts blocks of samples into separate BDFSamples for BDFListeners.
+ * A new BDFSample is created for every sample, since listeners are allowed to keep the samples they receive.
+ * 
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFListenerAdapter implements BDFBlockListener {
+
+	// the number of channels in a block
+	private int numChannels;
+	
+	// the listeners receiving the samples
+	private List<BDFListener> listeners;
+	
+	public BDFListenerAdapter(int numChannels, List<BDFListener> listeners) {
+		this.numChannels = numChannels;
+		this.listeners = listeners;
+	}
+	
+	@Override
+	public void receivedBlock(long firstSample, int[] data, int samples) {
+		if(listeners.isEmpty()) {
+			return;
+		}
+		
+		for(int s = 0; s < samples; s++) {
+			int[] values = new int[numChannels];
+			
+			for(int c = 0; c < numChannels; c++) {
+				values[c] = data[c * samples + s];
+			}
+			
+			BDFSample sample = new BDFSample((int) (firstSample + s), values);
+			
+			for(BDFListener listener : listeners) {
+				listener.receivedSample(sample);
+			}
+		}
+	}
+}
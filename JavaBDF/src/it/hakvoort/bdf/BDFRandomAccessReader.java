@@ -0,0 +1,270 @@
+package it.hakvoort.bdf;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The <code>BDFRandomAccessReader</code> provides random access to the data records of a BDF file.
+ * The data section of the file is memory-mapped, so seeking to a record or sample is a simple offset calculation
+ * and only the requested bytes are touched and decoded.
+ *
+ * Files larger than a single mapping (2GB) are mapped in multiple segments, each segment containing a whole number of records.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFRandomAccessReader {
+
+	// the bdf file
+	private BDFFile bdf = null;
+
+	// the file and channel being mapped
+	private RandomAccessFile file = null;
+	private FileChannel channel = null;
+
+	// the mapped segments of the data section
+	private MappedByteBuffer[] segments;
+
+	// the number of records in each segment
+	private int recordsPerSegment;
+
+	// the number of channels
+	private int numChannels;
+
+	// the number of samples in a record for each channel
+	private int[] numSamples;
+
+	// the byte offset of each channel within a record
+	private int[] channelOffsets;
+
+	// the length of a single record in bytes
+	private int recordLength;
+
+	// the number of complete records in the file
+	private long numRecords;
+
+	public BDFRandomAccessReader(BDFFile bdf) throws IOException, BDFException {
+		this.bdf = bdf;
+
+		BDFHeader header = bdf.getHeader();
+
+		numChannels = header.computeNumChannels();
+
+		if(numChannels == 0) {
+			throw new BDFException("NO BDFChannels were set.");
+		}
+
+		numSamples 		= new int[numChannels];
+		channelOffsets 	= new int[numChannels];
+
+		// records are stored one after another, within a record each channel is stored as a contiguous block
+		// of numSamples values of 3 bytes.
+		try {
+			for(int c = 0; c < numChannels; c++) {
+				numSamples[c] 		= Integer.parseInt(header.getChannel(c).getNumSamples());
+				channelOffsets[c] 	= recordLength;
+				recordLength 		+= numSamples[c] * 3;
+			}
+		} catch(NumberFormatException e) {
+			throw new BDFException("Invalid number of samples in channel header");
+		}
+
+		// records without samples can not be located in the file
+		if(recordLength <= 0) {
+			throw new BDFException("The data records contain no samples");
+		}
+
+		file 	= new RandomAccessFile(bdf.getFile(), "r");
+		channel = file.getChannel();
+
+		long headerLength 	= header.computeLength();
+		long dataLength 	= Math.max(channel.size() - headerLength, 0);
+
+		// a partially written record at the end of the file is ignored
+		numRecords = dataLength / recordLength;
+
+		recordsPerSegment 	= Math.max(Integer.MAX_VALUE / recordLength, 1);
+		segments 			= new MappedByteBuffer[(int) ((numRecords + recordsPerSegment - 1) / recordsPerSegment)];
+
+		for(int s = 0; s < segments.length; s++) {
+			long first 	= (long) s * recordsPerSegment;
+			long count 	= Math.min(recordsPerSegment, numRecords - first);
+
+			segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, headerLength + first * recordLength, count * recordLength);
+			segments[s].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	public BDFFile getBDFFile() {
+		return bdf;
+	}
+
+	/**
+	 * Returns the number of complete data records in the file.
+	 */
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Returns the length of a single data record in bytes.
+	 */
+	public int getRecordLength() {
+		return recordLength;
+	}
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	/**
+	 * Returns the number of samples of the given channel within a single data record.
+	 */
+	public int getNumSamples(int channel) {
+		return numSamples[channel];
+	}
+
+	/**
+	 * Returns the total number of samples of the given channel in the file.
+	 */
+	public long getTotalSamples(int channel) {
+		return numRecords * numSamples[channel];
+	}
+
+	/**
+	 * Returns a read-only view on the raw bytes of data record n, without copying.
+	 *
+	 * @param 	n
+	 * 			the index of the record
+	 */
+	public ByteBuffer getRecordBuffer(long n) {
+		checkRecord(n);
+
+		ByteBuffer buffer = segments[(int) (n / recordsPerSegment)].duplicate();
+
+		int offset = (int) (n % recordsPerSegment) * recordLength;
+
+		buffer.position(offset);
+		buffer.limit(offset + recordLength);
+
+		return buffer.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Reads data record n. The result contains an array of samples for each channel.
+	 *
+	 * @param 	n
+	 * 			the index of the record
+	 */
+	public int[][] readRecord(long n) {
+		int[][] record = new int[numChannels][];
+
+		for(int c = 0; c < numChannels; c++) {
+			record[c] = new int[numSamples[c]];
+		}
+
+		readRecord(n, record);
+
+		return record;
+	}
+
+	/**
+	 * Reads data record n into dst, which should contain an array of at least numSamples values for each channel.
+	 *
+	 * @param 	n
+	 * 			the index of the record
+	 * @param 	dst
+	 * 			the target for the samples of each channel
+	 */
+	public void readRecord(long n, int[][] dst) {
+		checkRecord(n);
+
+		ByteBuffer segment = segments[(int) (n / recordsPerSegment)];
+
+		int offset = (int) (n % recordsPerSegment) * recordLength;
+
+		for(int c = 0; c < numChannels; c++) {
+			BDFCodec.decode(segment, offset + channelOffsets[c], dst[c], 0, numSamples[c]);
+		}
+	}
+
+	/**
+	 * Reads count samples of a single channel, starting at sample fromSample, into dst.
+	 *
+	 * @param 	channel
+	 * 			the index of the channel
+	 * @param 	fromSample
+	 * 			the index of the first sample of the channel, counted from the start of the file
+	 * @param 	count
+	 * 			the number of samples to read
+	 * @param 	dst
+	 * 			the target for the samples
+	 * @return	the number of samples read, which is less than count when the end of the file is reached.
+	 */
+	public int read(int channel, long fromSample, int count, int[] dst) {
+		return read(channel, fromSample, count, dst, 0);
+	}
+
+	/**
+	 * Reads count samples of a single channel, starting at sample fromSample, into dst starting at offset.
+	 *
+	 * @see #read(int, long, int, int[])
+	 */
+	public int read(int channel, long fromSample, int count, int[] dst, int offset) {
+		if(channel < 0 || channel >= numChannels) {
+			throw new IndexOutOfBoundsException(String.format("Invalid channel: %s", channel));
+		}
+
+		if(fromSample < 0) {
+			throw new IndexOutOfBoundsException(String.format("Invalid sample: %s", fromSample));
+		}
+
+		int samplesPerRecord = numSamples[channel];
+
+		// do not read past the last record
+		count = (int) Math.max(Math.min(count, getTotalSamples(channel) - fromSample), 0);
+
+		long record 	= fromSample / samplesPerRecord;
+		int sample 		= (int) (fromSample % samplesPerRecord);
+		int read 		= 0;
+
+		while(read < count) {
+			int length = Math.min(samplesPerRecord - sample, count - read);
+
+			ByteBuffer segment = segments[(int) (record / recordsPerSegment)];
+
+			int position = (int) (record % recordsPerSegment) * recordLength + channelOffsets[channel] + sample * 3;
+
+			BDFCodec.decode(segment, position, dst, offset + read, length);
+
+			read += length;
+
+			// continue at the start of the channel block in the next record
+			record++;
+			sample = 0;
+		}
+
+		return read;
+	}
+
+	/**
+	 * Closes the underlying file. The mapped data is released when the reader is garbage collected.
+	 */
+	public void close() throws IOException {
+		segments = new MappedByteBuffer[0];
+		numRecords = 0;
+
+		channel.close();
+		file.close();
+	}
+
+	private void checkRecord(long n) {
+		if(n < 0 || n >= numRecords) {
+			throw new IndexOutOfBoundsException(String.format("Invalid record: %s of %s", n, numRecords));
+		}
+	}
+}
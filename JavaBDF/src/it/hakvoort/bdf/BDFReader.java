@@ -1,12 +1,15 @@
 package it.hakvoort.bdf;
 
+import it.hakvoort.bdf.BDFRingBuffer.WaitStrategy;
+
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 
@@ -16,16 +19,39 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public class BDFReader {
 
 	private int THRESHOLD_MIN = 2;
+	
+	// the number of records which can be buffered
 	private int THRESHOLD_MAX = 4;
 	
+	// the way the file and data readers wait for each other
+	private WaitStrategy waitStrategy = WaitStrategy.PARK;
+	
 	private int frequency = -1;
+	
+	// the number of samples sent to the listeners at once, 0 to send complete records
+	private int chunkSize = 0;
+	
+	// paces the samples sent to the listeners
+	private BDFScheduler scheduler = null;
 
 	// the number of samples per second
 	private int sampleRate = 0;
 	
+	// the indices of the channels sent to the listeners, null for all channels
+	private int[] channels = null;
+	
+	// the factor by which the sample rate is reduced
+	private int decimation = 1;
+	
 	// listeners waiting for samples
 	protected List<BDFListener> listeners = new CopyOnWriteArrayList<BDFListener>();
 	
+	// listeners waiting for blocks of samples
+	protected List<BDFBlockListener> blockListeners = new CopyOnWriteArrayList<BDFBlockListener>();
+	
+	// converts blocks into samples for the sample listeners
+	private BDFListenerAdapter listenerAdapter = null;
+	
 	// the pathname of the bdf file
 	private String pathname = null;
 	
@@ -47,13 +73,117 @@ public class BDFReader {
 	// should the reader start at the beginning of the file when reaching the end
 	private boolean repeat = false;
 	
-	// samples read from the bdf file
-	private ConcurrentLinkedQueue<BDFSample> samples = new ConcurrentLinkedQueue<BDFSample>();
+	// records read from the bdf file
+	private BDFRingBuffer buffer = null;
 	
 	public BDFReader(BDFFile bdf) {
 		this.bdf = bdf;
 		
 		sampleRate = bdf.getSampleRate();
+		
+		listenerAdapter = new BDFListenerAdapter(bdf.getNumChannels(), listeners);
+	}
+	
+	/**
+	 * Selects the channels which are sent to the listeners, in the given order. Other channels are not decoded.
+	 * Should be set before the reader is started.
+	 * 
+	 * @param 	channels
+	 * 			the indices of the channels, or null for all channels.
+	 */
+	public void setChannels(int... channels) {
+		if(channels != null) {
+			for(int channel : channels) {
+				if(channel < 0 || channel >= bdf.getNumChannels()) {
+					throw new IndexOutOfBoundsException(String.format("Invalid channel: %s", channel));
+				}
+			}
+		}
+		
+		this.channels = channels;
+	}
+	
+	/**
+	 * Selects the channels which are sent to the listeners by their label, in the given order.
+	 * 
+	 * @see		#setChannels(int...)
+	 * @throws	BDFException
+	 * 			if there is no channel with one of the labels.
+	 */
+	public void setChannels(String... labels) throws BDFException {
+		int[] indices = new int[labels.length];
+		
+		for(int i = 0; i < labels.length; i++) {
+			indices[i] = -1;
+			
+			for(int c = 0; c < bdf.getNumChannels(); c++) {
+				if(bdf.getHeader().getChannel(c).getLabel().equals(labels[i])) {
+					indices[i] = c;
+					break;
+				}
+			}
+			
+			if(indices[i] == -1) {
+				throw new BDFException(String.format("No channel with label: %s", labels[i]));
+			}
+		}
+		
+		this.channels = indices;
+	}
+	
+	/**
+	 * Returns the indices of the channels which are sent to the listeners.
+	 */
+	public int[] getChannels() {
+		if(channels != null) {
+			return channels.clone();
+		}
+		
+		int[] all = new int[bdf.getNumChannels()];
+		
+		for(int c = 0; c < all.length; c++) {
+			all[c] = c;
+		}
+		
+		return all;
+	}
+	
+	/**
+	 * Returns the number of channels in the samples sent to the listeners.
+	 */
+	public int getNumChannels() {
+		return channels != null ? channels.length : bdf.getNumChannels();
+	}
+	
+	public int getDecimation() {
+		return this.decimation;
+	}
+	
+	/**
+	 * Reduces the sample rate of the samples sent to the listeners by an integer factor. The samples are low-pass
+	 * filtered first to prevent aliasing, see {@link BDFDecimator}. Should be set before the reader is started.
+	 */
+	public void setDecimation(int decimation) {
+		if(decimation < 1) {
+			throw new IllegalArgumentException(String.format("Invalid decimation factor: %s", decimation));
+		}
+		
+		this.decimation = decimation;
+	}
+	
+	/**
+	 * Returns a header describing the samples sent to the listeners: the selected channels at the decimated sample rate.
+	 */
+	public BDFHeader createHeader() throws BDFException {
+		return bdf.getHeader().createSubset(getChannels(), decimation);
+	}
+	
+	/**
+	 * Returns the number of samples per second sent to the listeners when playing at the rate of the file. When the
+	 * decimation factor does not divide the sample rate this is rounded down, the samples are paced at the exact rate.
+	 */
+	public int getSampleRate() {
+		return Math.max(sampleRate / decimation, 1);
 	}
 		
 	public int getFrequency() {
@@ -68,10 +198,39 @@ public class BDFReader {
 		this.frequency = frequency;
 	}
 	
+	public int getChunkSize() {
+		return this.chunkSize;
+	}
+	
+	/**
+	 * Sets the number of samples which are sent to the listeners at once, and paced as a whole.
+	 * Use 0 (default) to send complete records.
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = Math.max(chunkSize, 0);
+	}
+	
+	/**
+	 * Returns the scheduler which paces the samples, which can be used to monitor the lag of the playback.
+	 * 
+	 * @return	the scheduler, or null if the reader was not started.
+	 */
+	public BDFScheduler getScheduler() {
+		return this.scheduler;
+	}
+	
+	/**
+	 * @deprecated	the fileReader continues as soon as a record is released, the minimum is no longer used.
+	 */
+	@Deprecated
 	public int getThresholdMin() {
 		return this.THRESHOLD_MIN;
 	}
 	
+	/**
+	 * @deprecated	the fileReader continues as soon as a record is released, the minimum is no longer used.
+	 */
+	@Deprecated
 	public void setThresholdMin(int minValue) {
 		this.THRESHOLD_MIN = minValue;
 	}
@@ -84,6 +243,26 @@ public class BDFReader {
 		this.THRESHOLD_MAX = maxValue;
 	}
 	
+	public WaitStrategy getWaitStrategy() {
+		return this.waitStrategy;
+	}
+	
+	/**
+	 * Sets the way the file and data readers wait for each other, should be set before the reader is started.
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+	
+	/**
+	 * Returns the buffer between the file and data readers, which can be used to monitor its occupancy and stalls.
+	 * 
+	 * @return	the buffer, or null if the reader was not started.
+	 */
+	public BDFRingBuffer getBuffer() {
+		return this.buffer;
+	}
+	
 	public boolean repeat() {
 		return this.repeat;
 	}
@@ -101,6 +280,14 @@ public class BDFReader {
 	 */
 	public void start() {
 		running = true;
+		
+		// the samples sent to the listeners only contain the selected channels
+		listenerAdapter = new BDFListenerAdapter(getNumChannels(), listeners);
+		
+		// every slot in the buffer contains a single (decimated) record of the selected channels
+		buffer = new BDFRingBuffer(Math.max(THRESHOLD_MAX, 1), getNumChannels() * ((sampleRate + decimation - 1) / decimation), waitStrategy);
+		
+		scheduler = new BDFScheduler(Math.max(sampleRate, 1), decimation);
 
 		dataReader.start();
 		fileReader.start();
@@ -113,6 +300,9 @@ public class BDFReader {
 	public void stop() {
 		running = false;
 		
+		// the fileReader could be waiting for a free slot
+		fileReader.interrupt();
+		
 		try {
 			inputStream.close();
 		} catch (IOException e) {
@@ -140,6 +330,29 @@ public class BDFReader {
 		return listeners;
 	}
 	
+	public void addBlockListener(BDFBlockListener listener) {
+		blockListeners.add(listener);
+	}
+	
+	public void removeBlockListener(BDFBlockListener listener) {
+		blockListeners.remove(listener);
+	}
+	
+	public List<BDFBlockListener> getBlockListeners() {
+		return blockListeners;
+	}
+	
+	/**
+	 * Send a block of samples to all block listeners, and as separate samples to all listeners
+	 */
+	public void fireReceivedBlock(long firstSample, int[] data, int samples) {
+		for(BDFBlockListener listener : blockListeners) {
+			listener.receivedBlock(firstSample, data, samples);
+		}
+		
+		listenerAdapter.receivedBlock(firstSample, data, samples);
+	}
+	
 	/**
 	 * Send a data record sample to all listeners
 	 */
@@ -151,11 +364,11 @@ public class BDFReader {
 	
 	/**
 	 * BDFFileReader, reads records from the BDF file and stores it in a temporary buffer.
-	 * The buffer will be converted into multiple BDFSamples and all samples are placed in a Queue for further processing.
+	 * The record is decoded into a free slot of the ring buffer, which is published for further processing.
 	 */
 	private class BDFFileReader extends Thread {
 		
-		private int counter = 0;
+		private long counter = 0;
 		
 		public BDFFileReader() {
 			
@@ -174,8 +387,17 @@ public class BDFReader {
 			// get length of header
 			int length = Integer.parseInt(bdf.getHeader().getLength());
 			
-			// two dimensional array with size of sampleRate x numChannels
-			int[][] record = new int[numChannels][];
+			// a buffer which can contain all channels of a record
+			byte[] data = new byte[numChannels * sampleRate * 3];
+			ByteBuffer record = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+			
+			// the channels to decode
+			int[] selection = getChannels();
+			
+			// the decoded channels, before decimation
+			int[] decoded = decimation > 1 ? new int[selection.length * sampleRate] : null;
+			
+			BDFDecimator decimator = new BDFDecimator(selection.length, decimation);
 			
 			try {
 				inputStream = new FileInputStream(bdf.getFile());
@@ -194,128 +416,166 @@ public class BDFReader {
 			// channels [    channel1     |    channel2     |    channel1     |    channel2     ]
 			// values	[ v11 | v12 | v13 | v21 | v22 | v23 | v14 | v15 | v16 | v24 | v25 | v26 ]
 			// bytes	[1 2 3|1 2 3|1 2 3|1 2 3|1 2 3|1 2 3|1 2 3|1 2 3|1 2 3|1 2 3|1 2 3|1 2 3]
+			//
+			// since the channels are stored one after another, only the blocks of the selected channels are decoded
+			// into a slot, the blocks of the other channels are skipped.
 			while(running) {
 				try {
 					
-					// a buffer which can contain 1 channel of a record
-					byte[] data = new byte[sampleRate * 3];
+					// read a complete record
+					boolean complete = readRecord(data);
 					
-					// read channel for channel of a record
-					for(int i = 0; i < numChannels; i++) {
-						inputStream.read(data);
-						record[i] = parseChannel(data);
-					}
-
-					// create BDFSamples which contain the sample value for each channel.
-					// for the previous example this will eventually results in 6 samples, each with 2 values.
-					// 
-					// 			   values
-					// 	 -- record 1 --
-					// sample1	[ v11 | v21 ]
-					// sample2	[ v12 | v22 ]
-					// sample3  [ v13 | v23 ]
-					//   -- record 2 --
-					// sample4  [ v14 | v24 ]
-					// sample5  [ v15 | v26 ]
-					// sample6  [ v16 | v25 ]
-					for(int v = 0; v < sampleRate; v++) {
-
-						// new array for all values within the sample
-						int[] values = new int[numChannels];
+					if(complete) {
+						// get a free slot, waits if all slots are in use
+						int slot = buffer.claim();
 						
-						for(int c = 0; c < numChannels; c++) {
-							values[c] = record[c][v];
+						int samples = sampleRate;
+						
+						if(decimation > 1) {
+							decode(record, selection, decoded, 0);
+							samples = decimator.process(decoded, 0, sampleRate, buffer.getData(), buffer.offset(slot));
+						} else if(channels != null) {
+							decode(record, selection, buffer.getData(), buffer.offset(slot));
+						} else {
+							BDFCodec.decode(record, 0, buffer.getData(), buffer.offset(slot), numChannels * sampleRate);
 						}
 						
-						samples.add(new BDFSample(counter++, values));
+						buffer.publish(counter, samples);
+						
+						counter += samples;
 					}
 
 					// check if the file is running out of data, restart at the begin of the file
-					if(inputStream.available() <= 0) {
+					// a partial record at the end of the file is ignored
+					if(!complete || inputStream.available() < data.length) {
 						if(repeat) {
+							inputStream.close();
 							inputStream = new FileInputStream(bdf.getFile());
 							inputStream.skip(length);
 							
 							// reset the counter
 							counter = 0;
+							
+							decimator.reset();
 						} else {
 							running = false;
 							break;
 						}
 					}
 					
-					if(samples.size() >= THRESHOLD_MAX * sampleRate) {
-						synchronized(this) {
-							this.wait();
-						}
-					}
-					
 				} catch(IOException e) {
 					running = false;
 				} catch (InterruptedException e) {
-					e.printStackTrace();
+					if(running) {
+						e.printStackTrace();
+					}
 				}
 			}
 			
 			running = false;
+			
+			buffer.close();
 		}
 		
-		private int[] parseChannel(byte[] data) {		
-			ByteBuffer buffer = ByteBuffer.wrap(data);
-
-			int[] values = new int[data.length / 3];
-			
-			int counter = 0;
-			
-			byte[] bytes = new byte[3];
-			
-			while(buffer.remaining() > 0) {
-				buffer.get(bytes);
-				values[counter++] = parseValue(bytes);
+		// decode the blocks of the selected channels of a record into dst
+		private void decode(ByteBuffer record, int[] selection, int[] dst, int offset) {
+			for(int i = 0; i < selection.length; i++) {
+				BDFCodec.decode(record, selection[i] * sampleRate * 3, dst, offset + i * sampleRate, sampleRate);
 			}
-			
-			return values;
 		}
 		
-		private int parseValue(byte[] bytes) {
-			int value = (bytes[0] & 0xFF) | ((bytes[1] & 0xFF) << 8) | ((bytes[2] & 0xFF) << 16);
-			value = ~(value ^ 0x7fffff) + 0x800000;
-			return value;
+		// read a complete record from the input stream, returns false if the end of the file was reached first
+		private boolean readRecord(byte[] data) throws IOException {
+			int offset = 0;
+			
+			while(offset < data.length) {
+				int read = inputStream.read(data, offset, data.length - offset);
+				
+				if(read == -1) {
+					return false;
+				}
+				
+				offset += read;
+			}
+			
+			return true;
 		}
 	}
 	
 	/**
-	 * BDFDataReader, fetches the first BDFDataRecordSample from the queue and sends it to all listeners.
+	 * BDFDataReader, fetches the first record from the ring buffer and sends it in chunks to all listeners.
+	 * Each chunk is paced by the scheduler, according to the frequency.
 	 */
 	private class BDFDataReader extends Thread {
 
 		public void run() {
-			while(running || !samples.isEmpty()) {
-				
-				BDFSample recordSample = samples.poll();
-				
-				if(recordSample != null) {
-					fireReceivedDataRecordSample(recordSample);
-				}
-				
-				if(samples.size() < THRESHOLD_MIN * sampleRate) {
-					synchronized(fileReader) {
-						fileReader.notify();
-					}
-				}
-				
+			int numChannels = getNumChannels();
+			
+			// a block with the samples of a single chunk
+			int[] block = new int[buffer.getSlotSize()];
+			
+			boolean started = false;
+			
+			while(running || !buffer.isEmpty()) {
 				try {
-					if(frequency == -1) {
-						sleep(Math.round(1000l / (double) sampleRate));
-					} else if(frequency > 0) {
-						sleep(Math.round(1000l / (double) frequency));
-					} else {
-						// full speed
+					// wait for the next record
+					int slot = buffer.take(100, TimeUnit.MILLISECONDS);
+					
+					if(slot == -1) {
+						continue;
 					}
+					
+					// the playback starts with the first record
+					if(!started) {
+						scheduler.start();
+						started = true;
+					}
+					
+					int[] data = buffer.getData();
+					int offset = buffer.offset(slot);
+					
+					long firstSample = buffer.getFirstSample(slot);
+					int samples = buffer.getSamples(slot);
+					
+					int chunk = chunkSize > 0 ? Math.min(chunkSize, samples) : samples;
+					
+					for(int s = 0; s < samples; s += chunk) {
+						int length = Math.min(chunk, samples - s);
+						
+						// copy the chunk channel by channel, the slot is released after the complete record is sent
+						for(int c = 0; c < numChannels; c++) {
+							System.arraycopy(data, offset + c * samples + s, block, c * length, length);
+						}
+						
+						fireReceivedBlock(firstSample + s, block, length);
+						
+						pace(length);
+					}
+					
+					buffer.release();
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
 			}
 		}
+		
+		// wait until the next chunk should be sent
+		private void pace(int samples) throws InterruptedException {
+			// the rate of the file is sampleRate samples every decimation seconds
+			int rate = frequency == -1 ? sampleRate : frequency;
+			int period = frequency == -1 ? decimation : 1;
+			
+			if(rate <= 0) {
+				// full speed
+				return;
+			}
+			
+			// the frequency was changed, restart the scheduler
+			if(scheduler.getRate() != rate || scheduler.getPeriod() != period) {
+				scheduler.setRate(rate, period);
+			}
+			
+			scheduler.await(samples);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,268 @@
+package it.hakvoort.bdf;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The <code>BDFRingBuffer</code> is a bounded single-producer/single-consumer buffer for blocks of samples.
+ *
+ * The buffer consists of a fixed number of slots, each slot can hold one block of samples (usually one record) in a
+ * shared int array. The producer claims a slot, writes the samples into the array and publishes the slot. The consumer
+ * takes the published slot, reads the samples and releases the slot so it can be reused. No locks are used and no
+ * objects are created while passing blocks.
+ *
+ * Only one thread may produce and only one thread may consume.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFRingBuffer {
+
+	/**
+	 * The way a thread waits when the buffer is full (producer) or empty (consumer).
+	 * BUSY_SPIN gives the lowest latency but uses a full core, YIELD gives the cpu to other threads between checks
+	 * and PARK puts the thread to sleep until it is woken by the other side.
+	 */
+	public enum WaitStrategy {BUSY_SPIN, YIELD, PARK};
+
+	// the maximum time a parked thread sleeps before checking the buffer again
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	// the number of slots in the buffer
+	private final int capacity;
+
+	// the number of values in a slot
+	private final int slotSize;
+
+	// the values of all slots
+	private final int[] data;
+
+	// the number of the first sample of the block in each slot
+	private final long[] firstSamples;
+
+	// the number of samples of the block in each slot
+	private final int[] samples;
+
+	// the strategy for waiting threads
+	private final WaitStrategy waitStrategy;
+
+	// the next slot to be published by the producer
+	private final AtomicLong tail = new AtomicLong(0);
+
+	// the next slot to be released by the consumer
+	private final AtomicLong head = new AtomicLong(0);
+
+	// the number of times the producer waited for a full buffer
+	private final AtomicLong producerStalls = new AtomicLong(0);
+
+	// the number of times the consumer waited for an empty buffer
+	private final AtomicLong consumerStalls = new AtomicLong(0);
+
+	// the threads currently parked
+	private volatile Thread parkedProducer = null;
+	private volatile Thread parkedConsumer = null;
+
+	// if the producer closed the buffer
+	private volatile boolean closed = false;
+
+	public BDFRingBuffer(int capacity, int slotSize) {
+		this(capacity, slotSize, WaitStrategy.PARK);
+	}
+
+	public BDFRingBuffer(int capacity, int slotSize, WaitStrategy waitStrategy) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException(String.format("Invalid capacity: %s", capacity));
+		}
+
+		this.capacity 		= capacity;
+		this.slotSize 		= slotSize;
+		this.waitStrategy 	= waitStrategy;
+
+		data 			= new int[capacity * slotSize];
+		firstSamples 	= new long[capacity];
+		samples 		= new int[capacity];
+	}
+
+	/**
+	 * Returns the array containing the values of all slots.
+	 * The values of a slot start at {@link #offset(int)}.
+	 */
+	public int[] getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the offset of a slot in the data array.
+	 */
+	public int offset(int slot) {
+		return slot * slotSize;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getSlotSize() {
+		return slotSize;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	/**
+	 * Returns the number of published slots which are not yet released.
+	 */
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public long getProducerStalls() {
+		return producerStalls.get();
+	}
+
+	public long getConsumerStalls() {
+		return consumerStalls.get();
+	}
+
+	/**
+	 * Producer: returns the next free slot, waits while the buffer is full.
+	 */
+	public int claim() throws InterruptedException {
+		long position = tail.get();
+
+		if(position - head.get() >= capacity) {
+			producerStalls.incrementAndGet();
+
+			while(position - head.get() >= capacity) {
+				parkedProducer = Thread.currentThread();
+
+				// check again, the consumer could have released a slot before seeing the parked producer
+				if(position - head.get() < capacity) {
+					break;
+				}
+
+				await();
+			}
+
+			parkedProducer = null;
+		}
+
+		return (int) (position % capacity);
+	}
+
+	/**
+	 * Producer: publishes the claimed slot to the consumer.
+	 *
+	 * @param 	firstSample
+	 * 			the number of the first sample in the slot
+	 * @param 	count
+	 * 			the number of samples in the slot
+	 */
+	public void publish(long firstSample, int count) {
+		long position = tail.get();
+		int slot = (int) (position % capacity);
+
+		firstSamples[slot] 	= firstSample;
+		samples[slot] 		= count;
+
+		// the ordered write makes the slot data visible before the new tail
+		tail.lazySet(position + 1);
+
+		wakeup(parkedConsumer);
+	}
+
+	/**
+	 * Producer: no more slots will be published. A waiting consumer returns once all published slots are taken.
+	 */
+	public void close() {
+		closed = true;
+
+		wakeup(parkedConsumer);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Consumer: returns the next published slot, waits until a slot is published or the timeout expires.
+	 *
+	 * @return	the slot, or -1 if no slot was published before the timeout or the buffer is closed and empty.
+	 */
+	public int take(long timeout, TimeUnit unit) throws InterruptedException {
+		long position = head.get();
+
+		if(position >= tail.get()) {
+			consumerStalls.incrementAndGet();
+
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+			while(position >= tail.get()) {
+				if(closed || System.nanoTime() - deadline >= 0) {
+					parkedConsumer = null;
+
+					// a last slot could be published just before closing
+					return position < tail.get() ? (int) (position % capacity) : -1;
+				}
+
+				parkedConsumer = Thread.currentThread();
+
+				// check again, the producer could have published before seeing the parked consumer
+				if(position < tail.get()) {
+					break;
+				}
+
+				await();
+			}
+
+			parkedConsumer = null;
+		}
+
+		return (int) (position % capacity);
+	}
+
+	public long getFirstSample(int slot) {
+		return firstSamples[slot];
+	}
+
+	public int getSamples(int slot) {
+		return samples[slot];
+	}
+
+	/**
+	 * Consumer: releases the slot returned by the last take, so the producer can reuse it.
+	 */
+	public void release() {
+		head.lazySet(head.get() + 1);
+
+		wakeup(parkedProducer);
+	}
+
+	private void await() throws InterruptedException {
+		switch(waitStrategy) {
+			case BUSY_SPIN:
+				break;
+			case YIELD:
+				Thread.yield();
+				break;
+			default:
+				LockSupport.parkNanos(this, PARK_NANOS);
+		}
+
+		if(Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	private void wakeup(Thread thread) {
+		if(thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package it.hakvoort.bdf;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The <code>BDFSampleQueue</code> is a bounded lock-free queue for samples, which can be used by multiple producers.
+ *
+ * The values of all samples are stored in a single int array, so no objects are created while passing samples.
+ * Each cell of the queue has a sequence number which tells if the cell can be written by a producer or read by a consumer.
+ * Producers and consumers claim a cell by advancing the tail or head with a compare-and-set and hand over the cell by updating its sequence.
+ * This also allows a producer to remove the oldest sample when the queue is full.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFSampleQueue {
+
+	// the number of samples in the queue, a power of two
+	private final int capacity;
+
+	// the mask to convert a position into a cell
+	private final int mask;
+
+	// the number of values in a sample
+	private final int numChannels;
+
+	// the values of all cells
+	private final int[] values;
+
+	// the sequence of each cell, a cell can be written when the sequence equals the position and read when it equals position + 1
+	private final AtomicLongArray sequences;
+
+	// the next position to be written
+	private final AtomicLong tail = new AtomicLong(0);
+
+	// the next position to be read
+	private final AtomicLong head = new AtomicLong(0);
+
+	// the number of samples removed by dropOldest
+	private final AtomicLong dropped = new AtomicLong(0);
+
+	// the consumer waiting for samples
+	private volatile Thread parkedConsumer = null;
+
+	/**
+	 * @param 	capacity
+	 * 			the minimum number of samples in the queue, rounded up to a power of two
+	 * @param 	numChannels
+	 * 			the number of values in a sample
+	 */
+	public BDFSampleQueue(int capacity, int numChannels) {
+		if(capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException(String.format("Invalid capacity: %s", capacity));
+		}
+
+		this.capacity 		= Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+		this.mask 			= this.capacity - 1;
+		this.numChannels 	= numChannels;
+
+		values 		= new int[this.capacity * numChannels];
+		sequences 	= new AtomicLongArray(this.capacity);
+
+		for(int i = 0; i < this.capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	/**
+	 * Returns the number of samples in the queue.
+	 */
+	public int size() {
+		long size = tail.get() - head.get();
+
+		return (int) Math.max(Math.min(size, capacity), 0);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Returns the number of samples removed from the queue by {@link #dropOldest()}.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Adds a sample with the values of src starting at offset.
+	 *
+	 * @return	true if the sample was added, false if the queue is full.
+	 */
+	public boolean offer(int[] src, int offset) {
+		long position = claimTail();
+
+		if(position < 0) {
+			return false;
+		}
+
+		System.arraycopy(src, offset, values, cell(position) * numChannels, numChannels);
+
+		publish(position);
+
+		return true;
+	}
+
+	/**
+	 * Adds sample index of a block of samples, which contains an array of samples for each channel.
+	 *
+	 * @return	true if the sample was added, false if the queue is full.
+	 */
+	public boolean offer(int[][] block, int index) {
+		long position = claimTail();
+
+		if(position < 0) {
+			return false;
+		}
+
+		int offset = cell(position) * numChannels;
+
+		for(int c = 0; c < numChannels; c++) {
+			values[offset + c] = block[c][index];
+		}
+
+		publish(position);
+
+		return true;
+	}
+
+	/**
+	 * Removes the values of the oldest sample into dst, starting at offset.
+	 *
+	 * @return	true if a sample was removed, false if the queue is empty.
+	 */
+	public boolean poll(int[] dst, int offset) {
+		long position = claimHead();
+
+		if(position < 0) {
+			return false;
+		}
+
+		System.arraycopy(values, cell(position) * numChannels, dst, offset, numChannels);
+
+		release(position);
+
+		return true;
+	}
+
+	/**
+	 * Removes the oldest sample without reading it, to make room for a new sample.
+	 *
+	 * @return	true if a sample was removed, false if the queue is empty.
+	 */
+	public boolean dropOldest() {
+		long position = claimHead();
+
+		if(position < 0) {
+			return false;
+		}
+
+		release(position);
+
+		dropped.incrementAndGet();
+
+		return true;
+	}
+
+	/**
+	 * Consumer: waits until a sample is added, the timeout expires or {@link #wakeup()} is called.
+	 */
+	public void await(long timeout, TimeUnit unit) throws InterruptedException {
+		parkedConsumer = Thread.currentThread();
+
+		// check again, a producer could have added a sample before seeing the parked consumer
+		if(isEmpty()) {
+			LockSupport.parkNanos(this, unit.toNanos(timeout));
+		}
+
+		parkedConsumer = null;
+
+		if(Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * Wakes up a consumer waiting in {@link #await(long, TimeUnit)}.
+	 */
+	public void wakeup() {
+		Thread thread = parkedConsumer;
+
+		if(thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private int cell(long position) {
+		return (int) (position & mask);
+	}
+
+	// returns the claimed position for writing, or -1 if the queue is full
+	private long claimTail() {
+		long position = tail.get();
+
+		while(true) {
+			long difference = sequences.get(cell(position)) - position;
+
+			if(difference == 0) {
+				if(tail.compareAndSet(position, position + 1)) {
+					return position;
+				}
+
+				position = tail.get();
+			} else if(difference < 0) {
+				// the cell still contains a sample which is not read
+				return -1;
+			} else {
+				// another producer claimed the position
+				position = tail.get();
+			}
+		}
+	}
+
+	// hands over a written cell to the consumers
+	private void publish(long position) {
+		sequences.lazySet(cell(position), position + 1);
+
+		wakeup();
+	}
+
+	// returns the claimed position for reading, or -1 if the queue is empty
+	private long claimHead() {
+		long position = head.get();
+
+		while(true) {
+			long difference = sequences.get(cell(position)) - (position + 1);
+
+			if(difference == 0) {
+				if(head.compareAndSet(position, position + 1)) {
+					return position;
+				}
+
+				position = head.get();
+			} else if(difference < 0) {
+				// the cell is not yet published
+				return -1;
+			} else {
+				// another consumer claimed the position
+				position = head.get();
+			}
+		}
+	}
+
+	// hands over a read cell to the producers
+	private void release(long position) {
+		sequences.lazySet(cell(position), position + capacity);
+	}
+}
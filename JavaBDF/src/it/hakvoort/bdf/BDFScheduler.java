@@ -0,0 +1,182 @@
+package it.hakvoort.bdf;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The <code>BDFScheduler</code> paces the playback of samples at a fixed rate.
+ *
+ * Every chunk of samples has a deadline which is calculated from the start time and the total number of samples
+ * scheduled so far, instead of sleeping a fixed time after every chunk. Rounding errors and the time spent notifying
+ * listeners therefore do not add up, and the scheduler catches up without sleeping when it fell behind (e.g. after a
+ * garbage collection pause).
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFScheduler {
+
+	private static final long NANOS_PER_SECOND = 1000000000l;
+
+	// the number of samples per period
+	private int rate;
+
+	// the number of seconds in which rate samples are played
+	private int period = 1;
+
+	// the start time in nanoseconds
+	private long startTime;
+
+	// the number of samples scheduled since the start time
+	private long scheduled = 0;
+
+	// if the scheduler falls behind more than maxLag nanoseconds, it restarts instead of catching up
+	private long maxLag = Long.MAX_VALUE;
+
+	// the lag in nanoseconds at the last deadline
+	private volatile long lag = 0;
+
+	// the largest lag in nanoseconds
+	private volatile long peakLag = 0;
+
+	// the number of deadlines which were missed
+	private volatile long lateChunks = 0;
+
+	// the number of times the scheduler restarted because it fell too far behind
+	private volatile long resyncs = 0;
+
+	public BDFScheduler(int rate) {
+		this(rate, 1);
+	}
+
+	public BDFScheduler(int rate, int period) {
+		setRate(rate, period);
+	}
+
+	public int getRate() {
+		return this.rate;
+	}
+
+	public int getPeriod() {
+		return this.period;
+	}
+
+	/**
+	 * Sets the number of samples per second, the scheduler restarts at the current time.
+	 */
+	public void setRate(int rate) {
+		setRate(rate, 1);
+	}
+
+	/**
+	 * Sets the number of samples per period of seconds, for a rate which is not a whole number of samples per second,
+	 * e.g. 512 samples every 3 seconds. The scheduler restarts at the current time.
+	 */
+	public void setRate(int rate, int period) {
+		if(rate <= 0 || period <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid rate: %s / %s", rate, period));
+		}
+
+		this.rate 	= rate;
+		this.period = period;
+
+		start();
+	}
+
+	public long getMaxLag() {
+		return this.maxLag;
+	}
+
+	/**
+	 * Sets the maximum lag in nanoseconds. When the scheduler falls further behind, it restarts at the current time
+	 * instead of sending all missed samples at full speed.
+	 */
+	public void setMaxLag(long maxLag) {
+		this.maxLag = maxLag;
+	}
+
+	/**
+	 * Restarts the scheduler at the current time.
+	 */
+	public void start() {
+		startTime = System.nanoTime();
+		scheduled = 0;
+	}
+
+	/**
+	 * Waits until the deadline of the next chunk, after a chunk of the given number of samples was sent.
+	 * Returns immediately when the deadline has already passed.
+	 *
+	 * @param 	samples
+	 * 			the number of samples in the chunk which was sent
+	 */
+	public void await(int samples) throws InterruptedException {
+		scheduled += samples;
+
+		// whole periods first, so the deadline does not overflow
+		long deadline = startTime + (scheduled / rate) * period * NANOS_PER_SECOND + (scheduled % rate) * period * NANOS_PER_SECOND / rate;
+		long remaining = deadline - System.nanoTime();
+
+		lag = Math.max(-remaining, 0);
+
+		if(remaining < 0) {
+			lateChunks++;
+			peakLag = Math.max(peakLag, lag);
+
+			if(lag > maxLag) {
+				resyncs++;
+				start();
+			}
+
+			return;
+		}
+
+		while(remaining > 0) {
+			LockSupport.parkNanos(this, remaining);
+
+			if(Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+
+			remaining = deadline - System.nanoTime();
+		}
+	}
+
+	/**
+	 * Returns the number of nanoseconds the scheduler was behind at the last deadline.
+	 */
+	public long getLag() {
+		return this.lag;
+	}
+
+	/**
+	 * Returns the largest number of nanoseconds the scheduler was behind.
+	 */
+	public long getPeakLag() {
+		return this.peakLag;
+	}
+
+	/**
+	 * Returns the number of deadlines which had already passed.
+	 */
+	public long getLateChunks() {
+		return this.lateChunks;
+	}
+
+	/**
+	 * Returns the number of times the scheduler restarted, because it fell behind more than the maximum lag.
+	 */
+	public long getResyncs() {
+		return this.resyncs;
+	}
+
+	/**
+	 * Returns the number of samples scheduled since the scheduler was (re)started.
+	 */
+	public long getScheduled() {
+		return this.scheduled;
+	}
+
+	public long getStartTime() {
+		return this.startTime;
+	}
+}
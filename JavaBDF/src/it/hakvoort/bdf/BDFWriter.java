@@ -1,25 +1,84 @@
 package it.hakvoort.bdf;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class BDFWriter {
 	
+	/**
+	 * When written records are forced to the disk: never (left to the operating system),
+	 * after a number of records or after a number of milliseconds.
+	 */
+	public enum SyncPolicy {NONE, RECORDS, INTERVAL};
+	
+	/**
+	 * What happens when a sample is added while the queue is full: wait until the file writer made room,
+	 * remove the oldest sample in the queue or throw an IllegalStateException.
+	 */
+	public enum OverflowPolicy {BLOCK, DROP_OLDEST, FAIL_FAST};
+	
+	// the maximum time a blocked producer sleeps before checking the queue again
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	
+	// the maximum time the file writer sleeps before checking if it is stopped
+	private static final long IDLE_MILLIS = 100;
+	
 	// the bdf file
 	private BDFFile bdf = null;
 	
 	// the fileWriter, writing incomming data to the file.
 	private BDFFileWriter fileWriter = new BDFFileWriter();
 	
-	// the bdf file outputstream
-	private FileOutputStream outputStream = null;
+	// the bdf file
+	private RandomAccessFile file = null;
+	
+	// the channel for writing to the bdf file
+	private FileChannel channel = null;
 	
 	// if the file and data writer are running
-	private boolean running = false;
+	private volatile boolean running = false;
+	
+	// the maximum number of records which are written at once
+	private int batchSize = 16;
+	
+	// when written records are forced to the disk
+	private SyncPolicy syncPolicy = SyncPolicy.NONE;
+	
+	// the number of records or milliseconds between two syncs
+	private long syncInterval = 0;
+	
+	// the number of records between two updates of the number of records in the header, 0 to update when stopped
+	private long updateInterval = 0;
+	
+	// if samples are added to the end of an existing file
+	private boolean append = false;
+	
+	// the number of records written to the file
+	private volatile long recordsWritten = 0;
+	
+	// the number of times the file was forced to the disk
+	private volatile long syncs = 0;
+	
+	// the number of samples which were not added because the writer was stopped
+	private final AtomicLong rejected = new AtomicLong(0);
+	
+	// the maximum number of samples waiting to be written
+	private int queueSize = 16384;
+	
+	// what happens when the queue is full
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
 	
 	// received samples
-	private ConcurrentLinkedQueue<BDFSample> samples = new ConcurrentLinkedQueue<BDFSample>();
+	private BDFSampleQueue samples = null;
+	
+	// the values which replace a sample with a wrong number of channels
+	private int[] empty = null;
 	
 	public BDFWriter(BDFFile bdf) {
 		this.bdf = bdf;
@@ -29,20 +88,209 @@ public class BDFWriter {
 		return this.running;
 	}
 	
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+	
+	/**
+	 * Sets the maximum number of records which are collected and written to the file at once.
+	 * Records are written earlier when no more samples are waiting. Should be set before the writer is started.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(batchSize, 1);
+	}
+	
+	public SyncPolicy getSyncPolicy() {
+		return this.syncPolicy;
+	}
+	
+	public long getSyncInterval() {
+		return this.syncInterval;
+	}
+	
+	/**
+	 * Sets when written records are forced to the disk.
+	 *
+	 * @param 	syncPolicy
+	 * 			NONE to leave it to the operating system, RECORDS to sync after a number of records,
+	 * 			INTERVAL to sync after a number of milliseconds.
+	 * @param 	syncInterval
+	 * 			the number of records or milliseconds between two syncs.
+	 */
+	public void setSyncPolicy(SyncPolicy syncPolicy, long syncInterval) {
+		this.syncPolicy = syncPolicy;
+		this.syncInterval = Math.max(syncInterval, 1);
+	}
+	
+	public int getQueueSize() {
+		return this.queueSize;
+	}
+	
+	/**
+	 * Sets the maximum number of samples waiting to be written, rounded up to a power of two.
+	 * Should be set before the writer is started.
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = Math.max(queueSize, 1);
+	}
+	
+	public OverflowPolicy getOverflowPolicy() {
+		return this.overflowPolicy;
+	}
+	
+	/**
+	 * Sets what happens when a sample is added while the queue is full.
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+	
+	/**
+	 * Returns the number of samples waiting to be written.
+	 */
+	public int getQueueDepth() {
+		return samples == null ? 0 : samples.size();
+	}
+	
+	/**
+	 * Returns the number of samples which were removed from a full queue, or were not added because the writer was stopped.
+	 */
+	public long getDroppedSamples() {
+		return (samples == null ? 0 : samples.getDropped()) + rejected.get();
+	}
+	
+	public long getUpdateInterval() {
+		return this.updateInterval;
+	}
+	
+	/**
+	 * Sets the number of records after which the number of records in the header is rewritten, so the file
+	 * stays valid when the recording is interrupted. 0 only updates the header when the writer is stopped.
+	 * When combined with a sync policy, the header is updated before the file is forced to the disk.
+	 */
+	public void setUpdateInterval(long updateInterval) {
+		this.updateInterval = Math.max(updateInterval, 0);
+	}
+	
+	public boolean isAppend() {
+		return this.append;
+	}
+	
+	/**
+	 * Sets if samples are added to the end of an existing file, e.g. to continue a recording after a restart.
+	 * A partially written record at the end of the file is removed first. The header of the BDFFile should
+	 * describe the existing file, as it does when the file is opened. Should be set before the writer is started.
+	 */
+	public void setAppend(boolean append) {
+		this.append = append;
+	}
+	
+	/**
+	 * Returns the number of records in the file, including the records which were in the file before appending.
+	 */
+	public long getRecordsWritten() {
+		return this.recordsWritten;
+	}
+	
+	public long getSyncs() {
+		return this.syncs;
+	}
+	
 	public void start() {
+		samples = new BDFSampleQueue(queueSize, bdf.getNumChannels());
+		empty = new int[bdf.getNumChannels()];
+		
 		running = true;
 		fileWriter.start();
 	}
 	
 	public void stop() {
 		running = false;
+		
+		if(samples != null) {
+			samples.wakeup();
+		}
+	}
+	
+	/**
+	 * Adds a sample to be written. When the queue is full the overflow policy is applied.
+	 *
+	 * @return	true if the sample was added
+	 * @throws	IllegalStateException
+	 * 			if the writer is not started, or the queue is full and the overflow policy is FAIL_FAST.
+	 */
+	public boolean addSample(BDFSample sample) {
+		checkStarted();
+		
+		int[] values = sample.values;
+		
+		// check if sample has the same number of channels, else replace it
+		if(values.length != samples.getNumChannels()) {
+			System.err.println("Number of channels do not match.");
+			values = empty;
+		}
+		
+		while(!samples.offer(values, 0)) {
+			if(!overflow()) {
+				return false;
+			}
+		}
+		
+		return true;
 	}
 	
-	public void addSample(BDFSample sample) {
-		samples.add(sample);
+	/**
+	 * Adds a block of samples to be written, which contains an array of samples for each channel,
+	 * e.g. as read by {@link BDFRandomAccessReader#readRecord(long)}. When the queue is full the overflow policy is applied.
+	 *
+	 * @return	the number of samples added
+	 * @throws	IllegalStateException
+	 * 			if the writer is not started, or the queue is full and the overflow policy is FAIL_FAST.
+	 */
+	public int addSamples(int[][] block) {
+		checkStarted();
+		
+		if(block.length != samples.getNumChannels()) {
+			System.err.println("Number of channels do not match.");
+			return 0;
+		}
+		
+		int count = block.length == 0 ? 0 : block[0].length;
+		
+		for(int s = 0; s < count; s++) {
+			while(!samples.offer(block, s)) {
+				if(!overflow()) {
+					return s;
+				}
+			}
+		}
 		
-		synchronized(samples) {
-			samples.notifyAll();
+		return count;
+	}
+	
+	private void checkStarted() {
+		if(samples == null) {
+			throw new IllegalStateException("BDFWriter is not started.");
+		}
+	}
+	
+	// apply the overflow policy to a full queue, returns false if the sample should not be added
+	private boolean overflow() {
+		switch(overflowPolicy) {
+			case DROP_OLDEST:
+				samples.dropOldest();
+				return true;
+			case FAIL_FAST:
+				throw new IllegalStateException(String.format("BDFWriter queue is full (%s samples).", samples.getCapacity()));
+			default:
+				// do not wait for a writer which is not running anymore
+				if(!running || Thread.currentThread().isInterrupted()) {
+					rejected.incrementAndGet();
+					return false;
+				}
+				
+				LockSupport.parkNanos(this, PARK_NANOS);
+				return true;
 		}
 	}
 	
@@ -57,6 +305,24 @@ public class BDFWriter {
 		// the record to store
 		private int[][] record;
 		
+		// the values of the current sample
+		private int[] sample;
+		
+		// the encoded records which are not yet written
+		private ByteBuffer[] records;
+		
+		// the number of encoded records
+		private int pending = 0;
+		
+		// the number of records written since the last sync
+		private long unsynced = 0;
+		
+		// the time of the last sync
+		private long lastSync = 0;
+		
+		// the number of records at the last update of the header
+		private long lastUpdate = 0;
+		
 		public BDFFileWriter() {
 			
 		}
@@ -64,11 +330,22 @@ public class BDFWriter {
 		public void run() {
 			
 			try {
-				// open output stream
-				outputStream = new FileOutputStream(bdf.getFile());
+				// open the file
+				file = new RandomAccessFile(bdf.getFile(), "rw");
+				channel = file.getChannel();
+				
+				if(append && channel.size() > 0) {
+					// remove a partial record and continue after the last complete record
+					recordsWritten = bdf.recover(channel);
+					channel.position(channel.size());
+				} else {
+					file.setLength(0);
+					
+					// write header, the number of records is unknown until records are written
+					writeHeader();
+				}
 				
-				// write header
-				writeHeader();
+				lastUpdate = recordsWritten;
 				
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -93,55 +370,74 @@ public class BDFWriter {
 			
 			// two dimensional array with size of sampleRate x numChannels
 			record = new int[numChannels][sampleRate];
+			sample = new int[numChannels];
+			
+			// direct buffers for the encoded records, written with a single gathering write
+			records = new ByteBuffer[batchSize];
+			
+			for(int i = 0; i < records.length; i++) {
+				records[i] = ByteBuffer.allocateDirect(numChannels * sampleRate * BDFCodec.SAMPLE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			
+			lastSync = System.currentTimeMillis();
 			
 			// total samples
 			int sampleCount = 0;
 
 			while(running || !samples.isEmpty()) {
 				
-				synchronized(samples) {
-					while(samples.isEmpty()) {
-						try {
-							samples.wait();
-						} catch(InterruptedException e) {}
-					}
+				if(running && samples.isEmpty()) {
+					try {
+						// wake up in time for the next sync
+						samples.await(syncPolicy == SyncPolicy.INTERVAL ? Math.min(syncInterval, IDLE_MILLIS) : IDLE_MILLIS, TimeUnit.MILLISECONDS);
+					} catch(InterruptedException e) {}
+				}
 				
-					while(!samples.isEmpty()) {
+				while(samples.poll(sample, 0)) {
 						
-						// get next sample
-						BDFSample sample = samples.poll();
-						
-						// check if sample has the same number of channels, else replace it
-						if(sample.values.length != numChannels) {
-							System.err.println("Number of channels do not match.");
-							sample = new BDFSample(sample.number, new int[numChannels]);
-						}
-						
-						// store samples in record
-						for(int c = 0; c < numChannels; c++) {
-							record[c][sampleCount] = sample.values[c];
-						}
+					// store samples in record
+					for(int c = 0; c < numChannels; c++) {
+						record[c][sampleCount] = sample[c];
+					}
 						
-						// update counter
-						sampleCount++;
+					// update counter
+					sampleCount++;
 						
-						// if record is full, write record to file
-						if(sampleCount >= sampleRate) {
-							try {
-								writeRecord();
-							} catch (IOException e) {
-								e.printStackTrace();
-							}
+					// if record is full, add the record to the pending records
+					if(sampleCount >= sampleRate) {
+						try {
+							encodeRecord();
 							
-							// reset the sample counter
-							sampleCount = 0;
+							if(pending >= records.length) {
+								writeRecords();
+							}
+						} catch (IOException e) {
+							e.printStackTrace();
 						}
+							
+						// reset the sample counter
+						sampleCount = 0;
 					}
 				}
+				
+				// no more samples are waiting, write the pending records
+				try {
+					writeRecords();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
 			
 			try {
-				outputStream.close();
+				// the recording is complete, set the final number of records
+				bdf.writeNumRecords(channel, recordsWritten);
+				
+				if(syncPolicy != SyncPolicy.NONE) {
+					sync();
+				}
+				
+				channel.close();
+				file.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -150,30 +446,79 @@ public class BDFWriter {
 		// write header to the file
 		private void writeHeader() throws IOException, BDFException {
 			if(bdf.getHeader() != null) {
-				outputStream.write(bdf.getHeader().getBytes());
+				bdf.getHeader().setNumRecords("-1");
+				
+				ByteBuffer header = ByteBuffer.wrap(bdf.getHeader().getBytes());
+				
+				while(header.hasRemaining()) {
+					channel.write(header);
+				}
 			} else {
 				throw new BDFException(String.format("BDFHeader was not set."));
 			}
 		}
 		
-		// write data from the current record to the file
-		private void writeRecord() throws IOException {
+		// encode the current record into the next pending buffer
+		private void encodeRecord() {
+			ByteBuffer buffer = records[pending++];
+			
+			buffer.clear();
+			
 			for(int c = 0; c < numChannels; c++) {
-				for(int v = 0; v < sampleRate; v++) {
-					outputStream.write(parseValue(record[c][v]));
+				BDFCodec.encode(record[c], 0, buffer, sampleRate);
+			}
+			
+			buffer.flip();
+		}
+		
+		// write all pending records to the file, and sync according to the policy
+		private void writeRecords() throws IOException {
+			if(pending > 0) {
+				ByteBuffer last = records[pending - 1];
+				
+				while(last.hasRemaining()) {
+					channel.write(records, 0, pending);
 				}
+				
+				recordsWritten += pending;
+				unsynced += pending;
+				
+				pending = 0;
+			}
+			
+			if(updateInterval > 0 && recordsWritten - lastUpdate >= updateInterval) {
+				bdf.writeNumRecords(channel, recordsWritten);
+				lastUpdate = recordsWritten;
+			}
+			
+			if(unsynced == 0) {
+				return;
+			}
+			
+			switch(syncPolicy) {
+				case RECORDS:
+					if(unsynced >= syncInterval) {
+						sync();
+					}
+					break;
+				case INTERVAL:
+					if(System.currentTimeMillis() - lastSync >= syncInterval) {
+						sync();
+					}
+					break;
+				default:
+					break;
 			}
 		}
 		
-		// covert sample into a 3 byte array
-		private byte[] parseValue(int value) {
-			byte[] bytes = new byte[3];
+		// force the written records to the disk
+		private void sync() throws IOException {
+			channel.force(false);
 			
-			bytes[0] = (byte) (value & 0xFF);
-			bytes[1] = (byte) ((value >> 8) & 0xFF);
-			bytes[2] = (byte) ((value >>> 16) & 0xFF);
+			unsynced = 0;
+			lastSync = System.currentTimeMillis();
 			
-			return bytes;
+			syncs++;
 		}
-	}	
+	}
 }
\ No newline at end of file
@@ -0,0 +1,191 @@
+package it.hakvoort.bdf.benchmark;
+
+import it.hakvoort.bdf.BDFCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the throughput of the BDFCodec with the per-sample conversion which was used before by the BDFReader and BDFWriter.
+ * Every benchmark converts a record of 280 channels with 2048 samples, the results are printed in MB/s of 24 bit data.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFCodecBenchmark {
+
+	private static final int CHANNELS = 280;
+	private static final int SAMPLES = 2048;
+
+	private static final int WARMUP = 5;
+	private static final int ITERATIONS = 10;
+
+	// the time in milliseconds for each iteration
+	private static final long DURATION = 500;
+
+	private byte[] bytes = new byte[CHANNELS * SAMPLES * BDFCodec.SAMPLE_SIZE];
+	private int[] values = new int[CHANNELS * SAMPLES];
+	private float[] floats = new float[CHANNELS * SAMPLES];
+
+	// prevents the jit from removing the benchmarked code
+	private long sink = 0;
+
+	public BDFCodecBenchmark() {
+		new Random(0).nextBytes(bytes);
+	}
+
+	public void run() {
+		verify();
+
+		measure("decode (per sample)", new Runnable() {
+			public void run() {
+				for(int c = 0; c < CHANNELS; c++) {
+					byte[] channel = new byte[SAMPLES * 3];
+					System.arraycopy(bytes, c * channel.length, channel, 0, channel.length);
+
+					int[] samples = parseChannel(channel);
+					sink += samples[0];
+				}
+			}
+		});
+
+		measure("decode (codec)", new Runnable() {
+			public void run() {
+				BDFCodec.decode(bytes, 0, values, 0, values.length);
+				sink += values[0];
+			}
+		});
+
+		measure("decode float (per sample)", new Runnable() {
+			public void run() {
+				for(int c = 0; c < CHANNELS; c++) {
+					byte[] channel = new byte[SAMPLES * 3];
+					System.arraycopy(bytes, c * channel.length, channel, 0, channel.length);
+
+					int[] samples = parseChannel(channel);
+
+					for(int i = 0; i < samples.length; i++) {
+						floats[c * SAMPLES + i] = samples[i] * 0.03125f;
+					}
+				}
+				sink += (long) floats[0];
+			}
+		});
+
+		measure("decode float (codec)", new Runnable() {
+			public void run() {
+				BDFCodec.decode(bytes, 0, floats, 0, floats.length, 0.03125f, 0f);
+				sink += (long) floats[0];
+			}
+		});
+
+		measure("encode (per sample)", new Runnable() {
+			public void run() {
+				for(int i = 0; i < values.length; i++) {
+					byte[] value = parseValue(values[i]);
+					System.arraycopy(value, 0, bytes, i * 3, 3);
+				}
+				sink += bytes[0];
+			}
+		});
+
+		measure("encode (codec)", new Runnable() {
+			public void run() {
+				BDFCodec.encode(values, 0, bytes, 0, values.length);
+				sink += bytes[0];
+			}
+		});
+
+		System.out.println(String.format("(%s)", sink));
+	}
+
+	// check if the codec gives the same results as the per sample conversion
+	private void verify() {
+		int[] expected = parseChannel(bytes);
+
+		BDFCodec.decode(bytes, 0, values, 0, values.length);
+
+		if(!Arrays.equals(expected, values)) {
+			throw new IllegalStateException("Decoded values differ");
+		}
+
+		byte[] encoded = new byte[bytes.length];
+		BDFCodec.encode(values, 0, encoded, 0, values.length);
+
+		if(!Arrays.equals(bytes, encoded)) {
+			throw new IllegalStateException("Encoded values differ");
+		}
+	}
+
+	private void measure(String name, Runnable benchmark) {
+		for(int i = 0; i < WARMUP; i++) {
+			iterate(benchmark);
+		}
+
+		double best = 0;
+		double total = 0;
+
+		for(int i = 0; i < ITERATIONS; i++) {
+			double throughput = iterate(benchmark);
+
+			best = Math.max(best, throughput);
+			total += throughput;
+		}
+
+		System.out.println(String.format("%-28s %8.1f MB/s (best %8.1f MB/s)", name, total / ITERATIONS, best));
+	}
+
+	// run the benchmark for the given duration, returns the throughput in MB/s
+	private double iterate(Runnable benchmark) {
+		long start = System.nanoTime();
+		long end = start + DURATION * 1000000l;
+
+		long count = 0;
+		long now;
+
+		do {
+			benchmark.run();
+			count++;
+
+			now = System.nanoTime();
+		} while(now < end);
+
+		return (count * (double) bytes.length / 1e6) / ((now - start) / 1e9);
+	}
+
+	// the per sample decoding as used before by the BDFReader
+	private static int[] parseChannel(byte[] data) {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+
+		int[] values = new int[data.length / 3];
+
+		int counter = 0;
+
+		byte[] bytes = new byte[3];
+
+		while(buffer.remaining() > 0) {
+			buffer.get(bytes);
+
+			int value = (bytes[0] & 0xFF) | ((bytes[1] & 0xFF) << 8) | ((bytes[2] & 0xFF) << 16);
+			values[counter++] = ~(value ^ 0x7fffff) + 0x800000;
+		}
+
+		return values;
+	}
+
+	// the per sample encoding as used before by the BDFWriter
+	private static byte[] parseValue(int value) {
+		byte[] bytes = new byte[3];
+
+		bytes[0] = (byte) (value & 0xFF);
+		bytes[1] = (byte) ((value >> 8) & 0xFF);
+		bytes[2] = (byte) ((value >>> 16) & 0xFF);
+
+		return bytes;
+	}
+
+	public static void main(String[] args) {
+		new BDFCodecBenchmark().run();
+	}
+}
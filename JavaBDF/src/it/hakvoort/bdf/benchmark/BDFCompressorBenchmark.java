@@ -0,0 +1,186 @@
+package it.hakvoort.bdf.benchmark;
+
+import it.hakvoort.bdf.BDFCodec;
+import it.hakvoort.bdf.BDFCompressor;
+import it.hakvoort.bdf.BDFException;
+import it.hakvoort.bdf.BDFFile;
+import it.hakvoort.bdf.BDFRandomAccessReader;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Measures the compression ratio and the throughput of the BDFCompressor on the samples of a BDF file, for several sizes
+ * of the compressed blocks. The samples are compressed in the order of the ActiView stream, like the frames of the BDFServer.
+ * The throughput is printed in MB/s of 24 bit data, the ratio is the size of the data divided by the compressed size.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFCompressorBenchmark {
+
+	private static final int[] BLOCK_SIZES = {16, 64, 256, 1024};
+
+	private static final int WARMUP = 5;
+	private static final int ITERATIONS = 10;
+
+	// the time in milliseconds for each iteration
+	private static final long DURATION = 500;
+
+	private final int numChannels;
+	private final int numSamples;
+
+	// the encoded samples of the file, in the order of the ActiView stream
+	private final byte[] bytes;
+
+	// the compressed blocks and their sizes
+	private byte[] compressed;
+	private int[] sizes;
+
+	private int[] values;
+
+	private BDFCompressor compressor;
+
+	// prevents the jit from removing the benchmarked code
+	private long sink = 0;
+
+	public BDFCompressorBenchmark(String pathname) throws IOException, BDFException {
+		BDFRandomAccessReader reader = BDFFile.open(pathname).getRandomAccessReader();
+
+		numChannels = reader.getNumChannels();
+		numSamples 	= (int) reader.getTotalSamples(0);
+
+		int[] channel 	= new int[numSamples];
+		int[] samples 	= new int[numChannels * numSamples];
+
+		for(int c = 0; c < numChannels; c++) {
+			reader.read(c, 0, numSamples, channel);
+
+			for(int s = 0; s < numSamples; s++) {
+				samples[s * numChannels + c] = channel[s];
+			}
+		}
+
+		reader.close();
+
+		bytes = new byte[samples.length * BDFCodec.SAMPLE_SIZE];
+		BDFCodec.encode(samples, 0, bytes, 0, samples.length);
+
+		System.out.println(String.format("%s: %s channels, %s samples, %s bytes", pathname, numChannels, numSamples, bytes.length));
+	}
+
+	public void run() {
+		compressor 	= new BDFCompressor(numChannels);
+		values 		= new int[numChannels * numSamples];
+
+		for(final int blockSize : BLOCK_SIZES) {
+			int blocks = (numSamples + blockSize - 1) / blockSize;
+
+			compressed 	= new byte[blocks * compressor.getMaxCompressedSize(blockSize)];
+			sizes 		= new int[blocks];
+
+			compressAll(blockSize);
+			verify(blockSize);
+
+			long total = 0;
+
+			for(int size : sizes) {
+				total += size;
+			}
+
+			System.out.println(String.format("blocks of %s samples: ratio %.2f", blockSize, bytes.length / (double) total));
+
+			measure("compress", new Runnable() {
+				public void run() {
+					compressAll(blockSize);
+				}
+			});
+
+			measure("decompress", new Runnable() {
+				public void run() {
+					decompressAll(blockSize);
+				}
+			});
+		}
+
+		System.out.println(String.format("(%s)", sink));
+	}
+
+	private void compressAll(int blockSize) {
+		int offset = 0;
+
+		for(int b = 0, s = 0; s < numSamples; b++, s += blockSize) {
+			int samples = Math.min(blockSize, numSamples - s);
+
+			sizes[b] = compressor.compress(bytes, s * numChannels * BDFCodec.SAMPLE_SIZE, samples, compressed, offset);
+			offset += sizes[b];
+		}
+
+		sink += offset;
+	}
+
+	private void decompressAll(int blockSize) {
+		int offset = 0;
+
+		for(int b = 0, s = 0; s < numSamples; b++, s += blockSize) {
+			int samples = Math.min(blockSize, numSamples - s);
+
+			compressor.decompress(compressed, offset, sizes[b], samples, values, s * numChannels);
+			offset += sizes[b];
+		}
+
+		sink += values[0];
+	}
+
+	// check if the decompressed samples are the same as the samples of the file
+	private void verify(int blockSize) {
+		decompressAll(blockSize);
+
+		byte[] encoded = new byte[bytes.length];
+		BDFCodec.encode(values, 0, encoded, 0, values.length);
+
+		if(!Arrays.equals(bytes, encoded)) {
+			throw new IllegalStateException("Decompressed samples differ");
+		}
+	}
+
+	private void measure(String name, Runnable benchmark) {
+		for(int i = 0; i < WARMUP; i++) {
+			iterate(benchmark);
+		}
+
+		double best = 0;
+		double total = 0;
+
+		for(int i = 0; i < ITERATIONS; i++) {
+			double throughput = iterate(benchmark);
+
+			best = Math.max(best, throughput);
+			total += throughput;
+		}
+
+		System.out.println(String.format("  %-26s %8.1f MB/s (best %8.1f MB/s)", name, total / ITERATIONS, best));
+	}
+
+	// run the benchmark for the given duration, returns the throughput in MB/s
+	private double iterate(Runnable benchmark) {
+		long start = System.nanoTime();
+		long end = start + DURATION * 1000000l;
+
+		long count = 0;
+		long now;
+
+		do {
+			benchmark.run();
+			count++;
+
+			now = System.nanoTime();
+		} while(now < end);
+
+		return (count * (double) bytes.length / 1e6) / ((now - start) / 1e9);
+	}
+
+	public static void main(String[] args) throws IOException, BDFException {
+		new BDFCompressorBenchmark(args.length > 0 ? args[0] : "data/bdf/example.bdf").run();
+	}
+}
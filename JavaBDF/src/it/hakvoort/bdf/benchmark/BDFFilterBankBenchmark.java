@@ -0,0 +1,141 @@
+package it.hakvoort.bdf.benchmark;
+
+import it.hakvoort.bdf.BDFFilterBank;
+
+import java.util.Random;
+
+/**
+ * Measures the throughput of the BDFFilterBank for a live stream, by default 280 channels at 2048 Hz in blocks of 64
+ * samples, for several filters. The throughput is printed in seconds of the stream filtered per second, and as the part
+ * of the real-time budget which is used: at 100% filtering takes as long as the stream lasts.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFFilterBankBenchmark {
+
+	private static final int WARMUP = 5;
+	private static final int ITERATIONS = 10;
+
+	// the time in milliseconds for each iteration
+	private static final long DURATION = 500;
+
+	private final int numChannels;
+	private final int sampleRate;
+	private final int blockSize;
+
+	// one second of samples in blocks, channel by channel
+	private final int[][] blocks;
+
+	// prevents the jit from removing the benchmarked code
+	private long sink = 0;
+
+	public BDFFilterBankBenchmark(int numChannels, int sampleRate, int blockSize) {
+		this.numChannels 	= numChannels;
+		this.sampleRate 	= sampleRate;
+		this.blockSize 		= blockSize;
+
+		Random random = new Random(0);
+
+		blocks = new int[(sampleRate + blockSize - 1) / blockSize][numChannels * blockSize];
+
+		// noise with a slow drift and 50 Hz, in the range of 24 bit samples
+		for(int b = 0; b < blocks.length; b++) {
+			for(int c = 0; c < numChannels; c++) {
+				for(int s = 0; s < blockSize; s++) {
+					double t = (b * blockSize + s) / (double) sampleRate;
+
+					blocks[b][c * blockSize + s] = (int) (100000 * Math.sin(2 * Math.PI * 0.1 * t + c) + 20000 * Math.sin(2 * Math.PI * 50 * t) + 5000 * random.nextGaussian());
+				}
+			}
+		}
+
+		System.out.println(String.format("%s channels at %s Hz, blocks of %s samples", numChannels, sampleRate, blockSize));
+	}
+
+	public void run() {
+		BDFFilterBank notch = new BDFFilterBank(numChannels, sampleRate);
+		notch.addNotch(50, 30);
+
+		measure("notch 50 Hz", notch);
+
+		BDFFilterBank bandpass = new BDFFilterBank(numChannels, sampleRate);
+		bandpass.addNotch(50, 30);
+		bandpass.addBandpass(0.5, 40, 4);
+
+		measure("notch, band-pass 0.5-40 Hz", bandpass);
+
+		BDFFilterBank harmonics = new BDFFilterBank(numChannels, sampleRate);
+		harmonics.addPowerLineNotch(50, 30, 5);
+		harmonics.addBandpass(0.5, 100, 4);
+
+		measure("5 notches, band-pass", harmonics);
+
+		BDFFilterBank fir = new BDFFilterBank(numChannels, sampleRate);
+		fir.addNotch(50, 30);
+		fir.addHighpass(0.5, 2);
+		fir.setFir(BDFFilterBank.createFir(65, 0, 40, sampleRate));
+
+		measure("notch, high-pass, 65 tap FIR", fir);
+
+		System.out.println(String.format("(%s)", sink));
+	}
+
+	private void measure(String name, final BDFFilterBank filter) {
+		Runnable benchmark = new Runnable() {
+			public void run() {
+				for(int[] block : blocks) {
+					filter.process(block, 0, blockSize);
+				}
+
+				sink += blocks[0][0];
+			}
+		};
+
+		for(int i = 0; i < WARMUP; i++) {
+			iterate(benchmark);
+		}
+
+		double best = 0;
+		double total = 0;
+
+		for(int i = 0; i < ITERATIONS; i++) {
+			double throughput = iterate(benchmark);
+
+			best = Math.max(best, throughput);
+			total += throughput;
+		}
+
+		double average = total / ITERATIONS;
+
+		System.out.println(String.format("  %-30s %8.1f x real time (best %8.1f x), %5.2f%% of the budget", name, average, best, 100 / average));
+	}
+
+	// run the benchmark for the given duration, returns the seconds of the stream filtered per second
+	private double iterate(Runnable benchmark) {
+		long start = System.nanoTime();
+		long end = start + DURATION * 1000000l;
+
+		long count = 0;
+		long now;
+
+		do {
+			benchmark.run();
+			count++;
+
+			now = System.nanoTime();
+		} while(now < end);
+
+		double seconds = blocks.length * blockSize / (double) sampleRate;
+
+		return count * seconds / ((now - start) / 1e9);
+	}
+
+	public static void main(String[] args) {
+		int numChannels = args.length > 0 ? Integer.parseInt(args[0]) : 280;
+		int sampleRate 	= args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+		int blockSize 	= args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+		new BDFFilterBankBenchmark(numChannels, sampleRate, blockSize).run();
+	}
+}
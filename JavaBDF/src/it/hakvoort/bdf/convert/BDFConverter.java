@@ -0,0 +1,416 @@
+package it.hakvoort.bdf.convert;
+
+import it.hakvoort.bdf.BDFChannel;
+import it.hakvoort.bdf.BDFException;
+import it.hakvoort.bdf.BDFFile;
+import it.hakvoort.bdf.BDFRandomAccessReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The <code>BDFConverter</code> converts BDF files into planar files which can be loaded directly by analysis tools.
+ *
+ * The output contains all samples of channel 0, followed by all samples of channel 1, etc. Every sample is stored as a
+ * little endian int32 (the digital value) or float32 (the physical value, using the gain and offset of the channel).
+ *
+ * Each file is split into ranges of records which are decoded and written in parallel on a ForkJoinPool. Multiple files
+ * are converted at the same time, so the pool is kept busy when a file has only a few records.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFConverter {
+
+	/**
+	 * The type of the values in the output file.
+	 */
+	public enum Format {INT32, FLOAT32};
+
+	// the size of an output value in bytes
+	private static final int VALUE_SIZE = 4;
+
+	// the pool running the conversions
+	private ForkJoinPool pool;
+
+	// the type of the values in the output files
+	private Format format = Format.INT32;
+
+	// the maximum number of records converted by a single task
+	private int recordsPerTask = 16;
+
+	public BDFConverter() {
+		this(new ForkJoinPool());
+	}
+
+	public BDFConverter(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	public void setFormat(Format format) {
+		this.format = format;
+	}
+
+	public int getRecordsPerTask() {
+		return recordsPerTask;
+	}
+
+	/**
+	 * Sets the maximum number of records converted by a single task. Smaller ranges spread the work better over the threads,
+	 * larger ranges need less writes.
+	 */
+	public void setRecordsPerTask(int recordsPerTask) {
+		this.recordsPerTask = Math.max(recordsPerTask, 1);
+	}
+
+	/**
+	 * Returns the output file for a BDF file: the name of the file with the extension of the format, in the output directory.
+	 */
+	public File getOutputFile(File file, File outputDirectory) {
+		String name = file.getName();
+
+		if(name.toLowerCase().endsWith(".bdf")) {
+			name = name.substring(0, name.length() - 4);
+		}
+
+		return new File(outputDirectory, name + "." + format.name().toLowerCase());
+	}
+
+	/**
+	 * Converts a single BDF file.
+	 */
+	public Result convert(File file, File output) {
+		return pool.invoke(new FileTask(file, output));
+	}
+
+	/**
+	 * Converts all files in parallel, the output files are written to the output directory.
+	 *
+	 * @return	the result of each file, in the same order as the files.
+	 */
+	public List<Result> convert(List<File> files, File outputDirectory) {
+		final List<FileTask> tasks = new ArrayList<FileTask>();
+
+		for(File file : files) {
+			tasks.add(new FileTask(file, getOutputFile(file, outputDirectory)));
+		}
+
+		pool.invoke(new RecursiveAction() {
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+
+		List<Result> results = new ArrayList<Result>();
+
+		for(FileTask task : tasks) {
+			results.add(task.join());
+		}
+
+		return results;
+	}
+
+	/**
+	 * The <code>Result</code> of converting a single file.
+	 */
+	public static class Result {
+
+		// the converted file
+		public final File file;
+
+		// the output file
+		public final File output;
+
+		// the number of converted records
+		public final long records;
+
+		// the number of bytes of the converted records
+		public final long bytes;
+
+		// the time of the conversion in nanoseconds
+		public final long nanos;
+
+		// the reason the conversion failed, or null
+		public final String error;
+
+		public Result(File file, File output, long records, long bytes, long nanos, String error) {
+			this.file 		= file;
+			this.output 	= output;
+			this.records 	= records;
+			this.bytes 		= bytes;
+			this.nanos 		= nanos;
+			this.error 		= error;
+		}
+
+		public boolean isSuccess() {
+			return error == null;
+		}
+
+		/**
+		 * Returns the number of MB of BDF data converted per second.
+		 */
+		public double getMegabytesPerSecond() {
+			return nanos == 0 ? 0 : (bytes / 1e6) / (nanos / 1e9);
+		}
+
+		public double getRecordsPerSecond() {
+			return nanos == 0 ? 0 : records / (nanos / 1e9);
+		}
+
+		public String toString() {
+			if(!isSuccess()) {
+				return String.format("%s: %s", file.getName(), error);
+			}
+
+			return String.format("%s: %d records, %.1f MB in %.1f ms, %.1f MB/s, %.1f records/s", file.getName(), records, bytes / 1e6, nanos / 1e6, getMegabytesPerSecond(), getRecordsPerSecond());
+		}
+	}
+
+	// converts a single file by splitting it into ranges of records
+	private class FileTask extends RecursiveTask<Result> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File file;
+		private final File output;
+
+		public FileTask(File file, File output) {
+			this.file 	= file;
+			this.output = output;
+		}
+
+		protected Result compute() {
+			long start = System.nanoTime();
+
+			BDFRandomAccessReader reader = null;
+			RandomAccessFile raf = null;
+
+			try {
+				reader 	= BDFFile.open(file.getPath()).getRandomAccessReader();
+				raf 	= new RandomAccessFile(output, "rw");
+
+				int numChannels = reader.getNumChannels();
+
+				// the start of each channel in the output file
+				long[] offsets = new long[numChannels];
+
+				float[] gains 		= new float[numChannels];
+				float[] physical 	= new float[numChannels];
+
+				long length = 0;
+
+				for(int c = 0; c < numChannels; c++) {
+					offsets[c] 	= length;
+					length 		+= reader.getTotalSamples(c) * VALUE_SIZE;
+
+					BDFChannel channel = reader.getBDFFile().getHeader().getChannel(c);
+
+					try {
+						gains[c] 	= (float) channel.computeGain();
+						physical[c] = (float) channel.computeOffset();
+					} catch(NumberFormatException e) {
+						// no valid physical range, store the digital values
+						gains[c] 	= 1;
+						physical[c] = 0;
+					}
+				}
+
+				raf.setLength(length);
+
+				new RangeTask(reader, raf.getChannel(), offsets, gains, physical, 0, reader.getNumRecords()).invoke();
+
+				return new Result(file, output, reader.getNumRecords(), reader.getNumRecords() * reader.getRecordLength(), System.nanoTime() - start, null);
+
+			} catch(IOException e) {
+				return failed(e);
+			} catch(BDFException e) {
+				return failed(e);
+			} catch(RuntimeException e) {
+				return failed(e.getCause() != null ? e.getCause() : e);
+			} finally {
+				try {
+					if(reader != null) {
+						reader.close();
+					}
+
+					if(raf != null) {
+						raf.close();
+					}
+				} catch(IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		private Result failed(Throwable e) {
+			System.err.println(String.format("Could not convert %s: %s", file, e));
+
+			return new Result(file, output, 0, 0, 0, e.toString());
+		}
+	}
+
+	// converts a range of records, splits the range when it is too large
+	private class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BDFRandomAccessReader reader;
+		private final FileChannel channel;
+		private final long[] offsets;
+		private final float[] gains;
+		private final float[] physical;
+
+		// the first record and the record after the range
+		private final long from;
+		private final long to;
+
+		public RangeTask(BDFRandomAccessReader reader, FileChannel channel, long[] offsets, float[] gains, float[] physical, long from, long to) {
+			this.reader 	= reader;
+			this.channel 	= channel;
+			this.offsets 	= offsets;
+			this.gains 		= gains;
+			this.physical 	= physical;
+			this.from 		= from;
+			this.to 		= to;
+		}
+
+		protected void compute() {
+			if(to - from > recordsPerTask) {
+				long middle = (from + to) >>> 1;
+
+				invokeAll(
+					new RangeTask(reader, channel, offsets, gains, physical, from, middle),
+					new RangeTask(reader, channel, offsets, gains, physical, middle, to)
+				);
+
+				return;
+			}
+
+			int records = (int) (to - from);
+
+			int maxSamples = 0;
+
+			for(int c = 0; c < reader.getNumChannels(); c++) {
+				maxSamples = Math.max(maxSamples, reader.getNumSamples(c) * records);
+			}
+
+			int[] values 		= new int[maxSamples];
+			float[] floats 		= format == Format.FLOAT32 ? new float[maxSamples] : null;
+			ByteBuffer buffer 	= ByteBuffer.allocate(maxSamples * VALUE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			IntBuffer ints 		= buffer.asIntBuffer();
+			FloatBuffer reals 	= buffer.asFloatBuffer();
+
+			try {
+				for(int c = 0; c < reader.getNumChannels(); c++) {
+					int samples = reader.getNumSamples(c) * records;
+
+					// the samples of a channel are contiguous in the output, so each channel of the range is a single write
+					reader.read(c, from * reader.getNumSamples(c), samples, values);
+
+					if(format == Format.FLOAT32) {
+						for(int i = 0; i < samples; i++) {
+							floats[i] = values[i] * gains[c] + physical[c];
+						}
+
+						reals.clear();
+						reals.put(floats, 0, samples);
+					} else {
+						ints.clear();
+						ints.put(values, 0, samples);
+					}
+
+					buffer.clear();
+					buffer.limit(samples * VALUE_SIZE);
+
+					long position = offsets[c] + from * reader.getNumSamples(c) * VALUE_SIZE;
+
+					while(buffer.hasRemaining()) {
+						position += channel.write(buffer, position);
+					}
+				}
+			} catch(IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		BDFConverter converter = null;
+
+		Format format = Format.INT32;
+
+		int i = 0;
+
+		for(; i < args.length && args[i].startsWith("-"); i++) {
+			if(args[i].equals("-float")) {
+				format = Format.FLOAT32;
+			} else if(args[i].equals("-threads") && i + 1 < args.length) {
+				converter = new BDFConverter(new ForkJoinPool(Integer.parseInt(args[++i])));
+			} else {
+				break;
+			}
+		}
+
+		if(args.length - i < 2) {
+			System.out.println("Usage: BDFConverter [-float] [-threads n] <output directory> <file.bdf> ...");
+			return;
+		}
+
+		if(converter == null) {
+			converter = new BDFConverter();
+		}
+
+		converter.setFormat(format);
+
+		File outputDirectory = new File(args[i++]);
+		outputDirectory.mkdirs();
+
+		List<File> files = new ArrayList<File>();
+
+		for(; i < args.length; i++) {
+			files.add(new File(args[i]));
+		}
+
+		long start = System.nanoTime();
+
+		List<Result> results = converter.convert(files, outputDirectory);
+
+		long nanos = System.nanoTime() - start;
+
+		long records 	= 0;
+		long bytes 		= 0;
+
+		for(Result result : results) {
+			System.out.println(result);
+
+			records += result.records;
+			bytes 	+= result.bytes;
+		}
+
+		Result total = new Result(new File("total"), outputDirectory, records, bytes, nanos, null);
+
+		System.out.println(String.format("%d files with %d threads, %s", files.size(), converter.getPool().getParallelism(), total));
+
+		converter.getPool().shutdown();
+	}
+}
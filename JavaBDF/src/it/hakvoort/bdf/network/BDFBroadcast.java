@@ -1,95 +1,325 @@
 package it.hakvoort.bdf.network;
 
+import it.hakvoort.bdf.BDFCodec;
+import it.hakvoort.bdf.network.BDFServer.SlowClientPolicy;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BDFBroadcast connects to a BDF Server and broadcasts the incoming data to all connected clients.
- * 
+ *
+ * Incoming data is read in large chunks into pooled direct buffers. Complete samples are published as immutable slices,
+ * which are shared by the send queues of all clients without copying. A buffer is returned to the pool when all its
+ * slices are sent to (or dropped for) every client. All clients are handled by a single thread using a Selector.
+ *
+ * The broadcast can keep a history of the last samples by holding on to the newest slices. New clients receive the
+ * history at full speed before the live data, again without copying.
+ *
  * @author Gido Hakvoort (gido@hakvoort.it)
  *
  */
 public class BDFBroadcast {
 
+	// the size of a pooled buffer
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	// the maximum number of slices sent with a single write
+	private static final int MAX_GATHER = 16;
+
 	// the connected clients
 	protected List<BDFBroadcastClientHandler> clients = new CopyOnWriteArrayList<BDFBroadcastClientHandler>();
-	
+
+	// clients with new data, to be sent by the server thread
+	private Queue<BDFBroadcastClientHandler> pendingClients = new ConcurrentLinkedQueue<BDFBroadcastClientHandler>();
+
+	// buffers which are not in use
+	private Queue<Block> pool = new ConcurrentLinkedQueue<Block>();
+
 	// the server thread
 	private Thread serverThread;
 
 	// the client thread
 	private Thread clientThread;
-	
+
+	// the client receiving the incoming data
+	private BDFBroadcastClient client;
+
+	// the server handling the connected clients
+	private BDFBroadcastServer server;
+
 	// if the client is connected
-	private boolean running = false;
-	
+	private volatile boolean running = false;
+
+	// the number of bytes which can be queued for each client
+	private int clientBufferSize = 1024 * 1024;
+
+	// the maximum number of connected clients, 0 for no maximum
+	private volatile int maxClients = 0;
+
+	// what happens when the queue of a client is full
+	private SlowClientPolicy slowClientPolicy = SlowClientPolicy.DROP;
+
+	// the number of samples which are kept for new clients, 0 for no history
+	private int historySize = 0;
+
+	// the newest slices, referenced by the history
+	private ArrayDeque<Slice> history = new ArrayDeque<Slice>();
+
+	// the number of bytes in the history
+	private int historyBytes = 0;
+
 	public BDFBroadcast(String HOST, int SERVER_PORT, int numChannels, int BROADCAST_PORT) {
 
 		// create a client for receiving incoming data
-		BDFBroadcastClient client = new BDFBroadcastClient(HOST, SERVER_PORT, numChannels);
-		
+		client = new BDFBroadcastClient(HOST, SERVER_PORT, numChannels);
+
 		// create a server for handling new incoming connections
-		BDFBroadcastServer server = new BDFBroadcastServer(BROADCAST_PORT);
-		
+		server = new BDFBroadcastServer(BROADCAST_PORT);
+
 		clientThread = new Thread(client);
 		client.connect();
 		serverThread = new Thread(server);
-		
+
 		clientThread.start();
 		serverThread.start();
 	}
-	
+
+	public int getClientBufferSize() {
+		return clientBufferSize;
+	}
+
+	/**
+	 * Sets the number of bytes which can be queued for each client.
+	 */
+	public void setClientBufferSize(int clientBufferSize) {
+		this.clientBufferSize = Math.max(clientBufferSize, 1);
+	}
+
+	public int getMaxClients() {
+		return maxClients;
+	}
+
+	/**
+	 * Sets the maximum number of connected clients, 0 (default) for no maximum. New connections over the maximum are closed right away.
+	 */
+	public void setMaxClients(int maxClients) {
+		this.maxClients = Math.max(maxClients, 0);
+	}
+
+	public SlowClientPolicy getSlowClientPolicy() {
+		return slowClientPolicy;
+	}
+
+	/**
+	 * Sets what happens when the queue of a client is full: DROP the new data, DISCONNECT the client or COALESCE by
+	 * removing the oldest data which is not partially sent.
+	 */
+	public void setSlowClientPolicy(SlowClientPolicy slowClientPolicy) {
+		this.slowClientPolicy = slowClientPolicy;
+	}
+
+	public int getHistorySize() {
+		return historySize;
+	}
+
 	/**
-	 * Send the data to all connected clients
+	 * Sets the number of samples which are kept and sent to new clients before the live data, 0 (default) for no history.
+	 * The history is rounded up to whole reads from the server. The buffer size of the clients does not limit the history.
 	 */
-	private void fireReceivedData(byte[] data) {
-		for(BDFBroadcastClientHandler client : clients) {
-			client.receivedData(data);
+	public void setHistorySize(int historySize) {
+		synchronized(history) {
+			this.historySize = Math.max(historySize, 0);
+
+			trimHistory();
 		}
 	}
-	
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public List<BDFBroadcastClientHandler> getClients() {
+		return clients;
+	}
+
+	/**
+	 * Disconnects from the BDF Server and all connected clients, and waits for the client and server threads to end.
+	 */
+	public void stop() {
+		running = false;
+
+		client.close();
+		server.close();
+
+		join(clientThread);
+		join(serverThread);
+
+		synchronized(history) {
+			for(Slice slice : history) {
+				slice.block.release();
+			}
+
+			history.clear();
+			historyBytes = 0;
+		}
+	}
+
+	// wait for a thread to end, unless it is the current thread
+	private void join(Thread thread) {
+		if(thread == Thread.currentThread()) {
+			return;
+		}
+
+		try {
+			thread.join(5000);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Send the slice to all connected clients
+	 */
+	private void fireReceivedData(Slice slice) {
+		boolean wakeup = false;
+
+		// new clients receive the history and the following slices, without missing or repeating a slice
+		synchronized(history) {
+			if(historySize > 0) {
+				slice.block.retain(1);
+
+				history.add(slice);
+				historyBytes += slice.length;
+
+				trimHistory();
+			}
+
+			for(BDFBroadcastClientHandler handler : clients) {
+				// every client holds a reference until the slice is sent
+				slice.block.retain(1);
+
+				if(handler.receivedData(slice)) {
+					pendingClients.add(handler);
+					wakeup = true;
+				}
+			}
+		}
+
+		if(wakeup) {
+			server.wakeup();
+		}
+	}
+
+	// remove the oldest slices which are not needed for the size of the history
+	private void trimHistory() {
+		int size = historySize * client.numChannels * BDFCodec.SAMPLE_SIZE;
+
+		while(!history.isEmpty() && historyBytes - history.peek().length >= size) {
+			Slice oldest = history.poll();
+			historyBytes -= oldest.length;
+
+			oldest.block.release();
+		}
+	}
+
+	// returns a buffer from the pool, referenced once by the caller
+	private Block takeBlock() {
+		Block block = pool.poll();
+
+		if(block == null) {
+			block = new Block();
+		}
+
+		block.references.set(1);
+
+		return block;
+	}
+
+	/**
+	 * A pooled direct buffer, shared by the slices which were read into it.
+	 */
+	private class Block {
+
+		// the data
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+
+		// the number of references to the buffer
+		private final AtomicInteger references = new AtomicInteger(0);
+
+		private void retain(int count) {
+			references.addAndGet(count);
+		}
+
+		// return the buffer to the pool when it is no longer referenced
+		private void release() {
+			if(references.decrementAndGet() == 0) {
+				buffer.clear();
+				pool.offer(this);
+			}
+		}
+	}
+
+	/**
+	 * An immutable range of complete samples within a Block.
+	 */
+	private static class Slice {
+
+		private final Block block;
+		private final int offset;
+		private final int length;
+
+		private Slice(Block block, int offset, int length) {
+			this.block 	= block;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
 	/**
 	 * BDFBroadcastClient connects to a BDF Server and sends the incoming data to all connected clients.
 	 *
 	 */
 	private class BDFBroadcastClient implements Runnable {
-		
-		// the client socket
-		private Socket socket;
-		
-		// the input stream
-		private InputStream input;
+
+		// the connection with the server
+		private SocketChannel channel;
 
 		// the hostname or ip address of the server
 		private String HOST;
-		
+
 		// the server port
 		private int PORT;
-		
+
 		// the number of channels in the stream
 		private int numChannels;
-		
+
 		public BDFBroadcastClient(String HOST, int PORT, int numChannels) {
 			this.HOST = HOST;
 			this.PORT = PORT;
-			
+
 			this.numChannels = numChannels;
 		}
-		
+
 		private void connect() {
 			try {
-				socket = new Socket();
-				socket.connect(new InetSocketAddress(HOST, PORT), 5000);
-				input = socket.getInputStream();
+				channel = SocketChannel.open();
+				channel.socket().connect(new InetSocketAddress(HOST, PORT), 5000);
 
 				running = true;
 			} catch (UnknownHostException e) {
@@ -98,152 +328,459 @@ public class BDFBroadcast {
 				System.err.println(String.format("Could not connect to %s:%s", HOST, PORT));
 			}
 		}
-		
+
+		private void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println(String.format("Disconnect error"));
+			}
+		}
+
 		public void run() {
-			byte[] buffer = new byte[numChannels * 3];
+			if(!running) {
+				return;
+			}
+
+			int sampleSize = numChannels * BDFCodec.SAMPLE_SIZE;
+
+			// a new buffer is used when the current buffer has less room left
+			int minimum = Math.max(sampleSize, BLOCK_SIZE / 16);
+
+			Block block = takeBlock();
+			ByteBuffer buffer = block.buffer;
+
+			// the start of the data which is not yet published
+			int start = 0;
 
-			int index = 0;
-			
 			try {
 				while(running) {
-					// get next byte
-					int b = input.read();
-					
-					// stop if end of stream
-					if(b == -1) {
-						running = false;
-						continue;
+					if(buffer.remaining() < minimum) {
+						// continue in a new buffer, starting with the incomplete sample
+						Block next = takeBlock();
+
+						ByteBuffer rest = buffer.duplicate();
+						rest.flip();
+						rest.position(start);
+
+						next.buffer.put(rest);
+
+						block.release();
+
+						block 	= next;
+						buffer 	= next.buffer;
+						start 	= 0;
 					}
-					
-					// store byte in buffer
-					buffer[index] = (byte) b;
-					
-					// update index
-					index++;
-					
-					// if buffer is not full, continue reading data
-					if(index < buffer.length) {
-						continue;
+
+					// read as much as is available
+					if(channel.read(buffer) == -1) {
+						break;
+					}
+
+					// publish all complete samples
+					int complete = (buffer.position() - start) / sampleSize * sampleSize;
+
+					if(complete > 0) {
+						fireReceivedData(new Slice(block, start, complete));
+						start += complete;
 					}
-					
-					fireReceivedData(buffer);
 				}
 			} catch(IOException e) {
-				
+				if(running) {
+					System.err.println(String.format("Connection with %s:%s lost.", HOST, PORT));
+				}
+			}
+
+			block.release();
+
+			if(running) {
+				BDFBroadcast.this.stop();
 			}
-			
-			running = false;
 		}
 	}
-	
+
 	/**
-	 * BDFBroadcastServer listens for incoming connections and handles them properly.
+	 * BDFBroadcastServer listens for incoming connections and sends the queued data to the clients.
 	 */
 	private class BDFBroadcastServer implements Runnable {
-		
+
 		// the server socket
-		private ServerSocket serverSocket;
+		private ServerSocketChannel serverChannel;
+
+		// the selector for all connections
+		private Selector selector;
 
 		// the hostname or ip address of the server
 		private String HOST;
-		
+
 		// the server port
 		private int PORT;
-		
+
 		public BDFBroadcastServer(int PORT) {
 			this.PORT = PORT;
 		}
-		
-		public void run() {		
+
+		private void wakeup() {
+			if(selector != null) {
+				selector.wakeup();
+			}
+		}
+
+		private void close() {
+			try {
+				if(selector != null) {
+					selector.close();
+				}
+
+				if(serverChannel != null) {
+					serverChannel.close();
+				}
+			} catch (IOException e) {
+				System.err.println(String.format("Disconnect error"));
+			}
+
+			for(BDFBroadcastClientHandler handler : clients) {
+				handler.close();
+			}
+		}
+
+		public void run() {
 			if(!running) {
 				return;
 			}
-			
+
 			try {
-				serverSocket = new ServerSocket();
-				serverSocket.bind(new InetSocketAddress(PORT));
-				
-				serverSocket.setSoTimeout(10000);
-				
+				selector = Selector.open();
+
+				serverChannel = ServerSocketChannel.open();
+				serverChannel.socket().bind(new InetSocketAddress(PORT));
+				serverChannel.configureBlocking(false);
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
 				HOST = InetAddress.getLocalHost().getHostAddress();
-				
+
 				System.out.println(String.format("BDFBroadcastServer connected and listening for connections on: %s:%s.", HOST, PORT));
-				
-			} catch(SecurityException e) {
-				e.printStackTrace();
-				System.err.println(String.format("Could not bind socket to address %s:%s", HOST, PORT));
-				running = false;
+
 			} catch(IOException e) {
 				e.printStackTrace();
 				System.err.println(String.format("Could not bind socket to address %s:%s", HOST, PORT));
-				running = false;
+				BDFBroadcast.this.stop();
+				return;
 			}
 
-			while(running) {
-				try {
-					Socket socket = serverSocket.accept();
-					BDFBroadcastClientHandler handler = new BDFBroadcastClientHandler(socket);
-					
-					clients.add(handler);
-					
-					String name = String.format("BDFClient_%s", clients.size());
-					
-					System.out.println(String.format("%s connected from '%s'.", name, socket.getInetAddress().getHostAddress()));
-					
-					Thread handlerThread = new Thread(handler);
-					handlerThread.setName(name);
-					handlerThread.setDaemon(true);
-					handlerThread.start();
-				} catch(SocketTimeoutException e) {
-					// timeout, for checking if the client is still connected
-				} catch(IOException e) {
+			try {
+				while(running) {
+					selector.select();
+
+					// send the new data of clients which were not waiting to write
+					BDFBroadcastClientHandler pending;
+
+					while((pending = pendingClients.poll()) != null) {
+						pending.write();
+					}
+
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+					while(keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+
+						if(!key.isValid()) {
+							continue;
+						}
+
+						if(key.isAcceptable()) {
+							accept();
+							continue;
+						}
+
+						BDFBroadcastClientHandler handler = (BDFBroadcastClientHandler) key.attachment();
+
+						if(key.isReadable()) {
+							handler.read();
+						}
+
+						if(key.isValid() && key.isWritable()) {
+							handler.write();
+						}
+					}
+				}
+			} catch(IOException e) {
+				if(running) {
 					e.printStackTrace();
 				}
+			} catch(ClosedSelectorException e) {
+				// the broadcast was stopped
 			}
 		}
+
+		// accept a new client
+		private void accept() throws IOException {
+			SocketChannel channel = serverChannel.accept();
+
+			if(channel == null) {
+				return;
+			}
+
+			if(maxClients > 0 && clients.size() >= maxClients) {
+				System.err.println(String.format("Client from '%s' refused, the maximum of %s clients is reached.", channel.socket().getInetAddress().getHostAddress(), maxClients));
+				channel.close();
+				return;
+			}
+
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+
+			BDFBroadcastClientHandler handler = new BDFBroadcastClientHandler(channel);
+			handler.key = channel.register(selector, SelectionKey.OP_READ, handler);
+
+			synchronized(history) {
+				clients.add(handler);
+
+				handler.replay(history);
+			}
+
+			handler.name = String.format("BDFClient_%s", clients.size());
+
+			handler.write();
+
+			System.out.println(String.format("%s connected from '%s'.", handler.name, channel.socket().getInetAddress().getHostAddress()));
+		}
 	}
-	
+
 	/**
-	 * BDFBroadcastClientHandler handles unique client connections. The handler receives byte arrays of data from the BDFBroadcastClient and
-	 * sending them over the network, mimicking Biosemi's ActiView network connection.
+	 * BDFBroadcastClientHandler handles unique client connections. The handler queues the slices of incoming data for
+	 * a client, which are sent by the server thread when the client can receive data, mimicking Biosemi's ActiView network connection.
 	 */
-	public class BDFBroadcastClientHandler implements Runnable {
-		
-		// the input stream to keep the connection open
-		private InputStream in;
-		
-		// the output stream to send data to
-		private OutputStream out;
-		
+	public class BDFBroadcastClientHandler {
+
+		// the name of the client
+		private String name;
+
+		// the connection with the client
+		private SocketChannel channel;
+
+		// the key of the channel in the selector
+		private SelectionKey key;
+
+		// the slices waiting to be sent
+		private ArrayDeque<Slice> queue = new ArrayDeque<Slice>();
+
+		// the number of bytes in the queue which are not sent
+		private int queued = 0;
+
+		// the number of bytes of the history in the queue which are not sent, they do not count for the buffer size
+		private int backlog = 0;
+
+		// the number of bytes of the first slice which are sent
+		private int sent = 0;
+
+		// the views on the slices for a gathering write
+		private ByteBuffer[] views = new ByteBuffer[MAX_GATHER];
+
+		// data sent by the client is ignored
+		private ByteBuffer input = ByteBuffer.allocate(256);
+
+		// the number of bytes which were not sent to the client
+		private long droppedBytes = 0;
+
 		// if the handler is connected
-		private boolean connected = true; 
-		
-		public BDFBroadcastClientHandler(Socket socket) throws IOException {
-			in = socket.getInputStream();
-			out = socket.getOutputStream();
-		}
-		
-		@Override
-		public void run() {
+		private boolean connected = true;
+
+		public BDFBroadcastClientHandler(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the number of bytes waiting to be sent to the client.
+		 */
+		public synchronized int getPending() {
+			return queued;
+		}
+
+		/**
+		 * Returns the number of bytes which were not sent to the client because its queue was full.
+		 */
+		public synchronized long getDroppedBytes() {
+			return droppedBytes;
+		}
+
+		// queue the slices of the history
+		private synchronized void replay(ArrayDeque<Slice> slices) {
+			for(Slice slice : slices) {
+				slice.block.retain(1);
+
+				queue.add(slice);
+				queued += slice.length;
+			}
+
+			backlog = queued;
+		}
+
+		// queue a slice, returns true if the queue was empty before. The reference on the slice is taken over.
+		private synchronized boolean receivedData(Slice slice) {
+			if(!connected) {
+				slice.block.release();
+				return false;
+			}
+
+			int limit = clientBufferSize + backlog;
+
+			if(queued + slice.length > limit) {
+				switch(slowClientPolicy) {
+					case DISCONNECT:
+						System.err.println(String.format("%s is too slow, disconnecting.", name));
+						slice.block.release();
+						close();
+						return false;
+					case COALESCE:
+						// remove the oldest slices, except a slice which is partially sent
+						while(queued + slice.length > limit && queue.size() > (sent > 0 ? 1 : 0)) {
+							Slice oldest = sent > 0 ? removeSecond() : queue.poll();
+
+							queued 			-= oldest.length;
+							droppedBytes 	+= oldest.length;
+
+							oldest.block.release();
+						}
+
+						backlog = Math.min(backlog, queued);
+
+						// the slice does not fit in an empty queue, drop it
+						if(queued + slice.length > limit) {
+							return drop(slice);
+						}
+
+						break;
+					default:
+						return drop(slice);
+				}
+			}
+
+			boolean empty = queue.isEmpty();
+
+			queue.add(slice);
+			queued += slice.length;
+
+			return empty;
+		}
+
+		// drop a slice which does not fit in the queue, always returns false
+		private boolean drop(Slice slice) {
+			droppedBytes += slice.length;
+			slice.block.release();
+
+			return false;
+		}
+
+		// remove the slice after the partially sent slice
+		private Slice removeSecond() {
+			Slice first = queue.poll();
+			Slice second = queue.poll();
+
+			queue.addFirst(first);
+
+			return second;
+		}
+
+		// send as many queued slices as possible with a single write, wait for the channel to become writable for the rest
+		private synchronized void write() {
+			if(!connected) {
+				return;
+			}
+
+			int count = 0;
+
+			for(Slice slice : queue) {
+				if(count == views.length) {
+					break;
+				}
+
+				ByteBuffer view = slice.block.buffer.duplicate();
+				view.limit(slice.offset + slice.length);
+				view.position(slice.offset + (count == 0 ? sent : 0));
+
+				views[count++] = view;
+			}
+
 			try {
-				while(connected && in.read() != -1) {}
-			} catch (IOException e) {
-				connected = false;
+				long written = count == 0 ? 0 : channel.write(views, 0, count);
+
+				queued 	-= written;
+				backlog = (int) Math.max(backlog - written, 0);
+
+				// release the slices which are sent completely
+				written += sent;
+
+				while(!queue.isEmpty() && written >= queue.peek().length) {
+					Slice slice = queue.poll();
+					written -= slice.length;
+
+					slice.block.release();
+				}
+
+				sent = (int) written;
+
+				key.interestOps(queue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			} catch(IOException e) {
+				close();
+			}
+
+			for(int i = 0; i < count; i++) {
+				views[i] = null;
+			}
+		}
+
+		// read data sent by the client, to detect a closed connection
+		private void read() {
+			try {
+				input.clear();
+
+				if(channel.read(input) == -1) {
+					close();
+				}
+			} catch(IOException e) {
+				close();
 			}
-			
-			clients.remove(this);
-			System.out.println(String.format("%s disconnected.", Thread.currentThread().getName()));
 		}
-		
-		public void receivedData(byte[] data) {
+
+		/**
+		 * Closes the connection with the client, the queued slices are released.
+		 */
+		public synchronized void close() {
+			if(!connected) {
+				return;
+			}
+
+			connected = false;
+
+			clients.remove(this);
+
+			if(key != null) {
+				key.cancel();
+			}
+
 			try {
-				out.write(data);
+				channel.close();
 			} catch (IOException e) {
-				connected = false;
+				System.err.println(String.format("Disconnect error"));
+			}
+
+			for(Slice slice : queue) {
+				slice.block.release();
 			}
+
+			queue.clear();
+			queued = 0;
+
+			System.out.println(String.format("%s disconnected.", name));
 		}
 	}
-	
+
 	public static void main(String[] args) {
 		if(args.length < 4) {
 			System.out.println("Usage: BDFBroadcast HOSTNAME SERVER_PORT CHANNELS BROADCAST_PORT");
@@ -251,15 +788,15 @@ public class BDFBroadcast {
 			System.out.println("SERVER_PORT    : port number of the BDF server.");
 			System.out.println("CHANNELS       : the number of channels in the BDF data stream.");
 			System.out.println("BROADCAST_PORT : port number for connecting clients.");
-			
+
 			return;
 		}
-		
+
 		String HOST 		= args[0];
 		int SERVER_PORT 	= Integer.parseInt(args[1]);
 		int CHANNELS 		= Integer.parseInt(args[2]);
 		int BROADCAST_PORT 	= Integer.parseInt(args[3]);
-		
+
 		new BDFBroadcast(HOST, SERVER_PORT, CHANNELS, BROADCAST_PORT);
 	}
-}
\ No newline at end of file
+}
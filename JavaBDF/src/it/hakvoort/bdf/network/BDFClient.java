@@ -1,28 +1,52 @@
 package it.hakvoort.bdf.network;
 
+import it.hakvoort.bdf.BDFBlockListener;
+import it.hakvoort.bdf.BDFCodec;
+import it.hakvoort.bdf.BDFCompressor;
+import it.hakvoort.bdf.BDFException;
+import it.hakvoort.bdf.BDFHeader;
+import it.hakvoort.bdf.BDFListenerAdapter;
 import it.hakvoort.bdf.BDFSample;
 import it.hakvoort.bdf.BDFListener;
+import it.hakvoort.bdf.network.BDFServer.Protocol;
+import it.hakvoort.bdf.network.BDFServer.Subscription;
+import it.hakvoort.bdf.network.ConnectionSupervisor.Connector;
+import it.hakvoort.bdf.network.FrameReader.FrameHandler;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
+ * The <code>BDFClient</code> receives samples from a BDF server, e.g. ActiView or the BDFServer.
+ * 
+ * The stream is read in large blocks by a FrameReader, all complete samples of a read are decoded at once and sent as a
+ * single block to the BDFBlockListeners. BDFListeners receive the same samples one by one.
+ * 
+ * With the FRAMED protocol of the BDFServer the number of channels is read from the header sent by the server, and
+ * every frame is sent as a block with the sample number of the server. Missing samples are counted.
+ * 
+ * A lost connection can be restored by the {@link ConnectionSupervisor} of the client. Missing samples are reported to
+ * the GapListeners before the following samples. With the FRAMED protocol the client asks the server to resume the stream
+ * where it left off and the subscription is restored. For a raw stream the number of missing samples is estimated from
+ * the time the connection was down, when the sample rate of the stream is known.
+ * 
+ * With the FRAMED protocol the client can ask the server for compressed frames, see {@link BDFCompressor}, which need less
+ * bandwidth at the cost of some processing on both sides.
  * 
  * @author Gido Hakvoort (gido@hakvoort.it)
  *
  */
 public class BDFClient {
 	
-	// the client socket
-	private Socket socket;
-	
-	// the input stream
-	private InputStream input;
+	// the client channel
+	private SocketChannel channel;
 	
 	// the hostname or ip address of the server
 	private String HOST;
@@ -31,7 +55,46 @@ public class BDFClient {
 	private int PORT;
 	
 	// if the client is connected
-	private boolean connected = false;
+	private volatile boolean connected = false;
+	
+	// the format of the stream
+	private Protocol protocol = Protocol.RAW;
+	
+	// the number of channels in the stream
+	private volatile int numChannels;
+	
+	// the number of channels in the complete stream of the server
+	private int serverChannels;
+	
+	// the header received from the server, FRAMED protocol only
+	private volatile BDFHeader header = null;
+	
+	// the number of samples missing between frames
+	private volatile long lostSamples = 0;
+	
+	// the number of the sample following the last frame, FRAMED protocol only
+	private volatile long nextSample = -1;
+	
+	// frames are ignored until the control frame which answers a resume request
+	private volatile boolean resuming = false;
+	
+	// the subscription sent to the server, null for the complete stream
+	private Subscription subscription = null;
+	
+	// the number of samples per second, to estimate the samples missed while the connection of a raw stream was down
+	private int sampleRate = 0;
+	
+	// if the client asks for compressed frames, FRAMED protocol only
+	private boolean compressed = false;
+	
+	// restores a lost connection
+	private ConnectionSupervisor supervisor = new ConnectionSupervisor(new Connector() {
+		
+		@Override
+		public boolean reconnect(long downtime) {
+			return open(downtime);
+		}
+	});
 
 	// the input reader
 	private BDFClientInputReader inputReader;
@@ -39,32 +102,167 @@ public class BDFClient {
 	// listeners waiting for records
 	protected List<BDFListener> listeners = new CopyOnWriteArrayList<BDFListener>();
 	
+	// listeners waiting for blocks of samples
+	protected List<BDFBlockListener> blockListeners = new CopyOnWriteArrayList<BDFBlockListener>();
+	
+	// listeners waiting for missing samples
+	protected List<GapListener> gapListeners = new CopyOnWriteArrayList<GapListener>();
+	
+	// converts blocks into samples for the sample listeners
+	private BDFListenerAdapter listenerAdapter;
+	
+	/**
+	 * Creates a client for a raw stream, like the stream of ActiView, with the given number of channels.
+	 */
 	public BDFClient(String HOST, int PORT, int numChannels) {
 		this.HOST = HOST;
 		this.PORT = PORT;
 		
-		inputReader = new BDFClientInputReader(numChannels);
+		this.numChannels = numChannels;
+	}
+	
+	/**
+	 * Creates a client for the FRAMED protocol of the BDFServer, the number of channels is read from the stream.
+	 */
+	public BDFClient(String HOST, int PORT) {
+		this(HOST, PORT, 0);
+		
+		this.protocol = Protocol.FRAMED;
 	}
 	
 	public void connect() {
+		supervisor.start();
+		
+		if(!open(-1)) {
+			supervisor.connectionLost();
+		}
+	}
+	
+	// connects to the server and starts reading, the downtime is -1 for a new connection
+	private synchronized boolean open(long downtime) {
+		boolean restore = downtime >= 0 && nextSample >= 0;
+		
 		try {
-			socket = new Socket();
-			socket.connect(new InetSocketAddress(HOST, PORT), 5000);
-			input = socket.getInputStream();
-
+			channel = SocketChannel.open();
+			channel.socket().connect(new InetSocketAddress(HOST, PORT), 5000);
+			
+			if(protocol == Protocol.FRAMED) {
+				BDFHeader header = readHeader();
+				
+				// the header of the subscription follows the request
+				if(!restore || subscription == null) {
+					this.header 	= header;
+					numChannels 	= header.computeNumChannels();
+					serverChannels 	= numChannels;
+				}
+			}
+			
 			connected = true;
 		} catch (UnknownHostException e) {
 			System.err.println(String.format("Unknown Host: %s", HOST));
 		} catch (IOException e) {
 			System.err.println(String.format("Could not connect to %s:%s", HOST, PORT));
+		} catch (BDFException e) {
+			System.err.println(String.format("Invalid header from %s:%s: %s", HOST, PORT, e.getMessage()));
+		}
+		
+		if(!connected) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println(String.format("Disconnect error"));
+			}
+			
+			return false;
 		}
 		
-		if(connected) {
-			new Thread(inputReader).start();
+		if(downtime < 0) {
+			lostSamples 	= 0;
+			nextSample 		= -1;
+			subscription 	= null;
+		}
+		
+		resuming 		= false;
+		listenerAdapter = new BDFListenerAdapter(numChannels, listeners);
+		
+		if(restore && protocol == Protocol.FRAMED) {
+			// frames are ignored until the server answers
+			resuming = true;
+			
+			try {
+				request(subscription == null ? String.format("%s %s", BDFServer.RESUME_REQUEST, nextSample) : subscription.toString());
+			} catch(IOException e) {
+				close();
+				return false;
+			}
+		} else if(restore && sampleRate > 0) {
+			long missing = downtime * sampleRate / 1000;
+			
+			if(missing > 0) {
+				lostSamples += missing;
+				
+				fireReceivedGap(nextSample, missing);
+				nextSample += missing;
+			}
+		}
+		
+		if(compressed && protocol == Protocol.FRAMED) {
+			try {
+				request(BDFServer.COMPRESS_REQUEST);
+			} catch(IOException e) {
+				close();
+				return false;
+			}
+		}
+		
+		inputReader = new BDFClientInputReader(numChannels);
+		
+		new Thread(inputReader).start();
+		
+		return true;
+	}
+	
+	// reads the header sent by the server at the start of a FRAMED stream
+	private BDFHeader readHeader() throws IOException, BDFException {
+		ByteBuffer main = ByteBuffer.allocate(256);
+		readFully(main);
+		
+		BDFHeader header = new BDFHeader();
+		header.loadMainHeader(main.array());
+		
+		ByteBuffer channels;
+		
+		try {
+			channels = ByteBuffer.allocate(256 * Integer.parseInt(header.getNumChannels()));
+		} catch(NumberFormatException e) {
+			throw new BDFException("Invalid number of channels in main header");
+		}
+		
+		readFully(channels);
+		header.loadChannelHeader(channels.array());
+		
+		if(header.computeNumChannels() == 0) {
+			throw new BDFException("No channels in header");
+		}
+		
+		return header;
+	}
+	
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer) == -1) {
+				throw new EOFException();
+			}
 		}
 	}
 	
 	public void disconnect() {
+		supervisor.stop();
+		
+		close();
+	}
+	
+	private void close() {
 		if(!connected) {
 			return;
 		}
@@ -72,8 +270,7 @@ public class BDFClient {
 		connected = false;
 
 		try {
-			input.close();
-			socket.close();
+			channel.close();
 		} catch (IOException e) {
 			System.err.println(String.format("Disconnect error"));
 		}
@@ -83,6 +280,129 @@ public class BDFClient {
 		return this.connected;
 	}
 	
+	public Protocol getProtocol() {
+		return protocol;
+	}
+	
+	/**
+	 * Sets the format of the stream, should be set before the client is connected. The FRAMED protocol ignores the
+	 * number of channels given to the constructor.
+	 */
+	public void setProtocol(Protocol protocol) {
+		this.protocol = protocol;
+	}
+	
+	public int getNumChannels() {
+		return numChannels;
+	}
+	
+	public int getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * Sets the sample rate of a raw stream, to estimate the number of samples missed while the connection was down.
+	 * 0 (default) for an unknown sample rate, missed samples are not reported.
+	 */
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = Math.max(sampleRate, 0);
+	}
+	
+	public boolean isCompressed() {
+		return compressed;
+	}
+	
+	/**
+	 * Asks the server for compressed frames, FRAMED protocol only. Should be set before the client is connected.
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+	
+	/**
+	 * Returns the supervisor which restores a lost connection, disabled by default.
+	 */
+	public ConnectionSupervisor getSupervisor() {
+		return supervisor;
+	}
+	
+	/**
+	 * Returns the header sent by the server, or null when the client is not connected with the FRAMED protocol.
+	 */
+	public BDFHeader getHeader() {
+		return header;
+	}
+	
+	/**
+	 * Requests a selection of the channels at a reduced sample rate, FRAMED protocol only. The channels are the indices of
+	 * the channels in the complete stream of the server. When the server has changed the stream, the number of channels and
+	 * the header of the client are changed and the listeners receive the samples of the new stream.
+	 */
+	public void subscribe(int[] channels, int decimation) throws IOException {
+		if(!connected || protocol != Protocol.FRAMED) {
+			throw new IllegalStateException("Subscriptions need a connection with the FRAMED protocol");
+		}
+		
+		Subscription subscription = new Subscription(channels, decimation);
+		
+		request(subscription.toString());
+		
+		this.subscription = subscription.isComplete(serverChannels) ? null : subscription;
+	}
+	
+	/**
+	 * Requests all channels at the full sample rate again.
+	 */
+	public void unsubscribe() throws IOException {
+		int[] channels = new int[serverChannels];
+		
+		for(int c = 0; c < channels.length; c++) {
+			channels[c] = c;
+		}
+		
+		subscribe(channels, 1);
+	}
+	
+	/**
+	 * Requests the server to continue the stream from a sample in its history, FRAMED protocol only. E.g. a client which
+	 * reconnects can continue with the sample following the last sample it received, see {@link #getNextSample()}.
+	 * Frames which were already on their way are ignored.
+	 */
+	public void resume(long sample) throws IOException {
+		if(!connected || protocol != Protocol.FRAMED) {
+			throw new IllegalStateException("Resuming needs a connection with the FRAMED protocol");
+		}
+		
+		resuming = true;
+		
+		request(String.format("%s %s", BDFServer.RESUME_REQUEST, sample));
+	}
+	
+	// sends a request to the server, as a single line
+	private synchronized void request(String request) throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap((request + "\n").getBytes());
+		
+		while(bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+	
+	/**
+	 * Returns the number of the sample following the last received frame, or -1 when no frame was received.
+	 * FRAMED protocol only.
+	 */
+	public long getNextSample() {
+		return nextSample;
+	}
+	
+	/**
+	 * Returns the number of missing samples: samples which were skipped by the server (FRAMED protocol) and samples which
+	 * were missed while the connection was down.
+	 */
+	public long getLostSamples() {
+		return lostSamples;
+	}
+	
 	public void addListener(BDFListener listener) {
 		listeners.add(listener);
 	}
@@ -99,6 +419,50 @@ public class BDFClient {
 		return listeners;
 	}
 	
+	public void addBlockListener(BDFBlockListener listener) {
+		blockListeners.add(listener);
+	}
+	
+	public void removeBlockListener(BDFBlockListener listener) {
+		blockListeners.remove(listener);
+	}
+	
+	public List<BDFBlockListener> getBlockListeners() {
+		return blockListeners;
+	}
+	
+	public void addGapListener(GapListener listener) {
+		gapListeners.add(listener);
+	}
+	
+	public void removeGapListener(GapListener listener) {
+		gapListeners.remove(listener);
+	}
+	
+	public List<GapListener> getGapListeners() {
+		return gapListeners;
+	}
+	
+	/**
+	 * Send missing samples to all gap listeners
+	 */
+	protected void fireReceivedGap(long firstSample, long samples) {
+		for(GapListener listener : gapListeners) {
+			listener.receivedGap(firstSample, samples);
+		}
+	}
+	
+	/**
+	 * Send a block of samples to all block listeners, and as separate samples to all listeners
+	 */
+	protected void fireReceivedBlock(long firstSample, int[] data, int samples) {
+		for(BDFBlockListener listener : blockListeners) {
+			listener.receivedBlock(firstSample, data, samples);
+		}
+		
+		listenerAdapter.receivedBlock(firstSample, data, samples);
+	}
+	
 	/**
 	 * Send a sample to all listeners
 	 */
@@ -109,78 +473,257 @@ public class BDFClient {
 	}
 	
 	/**
-	 * BDFClientInputReader reads data from the input stream. 
-	 * The data is converted into a BDFSample and send to all listeners
+	 * BDFClientInputReader reads data from the channel. 
+	 * The data is decoded into blocks of samples which are send to all listeners
 	 */
-	private class BDFClientInputReader implements Runnable {
+	private class BDFClientInputReader implements Runnable, FrameHandler {
 		
 		// the number of channels in the stream
 		private int numChannels;
-		private int recordCounter = 0;
+		private long sampleCounter = 0;
+		
+		// the decoded values of a read, sample by sample
+		private int[] values = new int[0];
+		
+		// the decoded values of a read, channel by channel
+		private int[] data = new int[0];
+		
+		// the samples of a compressed frame, FRAMED protocol only
+		private byte[] packed = new byte[0];
+		private BDFCompressor compressor = null;
 		
 		public BDFClientInputReader(int numChannels) {
-			this.numChannels = numChannels;
+			this.numChannels 	= numChannels;
+			this.sampleCounter 	= Math.max(nextSample, 0);
 		}
 		
 		public void run() {
-			byte[] buffer = new byte[numChannels * 3];
-			int[] samples = new int[numChannels];
+			try {
+				if(protocol == Protocol.FRAMED) {
+					readFrames();
+				} else {
+					FrameReader reader = new FrameReader(channel, numChannels * BDFCodec.SAMPLE_SIZE);
+					
+					while(connected && reader.read(this));
+				}
+			} catch(IOException e) {
+				// closing the channel on disconnect interrupts the read
+				if(connected) {
+					e.printStackTrace();
+				}
+			}
 			
-			int index = 0;
+			// the connection was not closed by disconnect
+			boolean lost = connected;
 			
-			try {
-				while(connected) {
-					int toRead = buffer.length;
+			close();
+			System.err.println("BDFClient disconnected.");
+			
+			if(lost) {
+				supervisor.connectionLost();
+			}
+		}
+		
+		public void receivedFrames(ByteBuffer frames, int count) {
+			decode(frames, sampleCounter, count);
+			
+			sampleCounter 	+= count;
+			nextSample 		= sampleCounter;
+		}
+		
+		// reads the frames of the FRAMED protocol, all complete frames of a read are decoded
+		private void readFrames() throws IOException {
+			int sampleSize = numChannels * BDFCodec.SAMPLE_SIZE;
+			
+			ByteBuffer buffer = ByteBuffer.allocateDirect(FrameReader.DEFAULT_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			
+			// the number of the sample following the last frame
+			long expected = -1;
+			
+			while(connected && channel.read(buffer) != -1) {
+				buffer.flip();
+				
+				while(buffer.remaining() >= 4) {
+					int start 	= buffer.position();
+					int length 	= buffer.getInt(start) & ~BDFServer.COMPRESSED_FRAME;
+					
+					boolean compressedFrame = (buffer.getInt(start) & BDFServer.COMPRESSED_FRAME) != 0;
 					
-					// wait until buffer is full
-					while(toRead > 0)  {
-						toRead -= input.read(buffer, buffer.length - toRead, toRead);
+					if(length < (compressedFrame ? BDFServer.COMPRESSED_FRAME_HEADER_SIZE : BDFServer.FRAME_HEADER_SIZE) - 4) {
+						throw new IOException(String.format("Invalid frame length: %s", length));
 					}
-													
-					// process data and send record
-					for(int i=0; i<numChannels; i++) {
-						int value = (buffer[i*3] & 0xFF) | ((buffer[i*3+1] & 0xFF) << 8) | ((buffer[i*3+2] & 0xFF) << 16);
 					
-						if((value & 0x800000) != 0) {
-							value = ~(value ^ 0x7fffff) + 0x800000;
+					if(buffer.remaining() < 4 + length) {
+						break;
+					}
+					
+					long firstSample = buffer.getLong(start + 4);
+					
+					// the header of a new stream, after a subscription
+					if(firstSample == BDFServer.CONTROL_FRAME) {
+						byte[] bytes = new byte[length + 4 - BDFServer.FRAME_HEADER_SIZE];
+						
+						buffer.position(start + BDFServer.FRAME_HEADER_SIZE);
+						buffer.get(bytes);
+						
+						try {
+							changeStream(BDFHeader.parse(bytes));
+						} catch(BDFException e) {
+							throw new IOException(String.format("Invalid header: %s", e.getMessage()));
 						}
+						
+						sampleSize 	= numChannels * BDFCodec.SAMPLE_SIZE;
+						
+						// after a resume request the numbers continue
+						expected 	= resuming ? nextSample : -1;
+						resuming 	= false;
+						
+						continue;
+					}
+					
+					// the frames sent before the server answered a request after a reconnect
+					if(resuming) {
+						buffer.position(start + 4 + length);
+						continue;
+					}
+					
+					int samples;
+					
+					if(compressedFrame) {
+						samples = buffer.getInt(start + BDFServer.FRAME_HEADER_SIZE);
+						
+						// a compressed block is never more than 255 times smaller
+						if(samples < 1 || (long) samples * sampleSize > 255l * length) {
+							throw new IOException(String.format("Invalid number of samples in compressed frame: %s", samples));
+						}
+					} else if((length + 4 - BDFServer.FRAME_HEADER_SIZE) % sampleSize != 0) {
+						throw new IOException(String.format("Invalid frame length: %s", length));
+					} else {
+						samples = (length + 4 - BDFServer.FRAME_HEADER_SIZE) / sampleSize;
+					}
 					
-						samples[i] = value;
+					// the server restarts the numbers when a file is repeated
+					if(expected >= 0 && firstSample > expected) {
+						lostSamples += firstSample - expected;
+						
+						fireReceivedGap(expected, firstSample - expected);
 					}
 					
-					fireReceivedRecord(new BDFSample(recordCounter, samples));
-					recordCounter++;						
+					if(compressedFrame) {
+						buffer.position(start + BDFServer.COMPRESSED_FRAME_HEADER_SIZE);
+						decompress(buffer, length + 4 - BDFServer.COMPRESSED_FRAME_HEADER_SIZE, firstSample, samples);
+					} else {
+						buffer.position(start + BDFServer.FRAME_HEADER_SIZE);
+						decode(buffer, firstSample, samples);
+					}
 					
-					// reset samples
-					samples = new int[numChannels];
+					buffer.position(start + 4 + length);
 					
-					// reset index
-					index = 0;
+					expected 	= firstSample + samples;
+					nextSample 	= expected;
+				}
+				
+				// make room for a frame which is larger than the buffer
+				if(buffer.remaining() >= 4 && 4 + (buffer.getInt(buffer.position()) & ~BDFServer.COMPRESSED_FRAME) > buffer.capacity()) {
+					ByteBuffer larger = ByteBuffer.allocateDirect(4 + (buffer.getInt(buffer.position()) & ~BDFServer.COMPRESSED_FRAME)).order(ByteOrder.LITTLE_ENDIAN);
+					larger.put(buffer);
+					buffer = larger;
+				} else {
+					buffer.compact();
 				}
-			} catch(IOException e) {
-				e.printStackTrace();
+			}
+		}
+		
+		// continue with the samples of another stream
+		private void changeStream(BDFHeader header) throws BDFException {
+			if(header.computeNumChannels() == 0) {
+				throw new BDFException("No channels in header");
 			}
 			
-			connected = false;
-			System.err.println("BDFClient disconnected.");
+			numChannels = header.computeNumChannels();
+			
+			BDFClient.this.header 		= header;
+			BDFClient.this.numChannels 	= numChannels;
+			
+			listenerAdapter = new BDFListenerAdapter(numChannels, listeners);
+		}
+		
+		// decodes count samples from the position of the buffer and sends them as a block
+		private void decode(ByteBuffer frames, long firstSample, int count) {
+			ensureCapacity(count * numChannels);
+			
+			BDFCodec.decode(frames, values, 0, count * numChannels);
+			
+			send(firstSample, count);
+		}
+		
+		// decompresses count samples of a compressed frame from the position of the buffer and sends them as a block
+		private void decompress(ByteBuffer frames, int size, long firstSample, int count) throws IOException {
+			ensureCapacity(count * numChannels);
+			
+			if(packed.length < size) {
+				packed = new byte[size];
+			}
+			
+			if(compressor == null || compressor.getNumChannels() != numChannels) {
+				compressor = new BDFCompressor(numChannels);
+			}
+			
+			frames.get(packed, 0, size);
+			
+			try {
+				compressor.decompress(packed, 0, size, count, values, 0);
+			} catch(IllegalArgumentException e) {
+				throw new IOException(e.getMessage());
+			}
+			
+			send(firstSample, count);
+		}
+		
+		private void ensureCapacity(int n) {
+			if(values.length < n) {
+				values 	= new int[n];
+				data 	= new int[n];
+			}
+		}
+		
+		// sends the decoded values as a block, channel by channel
+		private void send(long firstSample, int count) {
+			for(int s = 0; s < count; s++) {
+				for(int c = 0; c < numChannels; c++) {
+					data[c * count + s] = values[s * numChannels + c];
+				}
+			}
+			
+			fireReceivedBlock(firstSample, data, count);
 		}
 	}
 
 	public static void main(String[] args) {
-		if(args.length < 3) {
-			System.out.println("Usage: BDFClient HOSTNAME PORT CHANNELS");
+		boolean compressed = false;
+		
+		int i = 0;
+		
+		if(args.length > 0 && args[0].equals("-c")) {
+			compressed = true;
+			i++;
+		}
+		
+		if(args.length - i < 2) {
+			System.out.println("Usage: BDFClient [-c] HOSTNAME PORT [CHANNELS]");
+			System.out.println("-c       : ask the server for compressed frames (FRAMED protocol only).");
 			System.out.println("HOSTNAME : hostname of the BDF server.");
 			System.out.println("PORT     : port number of the BDF server.");
-			System.out.println("CHANNELS : the number of channels in the BDF data stream.");
+			System.out.println("CHANNELS : the number of channels in the BDF data stream, without channels the FRAMED protocol is used.");
 			
 			return;
 		}
 		
-		String HOST 	= args[0];
-		int PORT 		= Integer.parseInt(args[1]);
-		int CHANNELS 	= Integer.parseInt(args[2]);
+		String HOST 	= args[i];
+		int PORT 		= Integer.parseInt(args[i + 1]);
 		
-		BDFClient client = new BDFClient(HOST, PORT, CHANNELS);
+		BDFClient client = args.length - i > 2 ? new BDFClient(HOST, PORT, Integer.parseInt(args[i + 2])) : new BDFClient(HOST, PORT);
+		client.setCompressed(compressed);
 		client.addListener(new BDFListener() {
 			
 			@Override
@@ -191,4 +734,4 @@ public class BDFClient {
 		
 		client.connect();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,171 @@
+package it.hakvoort.bdf.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The <code>BDFHistory</code> keeps the last samples of a stream, encoded in the order of the ActiView stream (all channels
+ * of a sample, one sample after another), in a ring in a single direct buffer.
+ *
+ * The samples are stored with their sample numbers, any range of the stored samples can be copied to another buffer.
+ * When the numbers of added samples do not continue the stored samples, e.g. when a file is repeated, the history
+ * is cleared and the generation is incremented.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFHistory {
+
+	// the size of a sample in bytes
+	private final int sampleSize;
+
+	// the maximum number of samples
+	private final int capacity;
+
+	// the encoded samples, sample n is stored at index n % capacity
+	private final ByteBuffer ring;
+
+	// the number of the oldest sample
+	private long firstSample = 0;
+
+	// the number of the sample following the newest sample
+	private long nextSample = 0;
+
+	// the number of times the history was cleared
+	private int generation = 0;
+
+	/**
+	 * @param 	sampleSize
+	 * 			the size of an encoded sample in bytes
+	 * @param 	capacity
+	 * 			the maximum number of samples
+	 */
+	public BDFHistory(int sampleSize, int capacity) {
+		if(sampleSize < 1 || capacity < 1) {
+			throw new IllegalArgumentException(String.format("Invalid history size: %s samples of %s bytes", capacity, sampleSize));
+		}
+
+		this.sampleSize = sampleSize;
+		this.capacity 	= capacity;
+
+		ring = ByteBuffer.allocateDirect(sampleSize * capacity);
+	}
+
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized long getFirstSample() {
+		return firstSample;
+	}
+
+	public synchronized long getNextSample() {
+		return nextSample;
+	}
+
+	/**
+	 * Returns the number of stored samples.
+	 */
+	public synchronized int size() {
+		return (int) (nextSample - firstSample);
+	}
+
+	/**
+	 * Returns the number of times the history was cleared because the sample numbers did not continue.
+	 */
+	public synchronized int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Adds encoded samples, the oldest samples are removed when the history is full.
+	 */
+	public synchronized void add(long firstSample, byte[] data, int offset, int samples) {
+		if(samples < 1 || firstSample < 0) {
+			return;
+		}
+
+		if(firstSample != nextSample) {
+			this.firstSample 	= firstSample;
+			this.nextSample 	= firstSample;
+
+			generation++;
+		}
+
+		// only the newest samples fit
+		if(samples > capacity) {
+			offset 		+= (samples - capacity) * sampleSize;
+			firstSample += samples - capacity;
+			samples 	= capacity;
+
+			this.firstSample 	= firstSample;
+			this.nextSample 	= firstSample;
+		}
+
+		int index 	= (int) (firstSample % capacity);
+		int first 	= Math.min(samples, capacity - index);
+
+		ByteBuffer target = ring.duplicate();
+
+		target.position(index * sampleSize);
+		target.put(data, offset, first * sampleSize);
+
+		if(first < samples) {
+			target.position(0);
+			target.put(data, offset + first * sampleSize, (samples - first) * sampleSize);
+		}
+
+		nextSample 			= firstSample + samples;
+		this.firstSample 	= Math.max(this.firstSample, nextSample - capacity);
+	}
+
+	/**
+	 * Copies stored samples, starting with sample from, to the position of the target buffer. Sample from may directly
+	 * follow the newest sample, e.g. for a client which resumes where the history ends, nothing is copied then.
+	 *
+	 * @return	the number of copied samples, at most maxSamples and limited by the remaining space of the target.
+	 *
+	 * @throws	IllegalArgumentException
+	 * 			if sample from is not stored and does not directly follow the newest sample.
+	 */
+	public synchronized int get(long from, ByteBuffer target, int maxSamples) {
+		if(from < firstSample || from > nextSample) {
+			throw new IllegalArgumentException(String.format("Sample %s is not in the history", from));
+		}
+
+		int samples = (int) Math.min(Math.min(nextSample - from, maxSamples), target.remaining() / sampleSize);
+
+		if(samples < 1) {
+			return 0;
+		}
+
+		int index 	= (int) (from % capacity);
+		int first 	= Math.min(samples, capacity - index);
+
+		ByteBuffer source = ring.duplicate();
+
+		source.limit((index + first) * sampleSize);
+		source.position(index * sampleSize);
+		target.put(source);
+
+		if(first < samples) {
+			source.limit((samples - first) * sampleSize);
+			source.position(0);
+			target.put(source);
+		}
+
+		return samples;
+	}
+
+	/**
+	 * Removes all samples.
+	 */
+	public synchronized void clear() {
+		firstSample = nextSample;
+
+		generation++;
+	}
+}
@@ -0,0 +1,253 @@
+package it.hakvoort.bdf.network;
+
+import it.hakvoort.bdf.BDFBlockListener;
+import it.hakvoort.bdf.BDFCodec;
+import it.hakvoort.bdf.BDFException;
+import it.hakvoort.bdf.BDFFile;
+import it.hakvoort.bdf.BDFReader;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The <code>BDFMulticastPublisher</code> sends blocks of samples to a UDP multicast group, so any number of hosts on the
+ * network can receive the samples while the publisher sends every sample only once.
+ *
+ * Several samples are packed into each datagram. A datagram starts with the number of its first sample (long), the number
+ * of channels (short) and the number of samples (short), followed by the samples (all channels of a sample, one sample
+ * after another, 3 bytes per value). All values are little endian. Receivers use the sample numbers to detect lost
+ * datagrams, see {@link BDFMulticastSubscriber}.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFMulticastPublisher implements BDFBlockListener {
+
+	// the size of the sample number, number of channels and number of samples at the start of a datagram
+	public static final int HEADER_SIZE = 12;
+
+	// the default maximum size of a datagram, fits in a single ethernet frame
+	public static final int DEFAULT_PACKET_SIZE = 1472;
+
+	// the multicast socket
+	private MulticastSocket socket;
+
+	// the multicast group
+	private String GROUP;
+
+	// the port of the receivers
+	private int PORT;
+
+	// the number of channels in a sample
+	private int numChannels;
+
+	// the maximum size of a datagram
+	private int packetSize = DEFAULT_PACKET_SIZE;
+
+	// the maximum number of samples in a datagram, 0 to fill the datagrams
+	private int samplesPerPacket = 0;
+
+	// the time to live of the datagrams, 1 keeps them on the local network
+	private int timeToLive = 1;
+
+	// the interface to send from, or null for the default interface
+	private NetworkInterface networkInterface = null;
+
+	// the datagram which is being sent
+	private byte[] data = new byte[0];
+	private ByteBuffer buffer;
+	private DatagramPacket packet;
+
+	// the interleaved values of a datagram
+	private int[] values = new int[0];
+
+	// the number of datagrams and samples sent
+	private long packets = 0;
+	private long samples = 0;
+
+	public BDFMulticastPublisher(String GROUP, int PORT, int numChannels) {
+		this.GROUP = GROUP;
+		this.PORT = PORT;
+
+		this.numChannels = numChannels;
+	}
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	public int getPacketSize() {
+		return packetSize;
+	}
+
+	/**
+	 * Sets the maximum size of a datagram in bytes, should be set before the publisher is opened.
+	 * A datagram always contains at least one sample.
+	 */
+	public void setPacketSize(int packetSize) {
+		this.packetSize = packetSize;
+	}
+
+	public int getSamplesPerPacket() {
+		return samplesPerPacket;
+	}
+
+	/**
+	 * Limits the number of samples in a datagram, to reduce the latency of slow streams.
+	 * 0 (default) fills the datagrams up to the packet size. Should be set before the publisher is opened.
+	 */
+	public void setSamplesPerPacket(int samplesPerPacket) {
+		this.samplesPerPacket = Math.max(samplesPerPacket, 0);
+	}
+
+	public int getTimeToLive() {
+		return timeToLive;
+	}
+
+	public void setTimeToLive(int timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	public NetworkInterface getNetworkInterface() {
+		return networkInterface;
+	}
+
+	/**
+	 * Sets the interface the datagrams are sent from, e.g. the loopback interface for testing on a single host.
+	 */
+	public void setNetworkInterface(NetworkInterface networkInterface) {
+		this.networkInterface = networkInterface;
+	}
+
+	/**
+	 * Returns the maximum number of samples in a datagram.
+	 */
+	public int getMaxSamples() {
+		int max = Math.max((packetSize - HEADER_SIZE) / (numChannels * BDFCodec.SAMPLE_SIZE), 1);
+
+		return samplesPerPacket > 0 ? Math.min(samplesPerPacket, max) : max;
+	}
+
+	public long getPackets() {
+		return packets;
+	}
+
+	public long getSamples() {
+		return samples;
+	}
+
+	public synchronized void open() throws IOException {
+		if(socket != null) {
+			return;
+		}
+
+		socket = new MulticastSocket();
+		socket.setTimeToLive(timeToLive);
+
+		if(networkInterface != null) {
+			socket.setNetworkInterface(networkInterface);
+		}
+
+		int maxSamples = getMaxSamples();
+
+		data 	= new byte[HEADER_SIZE + maxSamples * numChannels * BDFCodec.SAMPLE_SIZE];
+		values 	= new int[maxSamples * numChannels];
+		buffer 	= ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		packet 	= new DatagramPacket(data, data.length, InetAddress.getByName(GROUP), PORT);
+	}
+
+	public synchronized void close() {
+		if(socket != null) {
+			socket.close();
+			socket = null;
+		}
+	}
+
+	public boolean isOpen() {
+		return socket != null;
+	}
+
+	/**
+	 * Sends a block of samples, stored channel by channel, in as few datagrams as possible.
+	 */
+	@Override
+	public synchronized void receivedBlock(long firstSample, int[] block, int count) {
+		if(socket == null) {
+			return;
+		}
+
+		int maxSamples = getMaxSamples();
+
+		for(int start = 0; start < count; start += maxSamples) {
+			int n = Math.min(maxSamples, count - start);
+
+			for(int s = 0; s < n; s++) {
+				for(int c = 0; c < numChannels; c++) {
+					values[s * numChannels + c] = block[c * count + start + s];
+				}
+			}
+
+			send(firstSample + start, values, n);
+		}
+	}
+
+	/**
+	 * Sends a single datagram with at most {@link #getMaxSamples()} samples, stored sample by sample (all channels of a
+	 * sample, one sample after another).
+	 */
+	public synchronized void send(long firstSample, int[] interleaved, int n) {
+		if(socket == null) {
+			return;
+		}
+
+		if(n > getMaxSamples()) {
+			throw new IllegalArgumentException(String.format("Too many samples for a datagram: %s", n));
+		}
+
+		buffer.putLong(0, firstSample);
+		buffer.putShort(8, (short) numChannels);
+		buffer.putShort(10, (short) n);
+
+		BDFCodec.encode(interleaved, 0, data, HEADER_SIZE, n * numChannels);
+
+		packet.setLength(HEADER_SIZE + n * numChannels * BDFCodec.SAMPLE_SIZE);
+
+		try {
+			socket.send(packet);
+
+			packets++;
+			samples += n;
+		} catch(IOException e) {
+			System.err.println(String.format("Could not send to %s:%s: %s", GROUP, PORT, e.getMessage()));
+		}
+	}
+
+	public static void main(String[] args) throws IOException, BDFException {
+		if(args.length < 3) {
+			System.out.println("Usage: BDFMulticastPublisher FILE GROUP PORT [FREQUENCY]");
+			System.out.println("FILE      : the BDF file, repeated when the end is reached.");
+			System.out.println("GROUP     : the multicast group, e.g. 239.255.0.1.");
+			System.out.println("PORT      : port number of the receivers.");
+			System.out.println("FREQUENCY : the frequency for sending data. 0 for full speed, -1 for file based sample rate (default).");
+
+			return;
+		}
+
+		BDFReader reader = BDFFile.open(args[0]).getReader();
+		reader.setRepeat(true);
+		reader.setFrequency(args.length > 3 ? Integer.parseInt(args[3]) : -1);
+
+		BDFMulticastPublisher publisher = new BDFMulticastPublisher(args[1], Integer.parseInt(args[2]), reader.getNumChannels());
+		publisher.open();
+
+		reader.addBlockListener(publisher);
+		reader.start();
+
+		System.out.println(String.format("Publishing %s channels to %s:%s, %s samples per datagram.", reader.getNumChannels(), args[1], args[2], publisher.getMaxSamples()));
+	}
+}
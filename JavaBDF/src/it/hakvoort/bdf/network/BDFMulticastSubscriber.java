@@ -0,0 +1,332 @@
+package it.hakvoort.bdf.network;
+
+import it.hakvoort.bdf.BDFBlockListener;
+import it.hakvoort.bdf.BDFCodec;
+import it.hakvoort.bdf.BDFListener;
+import it.hakvoort.bdf.BDFListenerAdapter;
+import it.hakvoort.bdf.BDFSample;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The <code>BDFMulticastSubscriber</code> receives the samples of a {@link BDFMulticastPublisher} from a UDP multicast group.
+ *
+ * Every datagram is sent as a block to the BDFBlockListeners, BDFListeners receive the same samples one by one.
+ * The number of channels is read from the datagrams. Datagrams can be lost, when the first sample of a datagram is
+ * not the expected sample the missing samples are sent as a block filled with the missing value, so listeners always
+ * receive a continuous stream. Datagrams which arrive too late are ignored.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFMulticastSubscriber implements Runnable {
+
+	// the value of missing samples, the same as a missing sample of the NiaDevice
+	public static final int MISSING_SAMPLE_VALUE = Integer.MIN_VALUE;
+
+	// the multicast socket
+	private MulticastSocket socket;
+
+	// the multicast group
+	private String GROUP;
+
+	// the port to receive on
+	private int PORT;
+
+	// the interface to receive on, or null for the default interface
+	private NetworkInterface networkInterface = null;
+
+	// the value of missing samples
+	private int missingValue = MISSING_SAMPLE_VALUE;
+
+	// the maximum number of missing samples which are filled, larger gaps are only counted
+	private int maxGap = 65536;
+
+	// if the subscriber is receiving
+	private volatile boolean running = false;
+
+	// the receiving thread
+	private Thread thread;
+
+	// the number of channels, known after the first datagram
+	private volatile int numChannels = 0;
+
+	// the number of the sample following the last datagram
+	private long expected = -1;
+
+	// statistics
+	private volatile long packets = 0;
+	private volatile long lostSamples = 0;
+	private volatile long latePackets = 0;
+
+	// listeners waiting for samples
+	protected List<BDFListener> listeners = new CopyOnWriteArrayList<BDFListener>();
+
+	// listeners waiting for blocks of samples
+	protected List<BDFBlockListener> blockListeners = new CopyOnWriteArrayList<BDFBlockListener>();
+
+	// converts blocks into samples for the sample listeners
+	private BDFListenerAdapter listenerAdapter;
+
+	// the decoded values of a datagram, sample by sample and channel by channel
+	private int[] values = new int[0];
+	private int[] data = new int[0];
+
+	public BDFMulticastSubscriber(String GROUP, int PORT) {
+		this.GROUP = GROUP;
+		this.PORT = PORT;
+	}
+
+	public NetworkInterface getNetworkInterface() {
+		return networkInterface;
+	}
+
+	/**
+	 * Sets the interface to receive on, e.g. the loopback interface for testing on a single host. Use null (default) for
+	 * the default interface.
+	 */
+	public void setNetworkInterface(NetworkInterface networkInterface) {
+		this.networkInterface = networkInterface;
+	}
+
+	public int getMissingValue() {
+		return missingValue;
+	}
+
+	public void setMissingValue(int missingValue) {
+		this.missingValue = missingValue;
+	}
+
+	public int getMaxGap() {
+		return maxGap;
+	}
+
+	/**
+	 * Sets the maximum number of missing samples which are filled with the missing value. Larger gaps, e.g. when the
+	 * subscriber was paused, are only counted.
+	 */
+	public void setMaxGap(int maxGap) {
+		this.maxGap = Math.max(maxGap, 0);
+	}
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	public long getPackets() {
+		return packets;
+	}
+
+	/**
+	 * Returns the number of samples in lost datagrams.
+	 */
+	public long getLostSamples() {
+		return lostSamples;
+	}
+
+	/**
+	 * Returns the number of datagrams which arrived after a later datagram and were ignored.
+	 */
+	public long getLatePackets() {
+		return latePackets;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public synchronized void start() throws IOException {
+		if(running) {
+			return;
+		}
+
+		socket = new MulticastSocket(PORT);
+
+		// without a network interface the default interface of the socket is used
+		socket.joinGroup(new InetSocketAddress(InetAddress.getByName(GROUP), PORT), networkInterface);
+
+		running = true;
+
+		thread = new Thread(this);
+		thread.setName("BDFMulticastSubscriber");
+		thread.start();
+	}
+
+	public synchronized void stop() {
+		running = false;
+
+		if(socket != null) {
+			socket.close();
+		}
+	}
+
+	@Override
+	public void run() {
+		byte[] buffer = new byte[65536];
+
+		DatagramPacket packet 	= new DatagramPacket(buffer, buffer.length);
+		ByteBuffer wrapped 		= ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+
+		try {
+			while(running) {
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+
+				if(packet.getLength() < BDFMulticastPublisher.HEADER_SIZE) {
+					continue;
+				}
+
+				long firstSample 	= wrapped.getLong(0);
+				int channels 		= wrapped.getShort(8);
+				int samples 		= wrapped.getShort(10) & 0xFFFF;
+
+				if(channels < 1 || samples < 1 || packet.getLength() < BDFMulticastPublisher.HEADER_SIZE + samples * channels * BDFCodec.SAMPLE_SIZE) {
+					System.err.println(String.format("Invalid datagram from %s", packet.getAddress()));
+					continue;
+				}
+
+				receivedPacket(buffer, firstSample, channels, samples);
+			}
+		} catch(IOException e) {
+			// closing the socket on stop interrupts the receive
+			if(running) {
+				e.printStackTrace();
+			}
+		}
+
+		running = false;
+	}
+
+	// handles a valid datagram
+	private void receivedPacket(byte[] buffer, long firstSample, int channels, int samples) {
+		packets++;
+
+		// the first datagram, or the publisher changed the stream
+		if(channels != numChannels) {
+			numChannels 	= channels;
+			expected 		= -1;
+			listenerAdapter = new BDFListenerAdapter(numChannels, listeners);
+		}
+
+		if(expected >= 0) {
+			if(firstSample < expected) {
+				// the publisher restarts the numbers when a file is repeated
+				if(firstSample != 0) {
+					latePackets++;
+					return;
+				}
+			} else if(firstSample > expected) {
+				long gap = firstSample - expected;
+
+				lostSamples += gap;
+
+				if(gap <= maxGap) {
+					fillGap(expected, (int) gap);
+				}
+			}
+		}
+
+		int n = samples * numChannels;
+
+		if(values.length < n) {
+			values 	= new int[n];
+			data 	= new int[n];
+		}
+
+		BDFCodec.decode(buffer, BDFMulticastPublisher.HEADER_SIZE, values, 0, n);
+
+		for(int s = 0; s < samples; s++) {
+			for(int c = 0; c < numChannels; c++) {
+				data[c * samples + s] = values[s * numChannels + c];
+			}
+		}
+
+		fireReceivedBlock(firstSample, data, samples);
+
+		expected = firstSample + samples;
+	}
+
+	// sends the missing samples as blocks filled with the missing value
+	private void fillGap(long firstSample, int gap) {
+		// the gap is sent in blocks of the size of the data array
+		int maxSamples = data.length / numChannels;
+
+		for(int start = 0; start < gap; start += maxSamples) {
+			int n = Math.min(maxSamples, gap - start);
+
+			Arrays.fill(data, 0, n * numChannels, missingValue);
+
+			fireReceivedBlock(firstSample + start, data, n);
+		}
+	}
+
+	public void addListener(BDFListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(BDFListener listener) {
+		listeners.remove(listener);
+	}
+
+	public void removeAllListeners() {
+		listeners.clear();
+	}
+
+	public List<BDFListener> getListeners() {
+		return listeners;
+	}
+
+	public void addBlockListener(BDFBlockListener listener) {
+		blockListeners.add(listener);
+	}
+
+	public void removeBlockListener(BDFBlockListener listener) {
+		blockListeners.remove(listener);
+	}
+
+	public List<BDFBlockListener> getBlockListeners() {
+		return blockListeners;
+	}
+
+	/**
+	 * Send a block of samples to all block listeners, and as separate samples to all listeners
+	 */
+	protected void fireReceivedBlock(long firstSample, int[] data, int samples) {
+		for(BDFBlockListener listener : blockListeners) {
+			listener.receivedBlock(firstSample, data, samples);
+		}
+
+		listenerAdapter.receivedBlock(firstSample, data, samples);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: BDFMulticastSubscriber GROUP PORT");
+			System.out.println("GROUP : the multicast group, e.g. 239.255.0.1.");
+			System.out.println("PORT  : port number of the publisher.");
+
+			return;
+		}
+
+		BDFMulticastSubscriber subscriber = new BDFMulticastSubscriber(args[0], Integer.parseInt(args[1]));
+		subscriber.addListener(new BDFListener() {
+
+			@Override
+			public void receivedSample(BDFSample sample) {
+				System.out.println(sample.toString());
+			}
+		});
+
+		subscriber.start();
+	}
+}
@@ -1,32 +1,105 @@
 package it.hakvoort.bdf.network;
 
+import it.hakvoort.bdf.BDFBlockListener;
+import it.hakvoort.bdf.BDFCodec;
+import it.hakvoort.bdf.BDFCompressor;
+import it.hakvoort.bdf.BDFDecimator;
 import it.hakvoort.bdf.BDFException;
 import it.hakvoort.bdf.BDFFile;
-import it.hakvoort.bdf.BDFSample;
-import it.hakvoort.bdf.BDFListener;
+import it.hakvoort.bdf.BDFHeader;
 import it.hakvoort.bdf.BDFReader;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * The <code>BDFServer</code> sends the samples of a BDFReader to all connected clients, mimicking Biosemi's ActiView network connection.
+ * 
+ * All connections are handled by a single thread using a Selector and non-blocking channels. Every block of samples
+ * from the reader is encoded once and copied into a bounded buffer of each client, which is sent when the client can
+ * receive data. When the buffer of a slow client is full, the slow client policy decides what happens.
+ * 
+ * By default the samples are sent as a raw stream, just like ActiView. With the FRAMED protocol the server first sends the
+ * header of the stream, see {@link BDFReader#createHeader()}, followed by frames of samples. A frame starts with the length
+ * of the rest of the frame (int) and the number of the first sample (long), followed by the samples. All values are
+ * little endian. Clients can read the number of channels from the header and detect missing samples from the numbers.
+ * 
+ * Clients of the FRAMED protocol can subscribe to a selection of the channels at a reduced sample rate, by sending a
+ * {@link Subscription} request. The server answers with a control frame, with sample number -1, containing the header of
+ * the new stream, followed by frames of the new stream. Clients with the same subscription share the work of selecting,
+ * decimating and encoding the samples.
+ * 
+ * The server can keep a history of the last seconds of the stream, see {@link BDFHistory}. The history is sent to new
+ * clients at full speed before they continue with the live samples, so the client does not have to wait for its analysis
+ * windows to fill. Clients of the FRAMED protocol can ask to resume the stream from a sample number, e.g. after a
+ * reconnect, by sending the request <code>RESUME 12345</code>. The server answers with a control frame and continues with
+ * the samples of the history, starting at the requested sample. Without a history the client continues with the live samples.
+ * 
+ * Clients of the FRAMED protocol can ask for compressed frames, e.g. on a slow network connection, by sending the request
+ * <code>COMPRESS</code>. Every block is compressed once by a {@link BDFCompressor}, for all clients of the stream which asked
+ * for it. The length of a compressed frame is marked with {@link #COMPRESSED_FRAME}, the sample number is followed by the
+ * number of samples (int) and the compressed samples. A block which does not fit in the buffer of the client as a whole
+ * is sent as it is, so both kinds of frames can follow each other.
  * 
  * @author Gido Hakvoort (gido@hakvoort.it)
  *
  */
-public class BDFServer implements Runnable {
+public class BDFServer implements Runnable, BDFBlockListener {
+	
+	/**
+	 * What happens when new samples do not fit in the buffer of a client: DROP the new samples, DISCONNECT the client
+	 * or COALESCE by removing the oldest samples from the buffer, so the client continues with the latest samples.
+	 */
+	public enum SlowClientPolicy {DROP, DISCONNECT, COALESCE};
+	
+	/**
+	 * The format of the stream: RAW samples like ActiView, or FRAMED samples preceded by the header.
+	 */
+	public enum Protocol {RAW, FRAMED};
+	
+	// the size of the length and sample number at the start of a frame
+	public static final int FRAME_HEADER_SIZE = 12;
+	
+	// the sample number of a control frame, containing the header of a new stream
+	public static final long CONTROL_FRAME = -1;
+	
+	// the start of a request to resume the stream from a sample number
+	public static final String RESUME_REQUEST = "RESUME";
+	
+	// the request to compress the following frames
+	public static final String COMPRESS_REQUEST = "COMPRESS";
+	
+	// the bit which marks the length of a compressed frame
+	public static final int COMPRESSED_FRAME = 0x80000000;
+	
+	// the size of the length, sample number and number of samples at the start of a compressed frame
+	public static final int COMPRESSED_FRAME_HEADER_SIZE = 16;
 	
 	// the server socket
-	private ServerSocket serverSocket;
+	private ServerSocketChannel serverChannel;
+	
+	// the selector for all connections
+	private Selector selector;
 	
 	// the BDFReader
 	private BDFReader reader;
@@ -38,7 +111,7 @@ public class BDFServer implements Runnable {
 	private int PORT;
 	
 	// if the server is listening for new connections
-	private boolean listening = false;
+	private volatile boolean listening = false;
 	
 	// the number of connected clients
 	private AtomicInteger connectedClients = new AtomicInteger(0);
@@ -46,6 +119,44 @@ public class BDFServer implements Runnable {
 	// the server thread
 	private Thread serverThread;
 	
+	// the number of samples which can be buffered for each client
+	private int clientBufferSize = 4096;
+	
+	// the maximum number of connected clients, 0 for no maximum
+	private volatile int maxClients = 0;
+	
+	// what happens when the buffer of a client is full
+	private SlowClientPolicy slowClientPolicy = SlowClientPolicy.DROP;
+	
+	// the format of the stream
+	private Protocol protocol = Protocol.RAW;
+	
+	// the header sent to clients of the FRAMED protocol
+	private BDFHeader streamHeader = null;
+	private byte[] header = null;
+	
+	// the number of seconds of the stream which are kept for new clients, 0 for no history
+	private int historyLength = 0;
+	
+	// the last samples of the complete stream
+	private BDFHistory history = null;
+	
+	// the streams of the subscriptions, shared by all clients with the same subscription
+	private Map<Subscription, SubscriptionStream> subscriptions = new ConcurrentHashMap<Subscription, SubscriptionStream>();
+	
+	// the connected clients
+	private List<BDFClientHandler> clients = new CopyOnWriteArrayList<BDFClientHandler>();
+	
+	// clients with new data, to be sent by the server thread
+	private Queue<BDFClientHandler> pendingClients = new ConcurrentLinkedQueue<BDFClientHandler>();
+	
+	// the interleaved values and bytes of the last block
+	private int[] values = new int[0];
+	private byte[] encoded = new byte[0];
+	
+	// compresses the last block for clients which asked for compressed frames, FRAMED protocol only
+	private FramePacker packer = null;
+	
 	public BDFServer(BDFFile bdf, int PORT) {
 		this(bdf.getReader(), PORT);
 	}
@@ -56,6 +167,66 @@ public class BDFServer implements Runnable {
 		this.PORT = PORT;
 	}
 	
+	public int getClientBufferSize() {
+		return clientBufferSize;
+	}
+	
+	/**
+	 * Sets the number of samples which can be buffered for each client, should be set before the server is started.
+	 */
+	public void setClientBufferSize(int clientBufferSize) {
+		this.clientBufferSize = Math.max(clientBufferSize, 1);
+	}
+	
+	public int getMaxClients() {
+		return maxClients;
+	}
+	
+	/**
+	 * Sets the maximum number of connected clients, 0 (default) for no maximum. New connections over the maximum are closed right away.
+	 */
+	public void setMaxClients(int maxClients) {
+		this.maxClients = Math.max(maxClients, 0);
+	}
+	
+	public SlowClientPolicy getSlowClientPolicy() {
+		return slowClientPolicy;
+	}
+	
+	public void setSlowClientPolicy(SlowClientPolicy slowClientPolicy) {
+		this.slowClientPolicy = slowClientPolicy;
+	}
+	
+	public Protocol getProtocol() {
+		return protocol;
+	}
+	
+	/**
+	 * Sets the format of the stream, should be set before the server is started.
+	 */
+	public void setProtocol(Protocol protocol) {
+		this.protocol = protocol;
+	}
+	
+	public int getHistoryLength() {
+		return historyLength;
+	}
+	
+	/**
+	 * Sets the number of seconds of the stream which are kept and sent to new clients before the live samples, 0 (default)
+	 * for no history. The buffer size of the clients does not limit the history. Should be set before the server is started.
+	 */
+	public void setHistoryLength(int seconds) {
+		this.historyLength = Math.max(seconds, 0);
+	}
+	
+	/**
+	 * Returns the history of the stream, or null when no history is kept.
+	 */
+	public BDFHistory getHistory() {
+		return history;
+	}
+	
 	public synchronized void start() {
 		listening = true;
 		
@@ -67,14 +238,13 @@ public class BDFServer implements Runnable {
 	
 	@Override
 	public void run() {
-		// if the BDFReader is not running, start the reader
-		if(!reader.isRunning()) {
-			reader.start();
-		}
-		
 		try {
-			serverSocket = new ServerSocket();
-			serverSocket.bind(new InetSocketAddress(PORT));
+			selector = Selector.open();
+			
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.socket().bind(new InetSocketAddress(PORT));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 			
 			HOST = InetAddress.getLocalHost().getHostAddress();
 			
@@ -102,43 +272,145 @@ public class BDFServer implements Runnable {
 			}
 			
 			System.out.println(String.format("BDFServer ready and listening for connections on: %s:%s.", HOST, PORT));
-			System.out.println(String.format("Number of channels in TCP stream: %s ", reader.getBDFFile().getHeader().getNumChannels()));
+			System.out.println(String.format("Number of channels in TCP stream: %s ", reader.getNumChannels()));
 			
+			if(protocol == Protocol.FRAMED) {
+				streamHeader 	= reader.createHeader();
+				header 			= streamHeader.getBytes();
+				packer 			= new FramePacker(reader.getNumChannels());
+			}
+			
+			if(historyLength > 0) {
+				history = new BDFHistory(reader.getNumChannels() * BDFCodec.SAMPLE_SIZE, historyLength * reader.getSampleRate());
+			}
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.err.println(String.format("Could not bind socket to address %s:%s", HOST, PORT));
+			return;
+		} catch(BDFException e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		reader.addBlockListener(this);
+		
+		// if the BDFReader is not running, start the reader
+		if(!reader.isRunning()) {
+			reader.start();
+		}
+		
+		try {
 			while(listening) {
-				Socket socket = serverSocket.accept();
+				selector.select();
 				
-				BDFClientHandler handler = new BDFClientHandler(socket);
-				reader.addListener(handler);
+				// send the new data of clients which were not waiting to write
+				BDFClientHandler pending;
 				
-				synchronized(connectedClients) {
-					connectedClients.incrementAndGet();
+				while((pending = pendingClients.poll()) != null) {
+					pending.write();
 				}
 				
-				String name = String.format("BDFClient_%s", connectedClients);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
 				
-				System.out.println(String.format("%s connected from '%s'.", name, socket.getInetAddress().getHostAddress()));
-				
-				Thread handlerThread = new Thread(handler);
-				handlerThread.setName(name);
-				handlerThread.setDaemon(true);
-				handlerThread.start();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					
+					if(!key.isValid()) {
+						continue;
+					}
+					
+					if(key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					
+					BDFClientHandler handler = (BDFClientHandler) key.attachment();
+					
+					if(key.isReadable()) {
+						handler.read();
+					}
+					
+					if(key.isValid() && key.isWritable()) {
+						handler.write();
+					}
+				}
 			}
-			
 		} catch(IOException e) {
-			e.printStackTrace();
-			System.err.println(String.format("Could not bind socket to address %s:%s", HOST, PORT));
+			if(listening) {
+				e.printStackTrace();
+			}
+		} catch(ClosedSelectorException e) {
+			// the server was stopped
+		}
+		
+		for(BDFClientHandler handler : clients) {
+			handler.close();
+		}
+	}
+	
+	// accept a new client
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		
+		if(channel == null) {
+			return;
+		}
+		
+		if(maxClients > 0 && clients.size() >= maxClients) {
+			System.err.println(String.format("Client from '%s' refused, the maximum of %s clients is reached.", channel.socket().getInetAddress().getHostAddress(), maxClients));
+			channel.close();
+			return;
+		}
+		
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		
+		String name = String.format("BDFClient_%s", connectedClients.incrementAndGet());
+		
+		BDFClientHandler handler = new BDFClientHandler(name, channel);
+		handler.key = channel.register(selector, SelectionKey.OP_READ, handler);
+		
+		clients.add(handler);
+		
+		// the header and the history are sent first
+		if(protocol == Protocol.FRAMED || history != null) {
+			handler.write();
 		}
+		
+		System.out.println(String.format("%s connected from '%s'.", name, channel.socket().getInetAddress().getHostAddress()));
 	}
 	
 	public synchronized void stop() {
 		listening = false;
 		
+		reader.removeBlockListener(this);
+		
 		try {
-			serverSocket.close();
+			if(selector != null) {
+				selector.close();
+			}
+			
+			if(serverChannel != null) {
+				serverChannel.close();
+			}
 		} catch (IOException e) {
 			System.err.println(String.format("Disconnect error"));
 		}
 		
+		for(BDFClientHandler handler : clients) {
+			handler.close();
+		}
+		
+		// wait for the server thread, unless the server is stopped by the server thread
+		if(serverThread != null && serverThread != Thread.currentThread()) {
+			try {
+				serverThread.join(5000);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
 		if(reader.isRunning()) {
 			reader.stop();
 		}
@@ -149,104 +421,1046 @@ public class BDFServer implements Runnable {
 	}
 	
 	/**
-	 * BDFClientHandler handles unique client connections. The handler receives BDFSamples from the BDFReader and 
-	 * convert these into bytes before sending them over the network, mimicking Biosemi's ActiView network connection.
+	 * Returns the handlers of the connected clients.
 	 */
-	public class BDFClientHandler implements Runnable, BDFListener {
+	public List<BDFClientHandler> getClients() {
+		return clients;
+	}
+	
+	/**
+	 * Encodes a block of samples once, in the order of the ActiView stream (all channels of a sample, one sample after another),
+	 * and adds it to the buffer of every client. With the FRAMED protocol the block is sent as a single frame.
+	 * The samples of each subscription are also encoded once, for all clients with the subscription.
+	 */
+	@Override
+	public void receivedBlock(long firstSample, int[] data, int samples) {
+		if(clients.isEmpty() && history == null) {
+			return;
+		}
 		
-		// the input stream to keep the connection open
-		private InputStream in;
+		boolean wakeup = false;
 		
-		// the output stream to send data to
-		private OutputStream out;
+		for(SubscriptionStream stream : subscriptions.values()) {
+			wakeup |= stream.receivedBlock(firstSample, data, samples);
+		}
 		
-		// if the handler is connected
-		private boolean connected = true; 
+		// the complete stream is only encoded for the history and clients without a subscription
+		boolean complete = history != null;
 		
-		public BDFClientHandler(Socket socket) throws IOException {
-			in = socket.getInputStream();
-			out = socket.getOutputStream();
+		for(BDFClientHandler handler : clients) {
+			if(handler.stream == null) {
+				complete = true;
+				break;
+			}
 		}
 		
-		@Override
-		public void run() {
-			try {
-				while(connected && in.read() != -1) {}
-			} catch (IOException e) {
-				connected = false;
+		if(complete) {
+			int numChannels = reader.getNumChannels();
+			int length = numChannels * samples;
+			
+			if(values.length < length) {
+				values 	= new int[length];
+				encoded = new byte[length * BDFCodec.SAMPLE_SIZE];
 			}
 			
-			synchronized(connectedClients) {
-				connectedClients.decrementAndGet();
+			for(int s = 0; s < samples; s++) {
+				for(int c = 0; c < numChannels; c++) {
+					values[s * numChannels + c] = data[c * samples + s];
+				}
 			}
 			
-			reader.removeListener(this);
-			System.out.println(String.format("%s disconnected.", Thread.currentThread().getName()));
-		}
-		
-		@Override
-		public void receivedSample(BDFSample sample) {
-			byte[] data = new byte[sample.values.length * 3];
+			BDFCodec.encode(values, 0, encoded, 0, length);
 			
-			for(int i=0; i<sample.values.length; i++) {
-				int value = sample.values[i];
-				
-				data[i*3 + 0] = (byte) (value & 0xFF);
-				data[i*3 + 1] = (byte) ((value >> 8) & 0xFF);
-				data[i*3 + 2] = (byte) ((value >>> 16) & 0xFF);
+			// the history is updated first, a client which catches up takes the samples from the history
+			if(history != null) {
+				history.add(firstSample, encoded, 0, samples);
 			}
 			
-			try {
-				out.write(data);
-			} catch (IOException e) {
-				connected = false;
-			}
+			wakeup |= offer(clients, null, packer, encoded, length * BDFCodec.SAMPLE_SIZE, numChannels * BDFCodec.SAMPLE_SIZE, firstSample);
+		}
+		
+		if(wakeup) {
+			selector.wakeup();
 		}
 	}
 	
-	public static void printUsage() {
-		System.out.println("Usage: BDFServer [-r] FILE PORT [FREQUENCY]");
-		System.out.println("-r        : repeat the file when the end is reached.");
-		System.out.println("FILE      : the BDF file.");
-		System.out.println("PORT      : port number for connecting clients.");
-		System.out.println("FREQUENCY : the frequency for sending data. 0 for full speed, -1 for file based sample rate (default).");		
+	// adds encoded samples of a stream to the buffers of the clients receiving the stream, returns true if a client has new data to send
+	private boolean offer(List<BDFClientHandler> handlers, SubscriptionStream stream, FramePacker packer, byte[] data, int length, int sampleSize, long firstSample) {
+		boolean pending = false;
+		
+		// the block is compressed by the first client which asks for it
+		if(packer != null) {
+			packer.reset();
+		}
+		
+		for(BDFClientHandler handler : handlers) {
+			if(handler.offer(stream, packer, data, length, sampleSize, firstSample)) {
+				pendingClients.add(handler);
+				pending = true;
+			}
+		}
+		
+		return pending;
 	}
 	
-	public static void main(String[] args) throws IOException, BDFException {
-		if(args.length < 2) {
-			printUsage();
+	// changes the subscription of a client, null for the complete stream
+	private void subscribe(BDFClientHandler handler, Subscription subscription) {
+		if(protocol != Protocol.FRAMED) {
+			System.err.println(String.format("%s: subscriptions need the FRAMED protocol.", handler.getName()));
 			return;
 		}
 		
-		String pathname	= "";
-		boolean repeat	= false;
-		int frequency	= -1;
+		int numChannels = streamHeader.computeNumChannels();
 		
-		int PORT		= 0;
-
-		if(args[0].equals("-r")) {
-			if(args.length < 3) {
-				printUsage();
+		for(int c : subscription.channels) {
+			if(c < 0 || c >= numChannels) {
+				System.err.println(String.format("%s: invalid channel in subscription: %s", handler.getName(), c));
 				return;
 			}
+		}
+		
+		SubscriptionStream stream = null;
+		
+		if(!subscription.isComplete(numChannels)) {
+			synchronized(subscriptions) {
+				stream = subscriptions.get(subscription);
+				
+				if(stream == null) {
+					try {
+						stream = new SubscriptionStream(subscription);
+					} catch(BDFException e) {
+						System.err.println(String.format("%s: invalid subscription: %s", handler.getName(), e.getMessage()));
+						return;
+					}
+					
+					subscriptions.put(subscription, stream);
+				}
+				
+				stream.handlers.add(handler);
+			}
+		}
+		
+		SubscriptionStream previous = handler.restart(stream, stream != null ? stream.header : header);
+		
+		unsubscribe(handler, previous);
+		
+		handler.write();
+		
+		System.out.println(String.format("%s subscribed to %s.", handler.getName(), stream != null ? subscription : "all channels"));
+	}
+	
+	// continues the stream of a client from a sample in the history
+	private void resume(BDFClientHandler handler, long sample) {
+		if(protocol != Protocol.FRAMED) {
+			System.err.println(String.format("%s: resuming needs the FRAMED protocol.", handler.getName()));
+			return;
+		}
+		
+		if(handler.stream != null) {
+			System.err.println(String.format("%s: resuming is only possible for the complete stream.", handler.getName()));
+			return;
+		}
+		
+		handler.rewind(sample);
+		handler.write();
+		
+		System.out.println(String.format("%s resumed from sample %s.", handler.getName(), sample));
+	}
+	
+	// sends the following frames of a client compressed
+	private void compress(BDFClientHandler handler) {
+		if(protocol != Protocol.FRAMED) {
+			System.err.println(String.format("%s: compression needs the FRAMED protocol.", handler.getName()));
+			return;
+		}
+		
+		handler.compressed = true;
+		
+		System.out.println(String.format("%s receives compressed frames.", handler.getName()));
+	}
+	
+	// removes a client from a stream, the stream is removed when it has no clients
+	private void unsubscribe(BDFClientHandler handler, SubscriptionStream stream) {
+		if(stream == null) {
+			return;
+		}
+		
+		synchronized(subscriptions) {
+			stream.handlers.remove(handler);
+			
+			if(stream.handlers.isEmpty()) {
+				subscriptions.remove(stream.subscription);
+			}
+		}
+	}
+	
+	/**
+	 * A <code>Subscription</code> selects the channels a client receives and the factor the sample rate is reduced by.
+	 * The request is sent by the client as a single line of text: <code>SUBSCRIBE 0,1,2,3 4</code>.
+	 */
+	public static class Subscription {
+		
+		// the start of a request
+		public static final String REQUEST = "SUBSCRIBE";
+		
+		// the indices of the channels in the stream of the server
+		private final int[] channels;
+		
+		// the decimation factor
+		private final int decimation;
+		
+		public Subscription(int[] channels, int decimation) {
+			if(channels.length == 0) {
+				throw new IllegalArgumentException("No channels in subscription");
+			}
+			
+			if(decimation < 1) {
+				throw new IllegalArgumentException(String.format("Invalid decimation factor: %s", decimation));
+			}
+			
+			this.channels 	= channels.clone();
+			this.decimation = decimation;
+		}
+		
+		/**
+		 * Parses a request, as returned by {@link #toString()}.
+		 * 
+		 * @throws	IllegalArgumentException
+		 * 			if the request is not a valid subscription.
+		 */
+		public static Subscription parse(String request) {
+			String[] parts = request.trim().split("\\s+");
+			
+			if(parts.length != 3 || !parts[0].equals(REQUEST)) {
+				throw new IllegalArgumentException(String.format("Invalid request: %s", request));
+			}
+			
+			String[] indices = parts[1].split(",");
+			int[] channels = new int[indices.length];
+			
+			try {
+				for(int c = 0; c < indices.length; c++) {
+					channels[c] = Integer.parseInt(indices[c]);
+				}
+				
+				return new Subscription(channels, Integer.parseInt(parts[2]));
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException(String.format("Invalid request: %s", request));
+			}
+		}
+		
+		public int[] getChannels() {
+			return channels.clone();
+		}
+		
+		public int getDecimation() {
+			return decimation;
+		}
+		
+		/**
+		 * Returns true if the subscription contains all channels of the stream, in order, at the full sample rate.
+		 */
+		public boolean isComplete(int numChannels) {
+			if(decimation != 1 || channels.length != numChannels) {
+				return false;
+			}
 			
-			pathname 	= args[1];
-			repeat 	= true;
+			for(int c = 0; c < channels.length; c++) {
+				if(channels[c] != c) {
+					return false;
+				}
+			}
 			
-			if(args.length > 3) {
-				frequency = Integer.parseInt(args[3]);
+			return true;
+		}
+		
+		public boolean equals(Object object) {
+			if(!(object instanceof Subscription)) {
+				return false;
 			}
 			
-			PORT = Integer.parseInt(args[2]);
-		} else {
-			pathname = args[0];
+			Subscription other = (Subscription) object;
+			
+			return decimation == other.decimation && Arrays.equals(channels, other.channels);
+		}
+		
+		public int hashCode() {
+			return 31 * Arrays.hashCode(channels) + decimation;
+		}
+		
+		/**
+		 * Returns the request line, without the line end.
+		 */
+		public String toString() {
+			StringBuffer buffer = new StringBuffer(REQUEST);
 			
-			if(args.length > 2) {
-				frequency = Integer.parseInt(args[2]);
+			for(int c = 0; c < channels.length; c++) {
+				buffer.append(c == 0 ? " " : ",");
+				buffer.append(channels[c]);
 			}
 			
-			PORT = Integer.parseInt(args[1]);
+			buffer.append(" ");
+			buffer.append(decimation);
+			
+			return buffer.toString();
 		}
+	}
+	
+	/**
+	 * The <code>FramePacker</code> compresses a block of a stream once, for all clients which asked for compressed frames.
+	 */
+	private static class FramePacker {
+		
+		private final BDFCompressor compressor;
+		
+		// the compressed block
+		private byte[] packed = new byte[0];
+		
+		// the size of the compressed block, -1 when the block is not compressed yet
+		private int size = -1;
+		
+		private FramePacker(int numChannels) {
+			compressor = new BDFCompressor(numChannels);
+		}
+		
+		// a new block follows
+		private void reset() {
+			size = -1;
+		}
+		
+		// compresses the block when it is not compressed yet, returns the size of the compressed block
+		private int pack(byte[] data, int samples) {
+			if(size < 0) {
+				if(packed.length < compressor.getMaxCompressedSize(samples)) {
+					packed = new byte[compressor.getMaxCompressedSize(samples)];
+				}
+				
+				size = compressor.compress(data, 0, samples, packed, 0);
+			}
+			
+			return size;
+		}
+	}
+	
+	/**
+	 * The stream of a subscription: the selected channels of every block are decimated and encoded once,
+	 * and added to the buffer of every client with the subscription.
+	 */
+	private class SubscriptionStream {
+		
+		// the subscription of the clients
+		private final Subscription subscription;
+		
+		// the header of the stream
+		private final byte[] header;
+		
+		// the clients with the subscription
+		private final List<BDFClientHandler> handlers = new CopyOnWriteArrayList<BDFClientHandler>();
+		
+		// the low-pass filter and decimation of the selected channels
+		private final BDFDecimator decimator;
+		
+		// the selected channels of a block, before and after decimation
+		private int[] selected = new int[0];
+		private int[] decimated = new int[0];
+		
+		// the interleaved values and bytes of the last block
+		private int[] values = new int[0];
+		private byte[] encoded = new byte[0];
+		
+		// compresses the last block for clients which asked for compressed frames
+		private final FramePacker packer;
+		
+		// the number of the next sample of the stream
+		private long next = -1;
+		
+		public SubscriptionStream(Subscription subscription) throws BDFException {
+			this.subscription = subscription;
+			
+			header 		= streamHeader.createSubset(subscription.channels, subscription.decimation).getBytes();
+			decimator 	= new BDFDecimator(subscription.channels.length, subscription.decimation);
+			packer 		= new FramePacker(subscription.channels.length);
+		}
+		
+		// select, decimate and encode a block, returns true if a client has new data to send
+		private boolean receivedBlock(long firstSample, int[] data, int samples) {
+			if(handlers.isEmpty()) {
+				return false;
+			}
+			
+			int[] channels 	= subscription.channels;
+			int numChannels = channels.length;
+			
+			if(selected.length < numChannels * samples) {
+				selected 	= new int[numChannels * samples];
+				decimated 	= new int[numChannels * decimator.getMaxOutput(samples)];
+				values 		= new int[decimated.length];
+				encoded 	= new byte[decimated.length * BDFCodec.SAMPLE_SIZE];
+			}
+			
+			// the reader restarts the numbers when a file is repeated
+			if(next < 0 || firstSample == 0) {
+				decimator.reset();
+				next = firstSample / subscription.decimation;
+			}
+			
+			for(int c = 0; c < numChannels; c++) {
+				System.arraycopy(data, channels[c] * samples, selected, c * samples, samples);
+			}
+			
+			int output = decimator.process(selected, 0, samples, decimated, 0);
+			
+			if(output == 0) {
+				return false;
+			}
+			
+			for(int s = 0; s < output; s++) {
+				for(int c = 0; c < numChannels; c++) {
+					values[s * numChannels + c] = decimated[c * output + s];
+				}
+			}
+			
+			BDFCodec.encode(values, 0, encoded, 0, numChannels * output);
+			
+			long first = next;
+			next += output;
+			
+			return offer(handlers, this, packer, encoded, numChannels * output * BDFCodec.SAMPLE_SIZE, numChannels * BDFCodec.SAMPLE_SIZE, first);
+		}
+	}
+	
+	/**
+	 * BDFClientHandler handles unique client connections. The handler buffers the encoded samples for a client,
+	 * which are sent by the server thread when the client can receive data.
+	 */
+	public class BDFClientHandler {
+		
+		// the name of the client
+		private String name;
+		
+		// the connection with the client
+		private SocketChannel channel;
+		
+		// the key of the channel in the selector
+		private SelectionKey key;
+		
+		// the bytes waiting to be sent, ready for reading
+		private ByteBuffer buffer;
+		
+		// the requests sent by the client, one per line
+		private ByteBuffer input = ByteBuffer.allocate(256);
+		
+		// the stream of the subscription of the client, null for the complete stream
+		private volatile SubscriptionStream stream = null;
+		
+		// the number of bytes sent to the client
+		private long sent = 0;
+		
+		// the FRAMED protocol: the number of bytes sent when the frame which is being sent is complete
+		private long frameEnd = 0;
+		
+		// the FRAMED protocol: the number of bytes sent when the last control frame is complete, it is never removed
+		private long controlEnd = 0;
+		
+		// the number of samples which were not sent to the client
+		private long droppedSamples = 0;
+		
+		// the number of the next sample sent from the history, -1 when the client receives the live samples
+		private long replay = -1;
+		private int replayGeneration;
+		
+		// the first live sample after the history, samples before it were sent from the history
+		private long live = -1;
+		private int liveGeneration;
+		
+		// if the client asked for compressed frames
+		private volatile boolean compressed = false;
+		
+		// the samples of the history and their compressed frame, for a client which asked for compressed frames
+		private byte[] replayData = new byte[0];
+		private FramePacker replayPacker = null;
+		
+		// if the handler is connected
+		private volatile boolean connected = true;
+		
+		public BDFClientHandler(String name, SocketChannel channel) {
+			this.name 		= name;
+			this.channel 	= channel;
+			
+			int sampleSize = reader.getNumChannels() * BDFCodec.SAMPLE_SIZE;
+			
+			if(protocol == Protocol.FRAMED) {
+				// the header, followed by the samples in frames of at least one sample
+				buffer = ByteBuffer.allocate(header.length + clientBufferSize * (sampleSize + FRAME_HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.put(header);
+				
+				// the header is never removed from the buffer
+				frameEnd = header.length;
+			} else {
+				buffer = ByteBuffer.allocate(clientBufferSize * sampleSize);
+			}
+			
+			buffer.flip();
+			
+			if(history != null) {
+				synchronized(history) {
+					replay 				= history.getFirstSample();
+					replayGeneration 	= history.getGeneration();
+				}
+			}
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public boolean isConnected() {
+			return connected;
+		}
+		
+		/**
+		 * Returns the number of bytes waiting to be sent to the client.
+		 */
+		public synchronized int getPending() {
+			return buffer.remaining();
+		}
+		
+		/**
+		 * Returns the subscription of the client, or null when the client receives the complete stream.
+		 */
+		public Subscription getSubscription() {
+			SubscriptionStream current = stream;
+			
+			return current != null ? current.subscription : null;
+		}
+		
+		/**
+		 * Returns true while the client receives the samples of the history.
+		 */
+		public synchronized boolean isReplaying() {
+			return replay >= 0;
+		}
+		
+		/**
+		 * Returns true if the client asked for compressed frames.
+		 */
+		public boolean isCompressed() {
+			return compressed;
+		}
+		
+		/**
+		 * Returns the number of samples which were not sent to the client because its buffer was full.
+		 */
+		public synchronized long getDroppedSamples() {
+			return droppedSamples;
+		}
+		
+		// add encoded samples to the buffer, returns true if the buffer was empty before
+		private synchronized boolean offer(SubscriptionStream source, FramePacker packer, byte[] data, int length, int sampleSize, long firstSample) {
+			// a client which catches up takes the samples from the history
+			if(!connected || source != stream || replay >= 0) {
+				return false;
+			}
+			
+			// the oldest samples were already sent from the history
+			int skip = 0;
+			
+			if(source == null && live >= 0 && firstSample < live && liveGeneration == history.getGeneration()) {
+				skip = (int) Math.min(live - firstSample, length / sampleSize);
+			}
+			
+			if(protocol == Protocol.FRAMED) {
+				boolean empty = !buffer.hasRemaining();
+				
+				// only a whole block is compressed
+				if(compressed && skip == 0 && offerCompressed(packer, data, length / sampleSize, sampleSize, firstSample)) {
+					return empty && buffer.hasRemaining();
+				}
+				
+				return offerFrame(data, skip, length / sampleSize, sampleSize, firstSample);
+			}
+			
+			boolean empty = !buffer.hasRemaining();
+			
+			int offset = skip * sampleSize;
+			
+			length -= offset;
+			
+			int free = buffer.capacity() - buffer.remaining();
+			
+			if(length > free) {
+				switch(slowClientPolicy) {
+					case DISCONNECT:
+						System.err.println(String.format("%s is too slow, disconnecting.", name));
+						close();
+						return false;
+					case COALESCE:
+						// keep the rest of a sample which is partially sent, the other samples in the buffer can be removed
+						int partial = (int) ((sampleSize - sent % sampleSize) % sampleSize);
+						int space = (buffer.capacity() - partial) / sampleSize * sampleSize;
+						
+						// only the newest samples of the block fit
+						if(length > space) {
+							droppedSamples += (length - space) / sampleSize;
+							
+							offset += length - space;
+							length = space;
+						}
+						
+						int remove = Math.min((buffer.remaining() - partial), (length - free + sampleSize - 1) / sampleSize * sampleSize);
+						
+						if(remove > 0) {
+							byte[] array = buffer.array();
+							int position = buffer.position();
+							
+							// move the partial sample in front of the samples which are kept
+							System.arraycopy(array, position, array, position + remove, partial);
+							buffer.position(position + remove);
+						}
+						
+						droppedSamples += Math.max(remove, 0) / sampleSize;
+						break;
+					default:
+						// only the samples which fit are added
+						int fit = free / sampleSize * sampleSize;
+						
+						droppedSamples += (length - fit) / sampleSize;
+						length = fit;
+				}
+			}
+			
+			if(length == 0) {
+				return false;
+			}
+			
+			buffer.compact();
+			buffer.put(data, offset, length);
+			buffer.flip();
+			
+			return empty;
+		}
+		
+		// add the samples as a frame to the buffer, except the skipped oldest samples. Frames in the buffer are only removed as a whole
+		private boolean offerFrame(byte[] data, int skip, int samples, int sampleSize, long firstSample) {
+			boolean empty = !buffer.hasRemaining();
+			
+			samples -= skip;
+			
+			if(samples == 0) {
+				return false;
+			}
+			
+			int length 	= FRAME_HEADER_SIZE + samples * sampleSize;
+			int free 	= buffer.capacity() - buffer.remaining();
+			
+			if(length > free) {
+				if(slowClientPolicy == SlowClientPolicy.DISCONNECT) {
+					System.err.println(String.format("%s is too slow, disconnecting.", name));
+					close();
+					return false;
+				}
+				
+				int remove = 0;
+				int removed = 0;
+				
+				// the rest of the frame which is being sent and a control frame which is not sent
+				int partial = (int) Math.max(Math.max(frameEnd, controlEnd) - sent, 0);
+				
+				if(slowClientPolicy == SlowClientPolicy.COALESCE) {
+					int position = buffer.position() + partial;
+					
+					// remove the oldest frames until the new frame fits
+					while(length > free + remove && position + remove < buffer.limit()) {
+						removed += getFrameSamples(position + remove, sampleSize);
+						remove 	+= 4 + getFrameLength(position + remove);
+					}
+				}
+				
+				// only a part of the samples fit, the newest for COALESCE and the oldest for DROP
+				int fit = Math.min(Math.max((free + remove - FRAME_HEADER_SIZE) / sampleSize, 0), samples);
+				
+				droppedSamples += samples - fit;
+				
+				if(slowClientPolicy == SlowClientPolicy.COALESCE) {
+					skip += samples - fit;
+				}
+				
+				samples = fit;
+				
+				if(samples == 0) {
+					return false;
+				}
+				
+				if(remove > 0) {
+					byte[] array = buffer.array();
+					int position = buffer.position();
+					
+					// move the partial frame in front of the frames which are kept
+					System.arraycopy(array, position, array, position + remove, partial);
+					buffer.position(position + remove);
+					
+					droppedSamples += removed;
+				}
+			}
+			
+			buffer.compact();
+			buffer.putInt(FRAME_HEADER_SIZE - 4 + samples * sampleSize);
+			buffer.putLong(firstSample + skip);
+			buffer.put(data, skip * sampleSize, samples * sampleSize);
+			buffer.flip();
+			
+			return empty;
+		}
+		
+		// add the block as a compressed frame to the buffer, returns false when the frame does not fit and the samples should be added as they are
+		private boolean offerCompressed(FramePacker packer, byte[] data, int samples, int sampleSize, long firstSample) {
+			int size 	= packer.pack(data, samples);
+			int length 	= COMPRESSED_FRAME_HEADER_SIZE + size;
+			int free 	= buffer.capacity() - buffer.remaining();
+			
+			if(length > free) {
+				if(slowClientPolicy == SlowClientPolicy.DISCONNECT) {
+					System.err.println(String.format("%s is too slow, disconnecting.", name));
+					close();
+					return true;
+				}
+				
+				// the oldest samples which fit are added as they are
+				if(slowClientPolicy != SlowClientPolicy.COALESCE) {
+					return false;
+				}
+				
+				int remove = 0;
+				int removed = 0;
+				
+				// the rest of the frame which is being sent and a control frame which is not sent
+				int partial 	= (int) Math.max(Math.max(frameEnd, controlEnd) - sent, 0);
+				int position 	= buffer.position() + partial;
+				
+				// remove the oldest frames until the new frame fits
+				while(length > free + remove && position + remove < buffer.limit()) {
+					removed += getFrameSamples(position + remove, sampleSize);
+					remove 	+= 4 + getFrameLength(position + remove);
+				}
+				
+				// the newest samples which fit are added as they are
+				if(length > free + remove) {
+					return false;
+				}
+				
+				byte[] array = buffer.array();
+				
+				// move the partial frame in front of the frames which are kept
+				System.arraycopy(array, buffer.position(), array, buffer.position() + remove, partial);
+				buffer.position(buffer.position() + remove);
+				
+				droppedSamples += removed;
+			}
+			
+			buffer.compact();
+			buffer.putInt(COMPRESSED_FRAME | (length - 4));
+			buffer.putLong(firstSample);
+			buffer.putInt(samples);
+			buffer.put(packer.packed, 0, size);
+			buffer.flip();
+			
+			return true;
+		}
+		
+		// the length of the frame at the index of the buffer, without the mark of a compressed frame
+		private int getFrameLength(int index) {
+			return buffer.getInt(index) & ~COMPRESSED_FRAME;
+		}
+		
+		// the number of samples of the frame at the index of the buffer
+		private int getFrameSamples(int index, int sampleSize) {
+			if((buffer.getInt(index) & COMPRESSED_FRAME) != 0) {
+				return buffer.getInt(index + FRAME_HEADER_SIZE);
+			}
+			
+			return (getFrameLength(index) + 4 - FRAME_HEADER_SIZE) / sampleSize;
+		}
+		
+		// switch to another stream: the frames in the buffer are replaced by a control frame with the header of the stream
+		private synchronized SubscriptionStream restart(SubscriptionStream next, byte[] header) {
+			SubscriptionStream previous = stream;
+			
+			stream 	= next;
+			replay 	= -1;
+			live 	= -1;
+			
+			if(!connected) {
+				return previous;
+			}
+			
+			// the rest of the frame which is being sent
+			int partial = (int) Math.max(frameEnd - sent, 0);
+			int length 	= FRAME_HEADER_SIZE + header.length;
+			
+			if(partial + length > buffer.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(partial + length + buffer.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+				larger.put(buffer.array(), buffer.position(), partial);
+				
+				buffer = larger;
+			} else {
+				buffer.limit(buffer.position() + partial);
+				buffer.compact();
+			}
+			
+			buffer.putInt(length - 4);
+			buffer.putLong(CONTROL_FRAME);
+			buffer.put(header);
+			buffer.flip();
+			
+			controlEnd = sent + partial + length;
+			
+			return previous;
+		}
+		
+		// continue the stream from a sample in the history: the frames in the buffer are replaced by a control frame.
+		// Without a history the client continues with the live samples.
+		private synchronized void rewind(long sample) {
+			restart(null, header);
+			
+			if(history == null) {
+				return;
+			}
+			
+			synchronized(history) {
+				if(sample < history.getFirstSample() || sample > history.getNextSample()) {
+					// the samples before the history are lost, after a restart of the stream the whole history is sent
+					if(sample < history.getFirstSample()) {
+						droppedSamples += history.getFirstSample() - sample;
+					}
+					
+					sample = history.getFirstSample();
+				}
+				
+				replay 				= sample;
+				replayGeneration 	= history.getGeneration();
+			}
+		}
+		
+		// copy samples from the history to the buffer, until the client has caught up with the live samples
+		private void fill() {
+			if(replay < 0) {
+				return;
+			}
+			
+			int sampleSize = reader.getNumChannels() * BDFCodec.SAMPLE_SIZE;
+			
+			synchronized(history) {
+				if(replayGeneration != history.getGeneration()) {
+					// the stream was restarted, continue with the new samples
+					replay 				= history.getFirstSample();
+					replayGeneration 	= history.getGeneration();
+				} else if(replay < history.getFirstSample()) {
+					// the samples were removed from the history before they were sent
+					droppedSamples += history.getFirstSample() - replay;
+					replay = history.getFirstSample();
+				}
+				
+				int free 	= buffer.capacity() - buffer.remaining() - (protocol == Protocol.FRAMED ? FRAME_HEADER_SIZE : 0);
+				int samples = (int) Math.min(history.getNextSample() - replay, Math.max(free, 0) / sampleSize);
+				
+				if(compressed) {
+					if(replayPacker == null) {
+						replayPacker = new FramePacker(reader.getNumChannels());
+					}
+					
+					samples = (int) Math.min(history.getNextSample() - replay, replayPacker.compressor.getMaxSamples(free + FRAME_HEADER_SIZE - COMPRESSED_FRAME_HEADER_SIZE));
+				}
+				
+				if(samples > 0 && compressed) {
+					if(replayData.length < samples * sampleSize) {
+						replayData = new byte[samples * sampleSize];
+					}
+					
+					history.get(replay, ByteBuffer.wrap(replayData, 0, samples * sampleSize), samples);
+					
+					replayPacker.reset();
+					
+					int size = replayPacker.pack(replayData, samples);
+					
+					buffer.compact();
+					buffer.putInt(COMPRESSED_FRAME | (COMPRESSED_FRAME_HEADER_SIZE - 4 + size));
+					buffer.putLong(replay);
+					buffer.putInt(samples);
+					buffer.put(replayPacker.packed, 0, size);
+					buffer.flip();
+					
+					replay += samples;
+				} else if(samples > 0) {
+					buffer.compact();
+					
+					if(protocol == Protocol.FRAMED) {
+						buffer.putInt(FRAME_HEADER_SIZE - 4 + samples * sampleSize);
+						buffer.putLong(replay);
+					}
+					
+					history.get(replay, buffer, samples);
+					buffer.flip();
+					
+					replay += samples;
+				}
+				
+				// continue with the live samples, which are added to the history before they are offered
+				if(replay == history.getNextSample()) {
+					live 			= replay;
+					liveGeneration 	= replayGeneration;
+					replay 			= -1;
+				}
+			}
+		}
+		
+		// send as much of the buffer as possible, wait for the channel to become writable for the rest
+		private synchronized void write() {
+			if(!connected) {
+				return;
+			}
+			
+			try {
+				// a client which catches up is sent as much of the history as it can receive
+				do {
+					fill();
+					
+					int position 	= buffer.position();
+					long previous 	= sent;
+					
+					sent += channel.write(buffer);
+					
+					// find the end of the frame which is being sent, the sent frames are still in the array
+					if(protocol == Protocol.FRAMED) {
+						while(frameEnd < sent) {
+							frameEnd += 4 + getFrameLength(position + (int) (frameEnd - previous));
+						}
+					}
+				} while(replay >= 0 && !buffer.hasRemaining());
+				
+				key.interestOps(buffer.hasRemaining() || replay >= 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			} catch(IOException e) {
+				close();
+			}
+		}
+		
+		// read the requests sent by the client, and detect a closed connection
+		private void read() {
+			try {
+				if(channel.read(input) == -1) {
+					close();
+					return;
+				}
+			} catch(IOException e) {
+				close();
+				return;
+			}
+			
+			int start = 0;
+			
+			for(int i = 0; i < input.position(); i++) {
+				if(input.get(i) == '\n') {
+					request(new String(input.array(), start, i - start).trim());
+					start = i + 1;
+				}
+			}
+			
+			input.flip();
+			input.position(start);
+			input.compact();
+			
+			// a request which does not fit is ignored
+			if(!input.hasRemaining()) {
+				input.clear();
+			}
+		}
+		
+		// handle a single request
+		private void request(String request) {
+			if(request.length() == 0) {
+				return;
+			}
+			
+			try {
+				if(request.startsWith(RESUME_REQUEST)) {
+					resume(this, Long.parseLong(request.substring(RESUME_REQUEST.length()).trim()));
+				} else if(request.equals(COMPRESS_REQUEST)) {
+					compress(this);
+				} else {
+					subscribe(this, Subscription.parse(request));
+				}
+			} catch(NumberFormatException e) {
+				System.err.println(String.format("%s: Invalid request: %s", name, request));
+			} catch(IllegalArgumentException e) {
+				System.err.println(String.format("%s: %s", name, e.getMessage()));
+			}
+		}
+		
+		/**
+		 * Closes the connection with the client.
+		 */
+		public synchronized void close() {
+			if(!connected) {
+				return;
+			}
+			
+			connected = false;
+			
+			clients.remove(this);
+			connectedClients.decrementAndGet();
+			
+			unsubscribe(this, stream);
+			
+			if(key != null) {
+				key.cancel();
+			}
+			
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println(String.format("Disconnect error"));
+			}
+			
+			System.out.println(String.format("%s disconnected.", name));
+		}
+	}
+	
+	public static void printUsage() {
+		System.out.println("Usage: BDFServer [-r] [-f] [-h SECONDS] FILE PORT [FREQUENCY]");
+		System.out.println("-r        : repeat the file when the end is reached.");
+		System.out.println("-f        : send the header and frames of samples (FRAMED protocol) instead of raw samples.");
+		System.out.println("-h        : keep the last SECONDS of the stream and send them to new clients first.");
+		System.out.println("FILE      : the BDF file.");
+		System.out.println("PORT      : port number for connecting clients.");
+		System.out.println("FREQUENCY : the frequency for sending data. 0 for full speed, -1 for file based sample rate (default).");		
+	}
+	
+	public static void main(String[] args) throws IOException, BDFException {
+		boolean repeat		= false;
+		Protocol protocol	= Protocol.RAW;
+		int history			= 0;
+		
+		int i = 0;
+		
+		for(; i < args.length && args[i].startsWith("-"); i++) {
+			if(args[i].equals("-r")) {
+				repeat = true;
+			} else if(args[i].equals("-f")) {
+				protocol = Protocol.FRAMED;
+			} else if(args[i].equals("-h") && i + 1 < args.length) {
+				history = Integer.parseInt(args[++i]);
+			} else {
+				break;
+			}
+		}
+		
+		if(args.length - i < 2) {
+			printUsage();
+			return;
+		}
+		
+		String pathname	= args[i];
+		int PORT		= Integer.parseInt(args[i + 1]);
+		int frequency	= args.length - i > 2 ? Integer.parseInt(args[i + 2]) : -1;
 		
 		BDFFile bdf = BDFFile.open(pathname);
 			
@@ -255,6 +1469,8 @@ public class BDFServer implements Runnable {
 		reader.setFrequency(frequency);
 			
 		BDFServer server = new BDFServer(reader, PORT);
+		server.setProtocol(protocol);
+		server.setHistoryLength(history);
 		server.start();
 	}
 }
\ No newline at end of file
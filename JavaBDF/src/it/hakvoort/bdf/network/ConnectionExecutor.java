@@ -0,0 +1,192 @@
+package it.hakvoort.bdf.network;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>ConnectionExecutor</code> runs the handlers of the connections of a server, each handler in its own thread.
+ *
+ * The threads are provided by an ExecutorService: by default a pool which reuses the threads of closed connections, or
+ * a virtual thread for every connection when the Java runtime supports them, see {@link #newVirtualThreadExecutor()}.
+ * Any other ExecutorService can be used as well. The number of connections can be limited, a connection over the limit is
+ * closed right away. When the server stops, all connections are closed, which ends the blocking reads of the handlers,
+ * and the handlers are interrupted and waited for.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class ConnectionExecutor {
+
+	/**
+	 * A <code>Connection</code> is handled by its run method until the connection is closed.
+	 */
+	public interface Connection extends Runnable {
+
+		/**
+		 * Closes the connection, the run method should return soon after.
+		 */
+		public void close();
+
+	}
+
+	// the threads of the handlers
+	private final ExecutorService executor;
+
+	// the open connections
+	private final Set<Connection> connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+
+	// the maximum number of connections, 0 for no maximum
+	private volatile int maxConnections = 0;
+
+	// the number of milliseconds to wait for the handlers when the executor is shut down
+	private volatile long shutdownTimeout = 5000;
+
+	/**
+	 * Creates an executor which reuses the threads of closed connections.
+	 */
+	public ConnectionExecutor() {
+		this(newThreadPool());
+	}
+
+	public ConnectionExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Sets the maximum number of connections, 0 (default) for no maximum.
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = Math.max(maxConnections, 0);
+	}
+
+	public long getShutdownTimeout() {
+		return shutdownTimeout;
+	}
+
+	/**
+	 * Sets the number of milliseconds {@link #shutdown()} waits for the handlers to end.
+	 */
+	public void setShutdownTimeout(long shutdownTimeout) {
+		this.shutdownTimeout = Math.max(shutdownTimeout, 0);
+	}
+
+	/**
+	 * Returns the number of open connections.
+	 */
+	public int getConnections() {
+		return connections.size();
+	}
+
+	/**
+	 * Runs the handler of a connection in a thread with the given name. The connection is closed when the maximum
+	 * number of connections is reached or the executor is shut down.
+	 *
+	 * @return	true if the handler is started.
+	 */
+	public boolean execute(final String name, final Connection connection) {
+		synchronized(connections) {
+			if(executor.isShutdown() || (maxConnections > 0 && connections.size() >= maxConnections)) {
+				connection.close();
+				return false;
+			}
+
+			connections.add(connection);
+		}
+
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					Thread thread = Thread.currentThread();
+					String previous = thread.getName();
+
+					thread.setName(name);
+
+					try {
+						connection.run();
+					} finally {
+						connections.remove(connection);
+						thread.setName(previous);
+					}
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			connections.remove(connection);
+			connection.close();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Closes all connections, interrupts the handlers and waits for them to end, at most the shutdown timeout.
+	 *
+	 * @return	true if all handlers have ended.
+	 */
+	public boolean shutdown() {
+		synchronized(connections) {
+			executor.shutdown();
+		}
+
+		for(Connection connection : connections) {
+			connection.close();
+		}
+
+		executor.shutdownNow();
+
+		try {
+			return executor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Returns an ExecutorService which reuses the threads of closed connections. The threads do not keep the
+	 * application running.
+	 */
+	public static ExecutorService newThreadPool() {
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns an ExecutorService which starts a virtual thread for every connection (Java 21 and later). A virtual thread
+	 * costs little memory and is cheap to create, which suits many short connections. On older versions of Java a pool
+	 * from {@link #newThreadPool()} is returned.
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			// found by reflection, so the code still compiles and runs on older versions
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+			return (ExecutorService) method.invoke(null);
+		} catch(Exception e) {
+			System.err.println("Virtual threads are not supported by this version of Java, using a thread pool.");
+
+			return newThreadPool();
+		}
+	}
+}
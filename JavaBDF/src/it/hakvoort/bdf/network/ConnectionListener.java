@@ -0,0 +1,20 @@
+package it.hakvoort.bdf.network;
+
+/**
+ * A <code>ConnectionListener</code> is notified by a {@link ConnectionSupervisor} when the connection of a client is
+ * lost and when it is restored.
+ * 
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public interface ConnectionListener {
+
+	public void connectionLost();
+	
+	/**
+	 * @param 	downtime
+	 * 			the number of milliseconds the connection was down
+	 */
+	public void reconnected(long downtime);
+	
+}
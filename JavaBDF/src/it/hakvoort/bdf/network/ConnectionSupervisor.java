@@ -0,0 +1,352 @@
+package it.hakvoort.bdf.network;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The <code>ConnectionSupervisor</code> restores the lost connection of a client, e.g. after the server was restarted.
+ *
+ * When the client reports a lost connection, the supervisor tries to reconnect in a separate thread until it succeeds,
+ * it is stopped or the maximum number of attempts is reached. The delay before an attempt doubles with every attempt, up
+ * to the maximum delay. A random part of the delay is left out (jitter), so clients which lost their connection at the
+ * same moment do not all reconnect at the same moment. A restored connection which is lost again within the stable time,
+ * e.g. because a full server closes new connections, continues with the next delay instead of the initial delay.
+ * ConnectionListeners are notified of lost and restored connections.
+ *
+ * The supervisor is disabled by default, the client then tries to connect only once.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class ConnectionSupervisor {
+
+	/**
+	 * The <code>Connector</code> makes a single attempt to restore the connection of the client.
+	 */
+	public interface Connector {
+
+		/**
+		 * Returns true if the connection is restored.
+		 *
+		 * @param 	downtime
+		 * 			the number of milliseconds since the connection was lost
+		 */
+		public boolean reconnect(long downtime);
+
+	}
+
+	// the client
+	private final Connector connector;
+
+	// if lost connections are restored
+	private volatile boolean enabled = false;
+
+	// if the client wants to be connected
+	private volatile boolean running = false;
+
+	// the delay before the first attempt, in milliseconds
+	private long initialDelay = 100;
+
+	// the maximum delay between attempts, in milliseconds
+	private long maxDelay = 30000;
+
+	// the part of the delay which is random
+	private double jitter = 0.5;
+
+	// the maximum number of attempts, 0 for no maximum
+	private int maxAttempts = 0;
+
+	// the time in milliseconds a restored connection should stay up before the delay starts at the initial delay again
+	private long stableTime = 5000;
+
+	// the number of attempts since the connection was last stable, sets the delay of the next attempt
+	private int attempt = 0;
+
+	// the time the connection was restored
+	private long restoredTime = 0;
+
+	// the reconnecting thread
+	private Thread thread = null;
+
+	// the time the connection was lost
+	private long lostTime = 0;
+
+	// if the connection was lost again while the reconnecting thread was running
+	private boolean lostAgain = false;
+
+	// statistics
+	private volatile long reconnects = 0;
+	private volatile long attempts = 0;
+	private volatile long lastDowntime = 0;
+	private volatile long totalDowntime = 0;
+
+	// listeners waiting for lost and restored connections
+	protected List<ConnectionListener> listeners = new CopyOnWriteArrayList<ConnectionListener>();
+
+	private final Random random = new Random();
+
+	public ConnectionSupervisor(Connector connector) {
+		this.connector = connector;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables reconnecting. Disabling stops a running attempt to reconnect.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+
+		if(!enabled) {
+			interrupt();
+		}
+	}
+
+	public long getInitialDelay() {
+		return initialDelay;
+	}
+
+	public void setInitialDelay(long initialDelay) {
+		this.initialDelay = Math.max(initialDelay, 0);
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = Math.max(maxDelay, 0);
+	}
+
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Sets the part of the delay which is random, between 0 (fixed delays) and 1.
+	 */
+	public void setJitter(double jitter) {
+		this.jitter = Math.min(Math.max(jitter, 0), 1);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Sets the maximum number of attempts after a lost connection, 0 (default) to keep trying.
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = Math.max(maxAttempts, 0);
+	}
+
+	public long getStableTime() {
+		return stableTime;
+	}
+
+	/**
+	 * Sets the time in milliseconds a restored connection should stay up before the next lost connection starts with
+	 * the initial delay again.
+	 */
+	public void setStableTime(long stableTime) {
+		this.stableTime = Math.max(stableTime, 0);
+	}
+
+	/**
+	 * Returns the delay before an attempt, the first attempt is 0.
+	 */
+	public long getDelay(int attempt) {
+		long delay = initialDelay;
+
+		for(int i = 0; i < attempt && delay < maxDelay; i++) {
+			delay *= 2;
+		}
+
+		delay = Math.min(delay, maxDelay);
+
+		return delay - (long) (delay * jitter * random.nextDouble());
+	}
+
+	/**
+	 * Returns true while the supervisor tries to restore the connection.
+	 */
+	public synchronized boolean isReconnecting() {
+		return thread != null;
+	}
+
+	/**
+	 * Returns the number of restored connections.
+	 */
+	public long getReconnects() {
+		return reconnects;
+	}
+
+	/**
+	 * Returns the number of attempts to restore a connection.
+	 */
+	public long getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Returns the number of milliseconds the last restored connection was down.
+	 */
+	public long getLastDowntime() {
+		return lastDowntime;
+	}
+
+	/**
+	 * Returns the number of milliseconds all restored connections were down.
+	 */
+	public long getTotalDowntime() {
+		return totalDowntime;
+	}
+
+	/**
+	 * Called by the client when it connects.
+	 */
+	public synchronized void start() {
+		running = true;
+
+		attempt = 0;
+		restoredTime = 0;
+	}
+
+	/**
+	 * Called by the client when it disconnects, a running attempt to reconnect is stopped.
+	 */
+	public void stop() {
+		running = false;
+
+		interrupt();
+	}
+
+	/**
+	 * Called by the client when the connection is lost or could not be made. When the supervisor is enabled it starts
+	 * to reconnect.
+	 */
+	public void connectionLost() {
+		synchronized(this) {
+			if(!enabled || !running) {
+				return;
+			}
+
+			// a restored connection can be lost before the reconnecting thread is done, it then reconnects again
+			if(thread != null) {
+				lostAgain = true;
+				return;
+			}
+
+			lostTime = System.currentTimeMillis();
+			lostAgain = false;
+
+			// a restored connection which did not stay up continues with the next delay
+			if(lostTime - restoredTime >= stableTime) {
+				attempt = 0;
+			}
+
+			thread = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					reconnect();
+				}
+			});
+
+			thread.setName("ConnectionSupervisor");
+			thread.start();
+		}
+
+		fireConnectionLost();
+	}
+
+	private synchronized void interrupt() {
+		if(thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	// try to restore the connection until it succeeds, the supervisor is stopped or the maximum number of attempts is reached
+	private void reconnect() {
+		while(true) {
+			boolean restored = false;
+
+			while(maxAttempts == 0 || attempt < maxAttempts) {
+				try {
+					Thread.sleep(getDelay(attempt));
+				} catch(InterruptedException e) {
+					break;
+				}
+
+				if(!enabled || !running) {
+					break;
+				}
+
+				attempt++;
+				attempts++;
+
+				if(connector.reconnect(System.currentTimeMillis() - lostTime)) {
+					restored = true;
+					break;
+				}
+			}
+
+			if(restored) {
+				restoredTime 	= System.currentTimeMillis();
+				lastDowntime 	= restoredTime - lostTime;
+				totalDowntime 	+= lastDowntime;
+				reconnects++;
+
+				fireReconnected(lastDowntime);
+			} else if(enabled && running) {
+				System.err.println(String.format("Could not restore the connection after %s attempts.", maxAttempts));
+			}
+
+			synchronized(this) {
+				// the thread is only done when the restored connection was not lost in the meantime
+				if(!restored || !lostAgain || !enabled || !running) {
+					thread = null;
+					lostAgain = false;
+
+					return;
+				}
+
+				lostTime = System.currentTimeMillis();
+				lostAgain = false;
+
+				if(lostTime - restoredTime >= stableTime) {
+					attempt = 0;
+				}
+			}
+
+			fireConnectionLost();
+		}
+	}
+
+	public void addListener(ConnectionListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(ConnectionListener listener) {
+		listeners.remove(listener);
+	}
+
+	public List<ConnectionListener> getListeners() {
+		return listeners;
+	}
+
+	protected void fireConnectionLost() {
+		for(ConnectionListener listener : listeners) {
+			listener.connectionLost();
+		}
+	}
+
+	protected void fireReconnected(long downtime) {
+		for(ConnectionListener listener : listeners) {
+			listener.reconnected(downtime);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package it.hakvoort.bdf.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The <code>FrameReader</code> reads a stream of fixed size frames, e.g. the samples of all channels, in large blocks.
+ *
+ * Every read takes as many bytes as are available, up to the size of the buffer, and hands all complete frames to a
+ * {@link FrameHandler} at once. An incomplete frame at the end of a read is kept and completed by the next read.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class FrameReader {
+
+	/**
+	 * The <code>FrameHandler</code> receives the complete frames of a read.
+	 */
+	public interface FrameHandler {
+
+		/**
+		 * The frames are stored from the position of the buffer, in little endian order. The buffer is reused for
+		 * following reads, so it is only valid during the call.
+		 */
+		public void receivedFrames(ByteBuffer frames, int count);
+
+	}
+
+	// the default size of the buffer in bytes
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	// the channel to read from
+	private final ReadableByteChannel channel;
+
+	// the size of a frame in bytes
+	private final int frameSize;
+
+	// the buffer, contains an incomplete frame between reads
+	private final ByteBuffer buffer;
+
+	// the number of frames read
+	private long frames = 0;
+
+	// the number of reads
+	private long reads = 0;
+
+	public FrameReader(InputStream input, int frameSize) {
+		this(Channels.newChannel(input), frameSize, DEFAULT_BUFFER_SIZE);
+	}
+
+	public FrameReader(ReadableByteChannel channel, int frameSize) {
+		this(channel, frameSize, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param 	channel
+	 * 			the channel to read from
+	 * @param 	frameSize
+	 * 			the size of a frame in bytes
+	 * @param 	bufferSize
+	 * 			the maximum number of bytes read at once, rounded down to whole frames and at least one frame
+	 */
+	public FrameReader(ReadableByteChannel channel, int frameSize, int bufferSize) {
+		if(frameSize < 1) {
+			throw new IllegalArgumentException(String.format("Invalid frame size: %s", frameSize));
+		}
+
+		this.channel 	= channel;
+		this.frameSize 	= frameSize;
+
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferSize / frameSize, 1) * frameSize).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	/**
+	 * Returns the maximum number of frames handed over at once.
+	 */
+	public int getMaxFrames() {
+		return buffer.capacity() / frameSize;
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	public long getReads() {
+		return reads;
+	}
+
+	/**
+	 * Reads the available bytes and hands the complete frames to the handler. Blocks until at least one byte is read.
+	 *
+	 * @return	false if the end of the stream is reached.
+	 */
+	public boolean read(FrameHandler handler) throws IOException {
+		if(channel.read(buffer) == -1) {
+			return false;
+		}
+
+		reads++;
+
+		int end 	= buffer.position();
+		int count 	= end / frameSize;
+
+		if(count > 0) {
+			buffer.flip();
+			buffer.limit(count * frameSize);
+
+			handler.receivedFrames(buffer, count);
+
+			frames += count;
+
+			// keep the incomplete frame
+			buffer.limit(end);
+			buffer.position(count * frameSize);
+			buffer.compact();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads and hands over frames until the end of the stream is reached.
+	 */
+	public void readAll(FrameHandler handler) throws IOException {
+		while(read(handler));
+	}
+}
@@ -0,0 +1,16 @@
+package it.hakvoort.bdf.network;
+
+/**
+ * A <code>GapListener</code> is notified when a client misses samples, e.g. while its connection was down.
+ * 
+ * The gap is reported before the samples following the gap are sent to the other listeners, so listeners can fill
+ * the gap to keep their buffers aligned in time. The samples following the gap are numbered from firstSample + samples.
+ * 
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public interface GapListener {
+
+	public void receivedGap(long firstSample, long samples);
+	
+}
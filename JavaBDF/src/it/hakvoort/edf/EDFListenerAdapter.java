@@ -0,0 +1,45 @@
+package it.hakvoort.edf;
+
+import java.util.List;
+
+/**
+ * The <code>EDFListenerAdapter</code> converts blocks of samples into separate EDFSamples for EDFListeners.
+ * A new EDFSample is created for every sample, since listeners are allowed to keep the samples they receive.
+ * 
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class EDFListenerAdapter implements EDFBlockListener {
+
+	// the number of channels in a block
+	private int numChannels;
+	
+	// the listeners receiving the samples
+	private List<EDFListener> listeners;
+	
+	public EDFListenerAdapter(int numChannels, List<EDFListener> listeners) {
+		this.numChannels = numChannels;
+		this.listeners = listeners;
+	}
+	
+	@Override
+	public void receivedBlock(long firstSample, int[] data, int samples) {
+		if(listeners.isEmpty()) {
+			return;
+		}
+		
+		for(int s = 0; s < samples; s++) {
+			int[] values = new int[numChannels];
+			
+			for(int c = 0; c < numChannels; c++) {
+				values[c] = data[c * samples + s];
+			}
+			
+			EDFSample sample = new EDFSample((int) (firstSample + s), values);
+			
+			for(EDFListener listener : listeners) {
+				listener.receivedSample(sample);
+			}
+		}
+	}
+}
@@ -1,28 +1,39 @@
 package it.hakvoort.edf.network;
 
+import it.hakvoort.bdf.network.ConnectionSupervisor;
+import it.hakvoort.bdf.network.ConnectionSupervisor.Connector;
+import it.hakvoort.bdf.network.FrameReader;
+import it.hakvoort.bdf.network.FrameReader.FrameHandler;
+import it.hakvoort.bdf.network.GapListener;
+import it.hakvoort.edf.EDFBlockListener;
 import it.hakvoort.edf.EDFListener;
+import it.hakvoort.edf.EDFListenerAdapter;
 import it.hakvoort.edf.EDFSample;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
+ * The <code>EDFClient</code> receives 16 bit samples from a TCP server.
+ * 
+ * The stream is read in large blocks by a FrameReader, all complete samples of a read are decoded at once and sent as a
+ * single block to the EDFBlockListeners. EDFListeners receive the same samples one by one.
+ * 
+ * A lost connection can be restored by the {@link ConnectionSupervisor} of the client. The number of samples missed while
+ * the connection was down is estimated from the sample rate and reported to the GapListeners before the following samples.
  * 
  * @author Gido Hakvoort (gido@hakvoort.it)
  *
  */
 public class EDFClient {
 	
-	// the client socket
-	private Socket socket;
-	
-	// the input stream
-	private InputStream input;
+	// the client channel
+	private SocketChannel channel;
 	
 	// the hostname or ip address of the server
 	private String HOST;
@@ -31,7 +42,22 @@ public class EDFClient {
 	private int PORT;
 	
 	// if the client is connected
-	private boolean connected = false;
+	private volatile boolean connected = false;
+
+	// the number of samples missed while the connection was down
+	private volatile long lostSamples = 0;
+	
+	// the number of samples per second, to estimate the samples missed while the connection was down
+	private int sampleRate = 0;
+	
+	// restores a lost connection
+	private ConnectionSupervisor supervisor = new ConnectionSupervisor(new Connector() {
+		
+		@Override
+		public boolean reconnect(long downtime) {
+			return open(downtime);
+		}
+	});
 
 	// the input reader
 	private EDFClientInputReader inputReader;
@@ -39,18 +65,36 @@ public class EDFClient {
 	// listeners waiting for records
 	protected List<EDFListener> listeners = new CopyOnWriteArrayList<EDFListener>();
 	
+	// listeners waiting for blocks of samples
+	protected List<EDFBlockListener> blockListeners = new CopyOnWriteArrayList<EDFBlockListener>();
+	
+	// listeners waiting for missing samples
+	protected List<GapListener> gapListeners = new CopyOnWriteArrayList<GapListener>();
+	
+	// converts blocks into samples for the sample listeners
+	private EDFListenerAdapter listenerAdapter;
+	
 	public EDFClient(String HOST, int PORT, int numChannels) {
 		this.HOST = HOST;
 		this.PORT = PORT;
 		
-		inputReader = new EDFClientInputReader(numChannels);
+		inputReader 	= new EDFClientInputReader(numChannels);
+		listenerAdapter = new EDFListenerAdapter(numChannels, listeners);
 	}
 	
 	public void connect() {
+		supervisor.start();
+		
+		if(!open(-1)) {
+			supervisor.connectionLost();
+		}
+	}
+	
+	// connects to the server and starts reading, the downtime is -1 for a new connection
+	private synchronized boolean open(long downtime) {
 		try {
-			socket = new Socket();
-			socket.connect(new InetSocketAddress(HOST, PORT), 5000);
-			input = socket.getInputStream();
+			channel = SocketChannel.open();
+			channel.socket().connect(new InetSocketAddress(HOST, PORT), 5000);
 
 			connected = true;
 		} catch (UnknownHostException e) {
@@ -59,12 +103,43 @@ public class EDFClient {
 			System.err.println(String.format("Could not connect to %s:%s", HOST, PORT));
 		}
 		
-		if(connected) {
-			new Thread(inputReader).start();
+		if(!connected) {
+			try {
+				if(channel != null) {
+					channel.close();
+				}
+			} catch (IOException e) {
+				System.err.println(String.format("Disconnect error"));
+			}
+			
+			return false;
 		}
+		
+		if(downtime < 0) {
+			lostSamples = 0;
+		} else if(inputReader.sampleCounter > 0 && sampleRate > 0) {
+			long missing = downtime * sampleRate / 1000;
+			
+			if(missing > 0) {
+				lostSamples += missing;
+				
+				fireReceivedGap(inputReader.sampleCounter, missing);
+				inputReader.sampleCounter += missing;
+			}
+		}
+		
+		new Thread(inputReader).start();
+		
+		return true;
 	}
 	
 	public void disconnect() {
+		supervisor.stop();
+		
+		close();
+	}
+	
+	private void close() {
 		if(!connected) {
 			return;
 		}
@@ -72,8 +147,7 @@ public class EDFClient {
 		connected = false;
 
 		try {
-			input.close();
-			socket.close();
+			channel.close();
 		} catch (IOException e) {
 			System.err.println(String.format("Disconnect error"));
 		}
@@ -83,6 +157,32 @@ public class EDFClient {
 		return this.connected;
 	}
 	
+	public int getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * Sets the sample rate of the stream, to estimate the number of samples missed while the connection was down.
+	 * 0 for an unknown sample rate, missed samples are not reported.
+	 */
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = Math.max(sampleRate, 0);
+	}
+	
+	/**
+	 * Returns the number of samples missed while the connection was down.
+	 */
+	public long getLostSamples() {
+		return lostSamples;
+	}
+	
+	/**
+	 * Returns the supervisor which restores a lost connection, disabled by default.
+	 */
+	public ConnectionSupervisor getSupervisor() {
+		return supervisor;
+	}
+	
 	public void addListener(EDFListener listener) {
 		listeners.add(listener);
 	}
@@ -99,6 +199,50 @@ public class EDFClient {
 		return listeners;
 	}
 	
+	public void addBlockListener(EDFBlockListener listener) {
+		blockListeners.add(listener);
+	}
+	
+	public void removeBlockListener(EDFBlockListener listener) {
+		blockListeners.remove(listener);
+	}
+	
+	public List<EDFBlockListener> getBlockListeners() {
+		return blockListeners;
+	}
+	
+	public void addGapListener(GapListener listener) {
+		gapListeners.add(listener);
+	}
+	
+	public void removeGapListener(GapListener listener) {
+		gapListeners.remove(listener);
+	}
+	
+	public List<GapListener> getGapListeners() {
+		return gapListeners;
+	}
+	
+	/**
+	 * Send missing samples to all gap listeners
+	 */
+	protected void fireReceivedGap(long firstSample, long samples) {
+		for(GapListener listener : gapListeners) {
+			listener.receivedGap(firstSample, samples);
+		}
+	}
+	
+	/**
+	 * Send a block of samples to all block listeners, and as separate samples to all listeners
+	 */
+	protected void fireReceivedBlock(long firstSample, int[] data, int samples) {
+		for(EDFBlockListener listener : blockListeners) {
+			listener.receivedBlock(firstSample, data, samples);
+		}
+		
+		listenerAdapter.receivedBlock(firstSample, data, samples);
+	}
+	
 	/**
 	 * Send a sample to all listeners
 	 */
@@ -109,74 +253,58 @@ public class EDFClient {
 	}
 	
 	/**
-	 * EDFClientInputReader reads data from the input stream. 
-	 * The data is converted into a EDFSample and send to all listeners
+	 * EDFClientInputReader reads data from the channel. 
+	 * The data is decoded into blocks of samples which are send to all listeners
 	 */
-	private class EDFClientInputReader implements Runnable {
+	private class EDFClientInputReader implements Runnable, FrameHandler {
 		
 		// the number of channels in the stream
 		private int numChannels;
-		private int recordCounter = 0;
+		private long sampleCounter = 0;
+		
+		// the decoded values of a read, channel by channel
+		private int[] data = new int[0];
 		
 		public EDFClientInputReader(int numChannels) {
 			this.numChannels = numChannels;
 		}
 		
 		public void run() {
-			byte[] buffer = new byte[numChannels * 2];
-			int[] samples = new int[numChannels];
-			
-			int index = 0;
+			FrameReader reader = new FrameReader(channel, numChannels * 2);
 			
 			try {
-				while(connected) {
-					// get next byte
-					int b = input.read();
-					
-					// stop if end of stream
-					if(b == -1) {
-						connected = false;
-						continue;
-					}
-					
-					// store byte in buffer
-					buffer[index] = (byte) b;
-					
-					// update index
-					index++;
-					
-					// if buffer is not full, continue reading data
-					if(index < buffer.length) {
-						continue;
-					}
-								
-					// process data and send record
-					for(int i=0; i<numChannels; i++) {
-						int value = (buffer[i*2] & 0xFF) | ((buffer[i*2+1] & 0xFF) << 8);
-					
-						// TODO: is it signed?
-						if((value & 0x8000) != 0) {
-							value = ~(value ^ 0x7fff) + 0x8000;
-						}
-					
-						samples[i] = value;
-					}
-					
-					fireReceivedRecord(new EDFSample(recordCounter, samples));
-					recordCounter++;						
-					
-					// reset samples
-					samples = new int[numChannels];
-					
-					// reset index
-					index = 0;
-				}
+				while(connected && reader.read(this));
 			} catch(IOException e) {
-				
+				// closing the channel on disconnect interrupts the read
+				if(connected) {
+					e.printStackTrace();
+				}
 			}
 			
-			connected = false;
+			// the connection was not closed by disconnect
+			boolean lost = connected;
+			
+			close();
 			System.err.println("EDFClient disconnected.");
+			
+			if(lost) {
+				supervisor.connectionLost();
+			}
+		}
+		
+		public void receivedFrames(ByteBuffer frames, int count) {
+			if(data.length < count * numChannels) {
+				data = new int[count * numChannels];
+			}
+			
+			for(int s = 0, index = frames.position(); s < count; s++) {
+				for(int c = 0; c < numChannels; c++, index += 2) {
+					data[c * count + s] = frames.getShort(index);
+				}
+			}
+			
+			fireReceivedBlock(sampleCounter, data, count);
+			sampleCounter += count;
 		}
 	}
 
@@ -0,0 +1,17 @@
+package it.hakvoort.epoc;
+
+/**
+ * An <code>EpocBlockListener</code> receives blocks of samples for all channels at once.
+ * 
+ * The data is stored channel by channel: the value of channel c for sample s within the block is stored at 
+ * <code>data[c * samples + s]</code>. The data array is reused for following blocks, so it is only valid during the call
+ * and must be copied by listeners that want to keep it.
+ * 
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public interface EpocBlockListener {
+
+	public void receivedBlock(long firstSample, double[] data, int samples);
+	
+}
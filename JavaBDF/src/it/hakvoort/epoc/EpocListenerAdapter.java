@@ -0,0 +1,45 @@
+package it.hakvoort.epoc;
+
+import java.util.List;
+
+/**
+ * The <code>EpocListenerAdapter</code> converts blocks of samples into separate EpocSamples for EpocListeners.
+ * A new EpocSample is created for every sample, since listeners are allowed to keep the samples they receive.
+ * 
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class EpocListenerAdapter implements EpocBlockListener {
+
+	// the number of channels in a block
+	private int numChannels;
+	
+	// the listeners receiving the samples
+	private List<EpocListener> listeners;
+	
+	public EpocListenerAdapter(int numChannels, List<EpocListener> listeners) {
+		this.numChannels = numChannels;
+		this.listeners = listeners;
+	}
+	
+	@Override
+	public void receivedBlock(long firstSample, double[] data, int samples) {
+		if(listeners.isEmpty()) {
+			return;
+		}
+		
+		for(int s = 0; s < samples; s++) {
+			double[] values = new double[numChannels];
+			
+			for(int c = 0; c < numChannels; c++) {
+				values[c] = data[c * samples + s];
+			}
+			
+			EpocSample sample = new EpocSample((int) (firstSample + s), values);
+			
+			for(EpocListener listener : listeners) {
+				listener.receivedSample(sample);
+			}
+		}
+	}
+}
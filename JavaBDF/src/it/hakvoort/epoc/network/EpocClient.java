@@ -2,31 +2,40 @@ package it.hakvoort.epoc.network;
 
 import it.hakvoort.bdf.BDFSample;
 import it.hakvoort.bdf.BDFListener;
+import it.hakvoort.bdf.network.ConnectionSupervisor;
+import it.hakvoort.bdf.network.ConnectionSupervisor.Connector;
+import it.hakvoort.bdf.network.FrameReader;
+import it.hakvoort.bdf.network.FrameReader.FrameHandler;
+import it.hakvoort.bdf.network.GapListener;
+import it.hakvoort.epoc.EpocBlockListener;
 import it.hakvoort.epoc.EpocListener;
+import it.hakvoort.epoc.EpocListenerAdapter;
 import it.hakvoort.epoc.EpocSample;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
+ * The <code>EpocClient</code> receives samples of doubles from a TCP server.
+ * 
+ * The stream is read in large blocks by a FrameReader, all complete samples of a read are decoded at once and sent as a
+ * single block to the EpocBlockListeners. EpocListeners receive the same samples one by one.
+ * 
+ * A lost connection can be restored by the {@link ConnectionSupervisor} of the client. The number of samples missed while
+ * the connection was down is estimated from the sample rate and reported to the GapListeners before the following samples.
  * 
  * @author Gido Hakvoort (gido@hakvoort.it)
  *
  */
 public class EpocClient {
 	
-	// the client socket
-	private Socket socket;
-	
-	// the input stream
-	private InputStream input;
+	// the client channel
+	private SocketChannel channel;
 	
 	// the hostname or ip address of the server
 	private String HOST;
@@ -35,7 +44,22 @@ public class EpocClient {
 	private int PORT;
 	
 	// if the client is connected
-	private boolean connected = false;
+	private volatile boolean connected = false;
+
+	// the number of samples missed while the connection was down
+	private volatile long lostSamples = 0;
+	
+	// the number of samples per second, to estimate the samples missed while the connection was down
+	private int sampleRate = 128;
+	
+	// restores a lost connection
+	private ConnectionSupervisor supervisor = new ConnectionSupervisor(new Connector() {
+		
+		@Override
+		public boolean reconnect(long downtime) {
+			return open(downtime);
+		}
+	});
 
 	// the input reader
 	private EpocClientInputReader inputReader;
@@ -43,18 +67,36 @@ public class EpocClient {
 	// listeners waiting for records
 	protected List<EpocListener> listeners = new CopyOnWriteArrayList<EpocListener>();
 	
+	// listeners waiting for blocks of samples
+	protected List<EpocBlockListener> blockListeners = new CopyOnWriteArrayList<EpocBlockListener>();
+	
+	// listeners waiting for missing samples
+	protected List<GapListener> gapListeners = new CopyOnWriteArrayList<GapListener>();
+	
+	// converts blocks into samples for the sample listeners
+	private EpocListenerAdapter listenerAdapter;
+	
 	public EpocClient(String HOST, int PORT, int numChannels) {
 		this.HOST = HOST;
 		this.PORT = PORT;
 		
-		inputReader = new EpocClientInputReader(numChannels);
+		inputReader 	= new EpocClientInputReader(numChannels);
+		listenerAdapter = new EpocListenerAdapter(numChannels, listeners);
 	}
 	
 	public void connect() {
+		supervisor.start();
+		
+		if(!open(-1)) {
+			supervisor.connectionLost();
+		}
+	}
+	
+	// connects to the server and starts reading, the downtime is -1 for a new connection
+	private synchronized boolean open(long downtime) {
 		try {
-			socket = new Socket();
-			socket.connect(new InetSocketAddress(HOST, PORT), 5000);
-			input = socket.getInputStream();
+			channel = SocketChannel.open();
+			channel.socket().connect(new InetSocketAddress(HOST, PORT), 5000);
 
 			connected = true;
 		} catch (UnknownHostException e) {
@@ -63,12 +105,43 @@ public class EpocClient {
 			System.err.println(String.format("Could not connect to %s:%s", HOST, PORT));
 		}
 		
-		if(connected) {
-			new Thread(inputReader).start();
+		if(!connected) {
+			try {
+				if(channel != null) {
+					channel.close();
+				}
+			} catch (IOException e) {
+				System.err.println(String.format("Disconnect error"));
+			}
+			
+			return false;
+		}
+		
+		if(downtime < 0) {
+			lostSamples = 0;
+		} else if(inputReader.sampleCounter > 0 && sampleRate > 0) {
+			long missing = downtime * sampleRate / 1000;
+			
+			if(missing > 0) {
+				lostSamples += missing;
+				
+				fireReceivedGap(inputReader.sampleCounter, missing);
+				inputReader.sampleCounter += missing;
+			}
 		}
+		
+		new Thread(inputReader).start();
+		
+		return true;
 	}
 	
 	public void disconnect() {
+		supervisor.stop();
+		
+		close();
+	}
+	
+	private void close() {
 		if(!connected) {
 			return;
 		}
@@ -76,8 +149,7 @@ public class EpocClient {
 		connected = false;
 
 		try {
-			input.close();
-			socket.close();
+			channel.close();
 		} catch (IOException e) {
 			System.err.println(String.format("Disconnect error"));
 		}
@@ -87,6 +159,32 @@ public class EpocClient {
 		return this.connected;
 	}
 	
+	public int getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * Sets the sample rate of the stream, to estimate the number of samples missed while the connection was down.
+	 * The default is 128, the sample rate of the Epoc. 0 for an unknown sample rate, missed samples are not reported.
+	 */
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = Math.max(sampleRate, 0);
+	}
+	
+	/**
+	 * Returns the number of samples missed while the connection was down.
+	 */
+	public long getLostSamples() {
+		return lostSamples;
+	}
+	
+	/**
+	 * Returns the supervisor which restores a lost connection, disabled by default.
+	 */
+	public ConnectionSupervisor getSupervisor() {
+		return supervisor;
+	}
+	
 	public void addListener(EpocListener listener) {
 		listeners.add(listener);
 	}
@@ -103,6 +201,50 @@ public class EpocClient {
 		return listeners;
 	}
 	
+	public void addBlockListener(EpocBlockListener listener) {
+		blockListeners.add(listener);
+	}
+	
+	public void removeBlockListener(EpocBlockListener listener) {
+		blockListeners.remove(listener);
+	}
+	
+	public List<EpocBlockListener> getBlockListeners() {
+		return blockListeners;
+	}
+	
+	public void addGapListener(GapListener listener) {
+		gapListeners.add(listener);
+	}
+	
+	public void removeGapListener(GapListener listener) {
+		gapListeners.remove(listener);
+	}
+	
+	public List<GapListener> getGapListeners() {
+		return gapListeners;
+	}
+	
+	/**
+	 * Send missing samples to all gap listeners
+	 */
+	protected void fireReceivedGap(long firstSample, long samples) {
+		for(GapListener listener : gapListeners) {
+			listener.receivedGap(firstSample, samples);
+		}
+	}
+	
+	/**
+	 * Send a block of samples to all block listeners, and as separate samples to all listeners
+	 */
+	protected void fireReceivedBlock(long firstSample, double[] data, int samples) {
+		for(EpocBlockListener listener : blockListeners) {
+			listener.receivedBlock(firstSample, data, samples);
+		}
+		
+		listenerAdapter.receivedBlock(firstSample, data, samples);
+	}
+	
 	/**
 	 * Send a sample to all listeners
 	 */
@@ -113,57 +255,58 @@ public class EpocClient {
 	}
 	
 	/**
-	 * EpocClientInputReader reads data from the input stream. 
-	 * The data is converted into a EpocSample and send to all listeners
+	 * EpocClientInputReader reads data from the channel. 
+	 * The data is decoded into blocks of samples which are send to all listeners
 	 */
-	private class EpocClientInputReader implements Runnable {
+	private class EpocClientInputReader implements Runnable, FrameHandler {
 		
 		// the number of channels in the stream
 		private int numChannels;
-		private int recordCounter = 0;
+		private long sampleCounter = 0;
+		
+		// the decoded values of a read, channel by channel
+		private double[] data = new double[0];
 		
 		public EpocClientInputReader(int numChannels) {
 			this.numChannels = numChannels;
 		}
 		
 		public void run() {
-			byte[] buffer = new byte[numChannels * 8];
-
-			ByteBuffer bytes = ByteBuffer.wrap(buffer);
-			bytes.order(ByteOrder.LITTLE_ENDIAN);
-
-			double[] samples = new double[numChannels];
+			FrameReader reader = new FrameReader(channel, numChannels * 8);
 			
 			try {
-				while(connected) {
-					int toRead = buffer.length;
-					
-					// wait until buffer is full
-					while(toRead > 0)  {
-						toRead -= input.read(buffer, buffer.length - toRead, toRead);
-					}
-					
-					// rewind byte buffer
-					bytes.rewind();
-					
-					// get samples from byte buffer
-					for(int i=0; i<numChannels; i++) {
-						samples[i] = bytes.getDouble();
-					}
-					
-					// create and fire new sample
-					fireReceivedRecord(new EpocSample(recordCounter, samples));
-					recordCounter++;
-					
-					// reset samples
-					samples = new double[numChannels];
-				}
+				while(connected && reader.read(this));
 			} catch(IOException e) {
-				
+				// closing the channel on disconnect interrupts the read
+				if(connected) {
+					e.printStackTrace();
+				}
+			}
+			
+			// the connection was not closed by disconnect
+			boolean lost = connected;
+			
+			close();
+			System.err.println("EpocClient disconnected.");
+			
+			if(lost) {
+				supervisor.connectionLost();
+			}
+		}
+		
+		public void receivedFrames(ByteBuffer frames, int count) {
+			if(data.length < count * numChannels) {
+				data = new double[count * numChannels];
+			}
+			
+			for(int s = 0, index = frames.position(); s < count; s++) {
+				for(int c = 0; c < numChannels; c++, index += 8) {
+					data[c * count + s] = frames.getDouble(index);
+				}
 			}
 			
-			connected = false;
-			System.err.println("BDFClient disconnected.");
+			fireReceivedBlock(sampleCounter, data, count);
+			sampleCounter += count;
 		}
 	}
 
@@ -1,5 +1,6 @@
 package it.hakvoort.bdf2tcp;
 
+import it.hakvoort.bdf.BDFCodec;
 import it.hakvoort.bdf.BDFDataRecord;
 import it.hakvoort.bdf.BDFListener;
 
@@ -129,15 +130,7 @@ public class BDFNetworkClient {
 			try {
 				while(connected && input.read(buffer) != -1) {
 					
-					for(int i=0; i<numChannels; i++) {
-						int sample = (buffer[i*3] & 0xFF) | ((buffer[i*3+1] & 0xFF) << 8) | ((buffer[i*3+2] & 0xFF) << 16);
-						
-						if((sample & 0x800000) != 0) {
-							sample = ~(sample ^ 0x7fffff) + 0x800000;
-						}
-						
-						samples[i] = sample;
-					}
+					BDFCodec.decode(buffer, 0, samples, 0, numChannels);
 					
 					fireReceivedRecord(new BDFDataRecord(recordCounter, samples));
 					recordCounter++;						
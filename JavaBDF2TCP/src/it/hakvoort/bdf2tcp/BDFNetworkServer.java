@@ -1,5 +1,6 @@
 package it.hakvoort.bdf2tcp;
 
+import it.hakvoort.bdf.BDFCodec;
 import it.hakvoort.bdf.BDFDataRecord;
 import it.hakvoort.bdf.BDFListener;
 import it.hakvoort.bdf.BDFReader;
@@ -14,6 +15,8 @@ import java.net.Socket;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * The <code>BDFNetworkServer</code> sends the records of a BDFReader to all connected clients. The handlers of the
+ * connections are run by a {@link ConnectionExecutor}, which can also limit the number of connections.
  * 
  * @author Gido Hakvoort (gido@hakvoort.it)
  *
@@ -33,7 +36,7 @@ public class BDFNetworkServer implements Runnable {
 	private int PORT;
 	
 	// if the server is listening for new connections
-	private boolean listening = true;
+	private volatile boolean listening = true;
 	
 	// the number of connected clients
 	private AtomicInteger connectedClients = new AtomicInteger(0);
@@ -41,12 +44,27 @@ public class BDFNetworkServer implements Runnable {
 	// the server thread
 	private Thread serverThread;
 	
+	// runs the handlers of the connections
+	private ConnectionExecutor executor = new ConnectionExecutor();
+	
 	public BDFNetworkServer(BDFReader reader, int PORT) {
 		this.reader = reader;
 		
 		this.PORT = PORT;
 	}
 	
+	public ConnectionExecutor getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Sets the executor which runs the handlers of the connections, e.g. with a virtual thread for every connection:
+	 * <code>new ConnectionExecutor(ConnectionExecutor.newVirtualThreadExecutor())</code>. Should be set before the server is started.
+	 */
+	public void setExecutor(ConnectionExecutor executor) {
+		this.executor = executor;
+	}
+	
 	public synchronized void start() {
 		if(this.serverThread == null) {
 			this.serverThread = new Thread(this);
@@ -82,17 +100,26 @@ public class BDFNetworkServer implements Runnable {
 				
 				String name = String.format("BDFClient_%s", connectedClients);
 				
-				System.out.println(String.format("%s connected from '%s'.", name, socket.getInetAddress().getHostAddress()));
+				if(!executor.execute(name, handler)) {
+					reader.removeListener(handler);
+					
+					synchronized(connectedClients) {
+						connectedClients.decrementAndGet();
+					}
+					
+					System.err.println(String.format("%s refused, the maximum of %s connections is reached.", name, executor.getMaxConnections()));
+					continue;
+				}
 				
-				Thread handlerThread = new Thread(handler);
-				handlerThread.setName(name);
-				handlerThread.setDaemon(true);
-				handlerThread.start();
+				System.out.println(String.format("%s connected from '%s'.", name, socket.getInetAddress().getHostAddress()));
 			}
 			
 		} catch(IOException e) {
-			e.printStackTrace();
-			System.err.println(String.format("Could not bind socket to address %s:%s", HOST, PORT));
+			// closing the server socket on stop interrupts the accept
+			if(listening) {
+				e.printStackTrace();
+				System.err.println(String.format("Could not bind socket to address %s:%s", HOST, PORT));
+			}
 		}
 	}
 	
@@ -105,6 +132,17 @@ public class BDFNetworkServer implements Runnable {
 			System.err.println(String.format("Disconnect error"));
 		}
 		
+		// close the connections and wait for the handlers
+		executor.shutdown();
+		
+		if(serverThread != null && serverThread != Thread.currentThread()) {
+			try {
+				serverThread.join(executor.getShutdownTimeout());
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
 		if(reader.isRunning()) {
 			reader.stop();
 		}
@@ -118,7 +156,10 @@ public class BDFNetworkServer implements Runnable {
 	 * BDFClientHandler handles unique client connections. The handler receives BDFDataRecords from the BDFReader and 
 	 * convert these into bytes before sending them over the network, mimicing Biosemi's ActiView network connection.
 	 */
-	public class BDFClientHandler implements Runnable, BDFListener {
+	public class BDFClientHandler implements ConnectionExecutor.Connection, BDFListener {
+		
+		// the connection with the client
+		private Socket socket;
 		
 		// the input stream to keep the connection open
 		private InputStream in;
@@ -127,9 +168,11 @@ public class BDFNetworkServer implements Runnable {
 		private OutputStream out;
 		
 		// if the handler is connected
-		private boolean connected = true; 
+		private volatile boolean connected = true; 
 		
 		public BDFClientHandler(Socket socket) throws IOException {
+			this.socket = socket;
+			
 			in = socket.getInputStream();
 			out = socket.getOutputStream();
 		}
@@ -152,20 +195,25 @@ public class BDFNetworkServer implements Runnable {
 		
 		@Override
 		public void receivedRecord(BDFDataRecord record) {
-			byte[] data = new byte[record.channelCount * 3];
+			byte[] data = new byte[record.channelCount * BDFCodec.SAMPLE_SIZE];
 			
-			for(int i=0; i<record.channelCount; i++) {
-				int sample = record.samples[i];
-				
-				data[i*3 + 0] = (byte) (sample & 0xFF);
-				data[i*3 + 1] = (byte) ((sample >> 8) & 0xFF);
-				data[i*3 + 2] = (byte) ((sample >>> 16) & 0xFF);
-			}
+			BDFCodec.encode(record.samples, 0, data, 0, record.channelCount);
 			
 			try {
 				out.write(data);
 			} catch (IOException e) {
-				connected = false;
+				close();
+			}
+		}
+		
+		@Override
+		public void close() {
+			connected = false;
+			
+			try {
+				socket.close();
+			} catch (IOException e) {
+				System.err.println(String.format("Disconnect error"));
 			}
 		}
 	}
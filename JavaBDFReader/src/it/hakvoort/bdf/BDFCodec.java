@@ -0,0 +1,185 @@
+package it.hakvoort.bdf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The <code>BDFCodec</code> converts between 24 bit little endian samples, as used in BDF files and ActiView streams, and int values.
+ *
+ * The bulk methods convert 4 samples (12 bytes) at a time, reading and writing them as 3 little endian ints
+ * instead of 12 separate bytes.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class BDFCodec {
+
+	// the number of bytes of a single sample
+	public static final int SAMPLE_SIZE = 3;
+
+	/**
+	 * Decodes a single signed sample starting at offset.
+	 */
+	public static int decode(byte[] src, int offset) {
+		return ((src[offset] & 0xFF) | ((src[offset+1] & 0xFF) << 8) | (src[offset+2] << 16));
+	}
+
+	/**
+	 * Decodes a single unsigned sample starting at offset.
+	 */
+	public static int decodeUnsigned(byte[] src, int offset) {
+		return ((src[offset] & 0xFF) | ((src[offset+1] & 0xFF) << 8) | ((src[offset+2] & 0xFF) << 16));
+	}
+
+	/**
+	 * Encodes a single sample into dst, starting at offset.
+	 */
+	public static void encode(int value, byte[] dst, int offset) {
+		dst[offset] 	= (byte) value;
+		dst[offset+1] 	= (byte) (value >> 8);
+		dst[offset+2] 	= (byte) (value >> 16);
+	}
+
+	/**
+	 * Decodes n signed samples from src, starting at srcOffset, into dst starting at dstOffset.
+	 */
+	public static void decode(byte[] src, int srcOffset, int[] dst, int dstOffset, int n) {
+		decode(wrap(src), srcOffset, dst, dstOffset, n);
+	}
+
+	/**
+	 * Decodes n signed samples from src, starting at its position, into dst starting at dstOffset.
+	 * The position of src is moved past the decoded samples.
+	 */
+	public static void decode(ByteBuffer src, int[] dst, int dstOffset, int n) {
+		decode(src, src.position(), dst, dstOffset, n);
+		src.position(src.position() + n * SAMPLE_SIZE);
+	}
+
+	/**
+	 * Decodes n signed samples from src, starting at the absolute index, into dst starting at dstOffset.
+	 * The position of src is not changed.
+	 */
+	public static void decode(ByteBuffer src, int index, int[] dst, int dstOffset, int n) {
+		ByteBuffer buffer = littleEndian(src);
+
+		int i = 0;
+
+		// 4 samples are stored in 3 ints: [a a a b] [b b c c] [c d d d]
+		for(; i + 4 <= n; i += 4, index += 12) {
+			int w0 = buffer.getInt(index);
+			int w1 = buffer.getInt(index + 4);
+			int w2 = buffer.getInt(index + 8);
+
+			dst[dstOffset + i] 		= (w0 << 8) >> 8;
+			dst[dstOffset + i + 1] 	= (((w0 >>> 24) | (w1 << 8)) << 8) >> 8;
+			dst[dstOffset + i + 2] 	= (((w1 >>> 16) | (w2 << 16)) << 8) >> 8;
+			dst[dstOffset + i + 3] 	= w2 >> 8;
+		}
+
+		for(; i < n; i++, index += 3) {
+			dst[dstOffset + i] = ((buffer.get(index) & 0xFF) | ((buffer.get(index+1) & 0xFF) << 8) | (buffer.get(index+2) << 16));
+		}
+	}
+
+	/**
+	 * Decodes n unsigned samples from src, starting at srcOffset, into dst starting at dstOffset.
+	 */
+	public static void decodeUnsigned(byte[] src, int srcOffset, int[] dst, int dstOffset, int n) {
+		decode(src, srcOffset, dst, dstOffset, n);
+
+		for(int i = 0; i < n; i++) {
+			dst[dstOffset + i] &= 0xFFFFFF;
+		}
+	}
+
+	/**
+	 * Decodes n signed samples from src, starting at srcOffset, into dst starting at dstOffset.
+	 * Every value is scaled: dst = value * gain + offset, e.g. to convert digital values into physical values.
+	 */
+	public static void decode(byte[] src, int srcOffset, float[] dst, int dstOffset, int n, float gain, float offset) {
+		decode(wrap(src), srcOffset, dst, dstOffset, n, gain, offset);
+	}
+
+	/**
+	 * Decodes n signed samples from src, starting at the absolute index, into dst starting at dstOffset.
+	 * Every value is scaled: dst = value * gain + offset. The position of src is not changed.
+	 */
+	public static void decode(ByteBuffer src, int index, float[] dst, int dstOffset, int n, float gain, float offset) {
+		ByteBuffer buffer = littleEndian(src);
+
+		int i = 0;
+
+		for(; i + 4 <= n; i += 4, index += 12) {
+			int w0 = buffer.getInt(index);
+			int w1 = buffer.getInt(index + 4);
+			int w2 = buffer.getInt(index + 8);
+
+			dst[dstOffset + i] 		= ((w0 << 8) >> 8) * gain + offset;
+			dst[dstOffset + i + 1] 	= ((((w0 >>> 24) | (w1 << 8)) << 8) >> 8) * gain + offset;
+			dst[dstOffset + i + 2] 	= ((((w1 >>> 16) | (w2 << 16)) << 8) >> 8) * gain + offset;
+			dst[dstOffset + i + 3] 	= (w2 >> 8) * gain + offset;
+		}
+
+		for(; i < n; i++, index += 3) {
+			dst[dstOffset + i] = ((buffer.get(index) & 0xFF) | ((buffer.get(index+1) & 0xFF) << 8) | (buffer.get(index+2) << 16)) * gain + offset;
+		}
+	}
+
+	/**
+	 * Encodes n samples from src, starting at srcOffset, into dst starting at dstOffset.
+	 */
+	public static void encode(int[] src, int srcOffset, byte[] dst, int dstOffset, int n) {
+		encode(src, srcOffset, wrap(dst), dstOffset, n);
+	}
+
+	/**
+	 * Encodes n samples from src, starting at srcOffset, into dst starting at its position.
+	 * The position of dst is moved past the encoded samples.
+	 */
+	public static void encode(int[] src, int srcOffset, ByteBuffer dst, int n) {
+		encode(src, srcOffset, dst, dst.position(), n);
+		dst.position(dst.position() + n * SAMPLE_SIZE);
+	}
+
+	/**
+	 * Encodes n samples from src, starting at srcOffset, into dst starting at the absolute index.
+	 * The position of dst is not changed.
+	 */
+	public static void encode(int[] src, int srcOffset, ByteBuffer dst, int index, int n) {
+		ByteBuffer buffer = littleEndian(dst);
+
+		int i = 0;
+
+		for(; i + 4 <= n; i += 4, index += 12) {
+			int a = src[srcOffset + i];
+			int b = src[srcOffset + i + 1];
+			int c = src[srcOffset + i + 2];
+			int d = src[srcOffset + i + 3];
+
+			buffer.putInt(index, 		(a & 0xFFFFFF) | (b << 24));
+			buffer.putInt(index + 4, 	((b >>> 8) & 0xFFFF) | (c << 16));
+			buffer.putInt(index + 8, 	((c >>> 16) & 0xFF) | (d << 8));
+		}
+
+		for(; i < n; i++, index += 3) {
+			int value = src[srcOffset + i];
+
+			buffer.put(index, 		(byte) value);
+			buffer.put(index + 1, 	(byte) (value >> 8));
+			buffer.put(index + 2, 	(byte) (value >> 16));
+		}
+	}
+
+	private static ByteBuffer wrap(byte[] bytes) {
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static ByteBuffer littleEndian(ByteBuffer buffer) {
+		if(buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+			return buffer;
+		}
+
+		return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+}
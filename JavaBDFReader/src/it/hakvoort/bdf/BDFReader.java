@@ -1,12 +1,13 @@
 package it.hakvoort.bdf;
 
+import it.hakvoort.bdf.BDFRingBuffer.WaitStrategy;
+
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 
@@ -16,8 +17,13 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public class BDFReader {
 
 	private int THRESHOLD_MIN = 2;
+	
+	// the number of records which can be buffered
 	private int THRESHOLD_MAX = 4;
 	
+	// the way the file and data readers wait for each other
+	private WaitStrategy waitStrategy = WaitStrategy.PARK;
+	
 	private int frequency = -1;
 
 	// the number of samples per second
@@ -51,7 +57,7 @@ public class BDFReader {
 	private BDFHeader header;
 
 	// records read from the bdf file
-	private ConcurrentLinkedQueue<BDFDataRecord> records = new ConcurrentLinkedQueue<BDFDataRecord>();
+	private BDFRingBuffer records = null;
 	
 	public BDFReader(String location) {
 		this.file = location;
@@ -70,10 +76,18 @@ public class BDFReader {
 		this.frequency = frequency;
 	}
 	
+	/**
+	 * @deprecated	the fileReader continues as soon as a record is released, the minimum is no longer used.
+	 */
+	@Deprecated
 	public int getThresholdMin() {
 		return this.THRESHOLD_MIN;
 	}
 	
+	/**
+	 * @deprecated	the fileReader continues as soon as a record is released, the minimum is no longer used.
+	 */
+	@Deprecated
 	public void setThresholdMin(int minValue) {
 		this.THRESHOLD_MIN = minValue;
 	}
@@ -86,6 +100,26 @@ public class BDFReader {
 		this.THRESHOLD_MAX = maxValue;
 	}
 	
+	public WaitStrategy getWaitStrategy() {
+		return this.waitStrategy;
+	}
+	
+	/**
+	 * Sets the way the file and data readers wait for each other, should be set before the reader is started.
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+	
+	/**
+	 * Returns the buffer between the file and data readers, which can be used to monitor its occupancy and stalls.
+	 * 
+	 * @return	the buffer, or null if the reader was not started.
+	 */
+	public BDFRingBuffer getBuffer() {
+		return this.records;
+	}
+	
 	public boolean repeat() {
 		return this.repeat;
 	}
@@ -139,6 +173,9 @@ public class BDFReader {
 	 */
 	public void start() {
 		if(open) {
+			// every slot in the buffer contains a single record
+			records = new BDFRingBuffer(Math.max(THRESHOLD_MAX, 1), header.getNumChannels() * sampleRate, waitStrategy);
+			
 			fileReader.start();
 			dataReader.start();
 		} else {
@@ -154,7 +191,9 @@ public class BDFReader {
 	public void stop() {
 		running = false;
 		open = false;
-		records.clear();
+		
+		// the fileReader could be waiting for a free slot
+		fileReader.interrupt();
 		
 		try {
 			inputStream.close();
@@ -194,7 +233,7 @@ public class BDFReader {
 	
 	/**
 	 * BDFFileReader, reads data from the BDF file and stores it in a temporary buffer.
-	 * The buffer will be converted into multiple BDFSamples and all samples are placed in a Queue for further processing.
+	 * The buffer is decoded into a free slot of the ring buffer, which is published for further processing.
 	 */
 	private class BDFFileReader extends Thread {
 		
@@ -205,32 +244,40 @@ public class BDFReader {
 		}
 		
 		public void run() {
-			int[][] record = new int[header.getNumChannels()][];
+			int numChannels = header.getNumChannels();
+			
+			byte[] data = new byte[numChannels * sampleRate * 3];
 			
 			// get all records
 			while(open) {
 				try {
-					byte[] data = new byte[sampleRate * 3];
+					int offset = 0;
 					
-					for(int i = 0; i<header.getNumChannels(); i++) {
-						inputStream.read(data);
-						record[i] = parseChannel(data);
+					while(offset < data.length) {
+						int read = inputStream.read(data, offset, data.length - offset);
+						
+						if(read == -1) {
+							break;
+						}
+						
+						offset += read;
 					}
 					
-					// fill the queue with the data just read
-					for(int s = 0; s < sampleRate; s++) {
-						int[] samples = new int[header.getNumChannels()];
+					// a partial record at the end of the file is ignored
+					if(offset == data.length) {
+						int slot = records.claim();
 						
-						for(int c = 0; c < header.getNumChannels(); c++) {
-							samples[c] = record[c][s];
-						}
+						BDFCodec.decode(data, 0, records.getData(), records.offset(slot), numChannels * sampleRate);
 						
-						records.add(new BDFDataRecord(counter++, header.getNumChannels(), samples));
+						records.publish(counter, sampleRate);
+						
+						counter += sampleRate;
 					}
 
 					// check if the file is running out of data
-					if(inputStream.available() <= 0) {
+					if(inputStream.available() < data.length) {
 						if(repeat) {
+							inputStream.close();
 							inputStream = new FileInputStream(file);
 							inputStream.skip(header.getLength());
 							
@@ -242,74 +289,62 @@ public class BDFReader {
 						}
 					}
 					
-					if(records.size() >= THRESHOLD_MAX * sampleRate) {
-						synchronized(this) {
-							this.wait();
-						}
-					}
-					
 				} catch(IOException e) {
 					open = false;
 				} catch (InterruptedException e) {
-					e.printStackTrace();
+					if(open) {
+						e.printStackTrace();
+					}
 				}
 			}
 			
 			open = false;
-		}
-		
-		private int[] parseChannel(byte[] data) {		
-			ByteBuffer buffer = ByteBuffer.wrap(data);
-
-			int[] values = new int[data.length / 3];
-			
-			int counter = 0;
-			
-			byte[] sample = new byte[3];
-			
-			while(buffer.remaining() > 0) {
-				buffer.get(sample);
-				values[counter++] = parseSample(sample);
-			}
 			
-			return values;
-		}
-		
-		private int parseSample(byte[] bytes) {
-			int sample = (bytes[0] & 0xFF) | ((bytes[1] & 0xFF) << 8) | ((bytes[2] & 0xFF) << 16);
-			sample = ~(sample ^ 0x7fffff) + 0x800000;
-			return sample;
+			records.close();
 		}
 	}
 	
 	/**
-	 * BDFDataReader, fetches the first BDFRecord from the queue and sends it to all listeners.
+	 * BDFDataReader, fetches the first record from the ring buffer and sends its samples to all listeners.
 	 */
 	private class BDFDataReader extends Thread {
 
 		public void run() {
+			int numChannels = header.getNumChannels();
+			
 			while(open || !records.isEmpty()) {
-				
-				BDFDataRecord record = records.poll();
-				
-				if(record != null) {
-					fireReceivedSample(record);
-				}
-				
-				if(records.size() < THRESHOLD_MIN * sampleRate) {
-					synchronized(fileReader) {
-						fileReader.notify();
-					}
-				}
-				
 				try {
-					if(frequency == -1) {
-						sleep(Math.round(1000l / (double) sampleRate));
-					} else if(frequency > 0) {
-						sleep(Math.round(1000l / (double) frequency));
-					} else {
-						// full speed
+					// wait for the next record
+					int slot = records.take(100, TimeUnit.MILLISECONDS);
+					
+					if(slot == -1) {
+						continue;
+					}
+					
+					int[] data 		= records.getData();
+					int offset 		= records.offset(slot);
+					int number 		= (int) records.getFirstSample(slot);
+					int samples 	= records.getSamples(slot);
+					
+					for(int s = 0; s < samples; s++) {
+						int[] values = new int[numChannels];
+						
+						for(int c = 0; c < numChannels; c++) {
+							values[c] = data[offset + c * samples + s];
+						}
+						
+						fireReceivedSample(new BDFDataRecord(number + s, numChannels, values));
+						
+						if(frequency == -1) {
+							sleep(Math.round(1000l / (double) sampleRate));
+						} else if(frequency > 0) {
+							sleep(Math.round(1000l / (double) frequency));
+						} else {
+							// full speed
+						}
 					}
+					
+					records.release();
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
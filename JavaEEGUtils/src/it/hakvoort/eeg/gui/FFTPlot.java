@@ -1,7 +1,7 @@
 package it.hakvoort.eeg.gui;
 
 import it.hakvoort.eeg.util.FFTDataBuffer;
-import it.hakvoort.eeg.util.WindowedDataBuffer.Window;
+import it.hakvoort.eeg.util.WindowedDataBuffer.WindowFunction;
 
 import java.awt.GridLayout;
 
@@ -13,8 +13,6 @@ import JSci.swing.JHistogram;
 
 public class FFTPlot extends JFrame {
 	
-	private int intervalCounter = 0;
-	
 	private DefaultGraph2DModel model = new DefaultGraph2DModel();
 	private FFTDataSeries fftDataSeries;
 	
@@ -24,6 +22,9 @@ public class FFTPlot extends JFrame {
 	/// the FFT
 	private FFTDataBuffer buffer;
 	
+	// the values of the FFTDataSeries
+	private double[] values = new double[0];
+	
 	// the histogram
 	private JHistogram hist;
 	
@@ -31,6 +32,7 @@ public class FFTPlot extends JFrame {
 		super("FFT spectrum");
 		
 		buffer = new FFTDataBuffer(size, rate);
+		buffer.setHopSize(1);
 		
 		fftDataSeries = new FFTDataSeries();
 		
@@ -69,17 +71,19 @@ public class FFTPlot extends JFrame {
 	
 	public void setInterval(int interval) {
 		this.interval = interval;
+		
+		buffer.setHopSize(Math.max(interval, 1));
 	}
 	
 	public int getInterval() {
 		return this.interval;
 	}
 	
-	public void setWindow(Window window) {
+	public void setWindow(WindowFunction window) {
 		buffer.setWindow(window);
 	}
 	
-	public Window getWindow() {
+	public WindowFunction getWindow() {
 		return buffer.getWindow();
 	}
 	
@@ -124,27 +128,24 @@ public class FFTPlot extends JFrame {
 	}
 	
 	public void add(float value) {
-		buffer.add(value);
-		
-		intervalCounter++;
-		
-		if(intervalCounter >= interval) {
-			buffer.applyFFT();
+		// the buffer computes the fft every interval samples
+		if(buffer.add(value)) {
 			updateFFTDataSeries();
-			
-			intervalCounter = 0;
 		}
 	}
 		
 	private void updateFFTDataSeries() {
 		int binCount = buffer.getBinCount();
 		
+		if(values.length != binCount + 1) {
+			values = new double[binCount + 1];
+		}
+		
 		// shift the array by 1
-		double[] y2 = new double[binCount + 1];
-		System.arraycopy(buffer.getBins(), 0, y2, 1, binCount);
+		System.arraycopy(buffer.getBins(), 0, values, 1, binCount);
 		
-		// update the FFTDataSeries
-		fftDataSeries.setValues(y2);
+		// update the FFTDataSeries, which copies the values
+		fftDataSeries.setValues(values);
 	}
 	
 	public class FFTDataSeries extends DefaultGraph2DModel.DataSeries {
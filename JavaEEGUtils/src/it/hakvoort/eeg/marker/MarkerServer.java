@@ -10,6 +10,8 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * The <code>MarkerServer</code> receives markers from all connected clients and sends them to its listeners. The handlers
+ * of the connections are run by a {@link ConnectionExecutor}, which can also limit the number of connections.
  * 
  * @author Gido Hakvoort (gido@hakvoort.it)
  *
@@ -23,13 +25,16 @@ public class MarkerServer implements Runnable {
 	private int PORT;
 	
 	// if the server is listening for new connections
-	private boolean listening = false;
+	private volatile boolean listening = false;
 	
 	// the number of connected clients
 	private AtomicInteger connectedClients = new AtomicInteger(0);
 	
 	// the server thread
 	private Thread serverThread;
+	
+	// runs the handlers of the connections
+	private ConnectionExecutor executor = new ConnectionExecutor();
 
 	// listeners waiting for markers
 	protected List<MarkerListener> listeners = new CopyOnWriteArrayList<MarkerListener>();
@@ -38,6 +43,18 @@ public class MarkerServer implements Runnable {
 		this.PORT = PORT;
 	}
 	
+	public ConnectionExecutor getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Sets the executor which runs the handlers of the connections, e.g. with a virtual thread for every connection:
+	 * <code>new ConnectionExecutor(ConnectionExecutor.newVirtualThreadExecutor())</code>. Should be set before the server is started.
+	 */
+	public void setExecutor(ConnectionExecutor executor) {
+		this.executor = executor;
+	}
+	
 	public synchronized void start() {
 		listening = true;
 		
@@ -54,7 +71,18 @@ public class MarkerServer implements Runnable {
 			serverSocket.close();
 		} catch (IOException e) {
 			System.err.println(String.format("Disconnect error"));
-		}		
+		}
+		
+		// close the connections and wait for the handlers
+		executor.shutdown();
+		
+		if(serverThread != null && serverThread != Thread.currentThread()) {
+			try {
+				serverThread.join(executor.getShutdownTimeout());
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 	}
 
 	public int getConnectedClients() {
@@ -100,23 +128,32 @@ public class MarkerServer implements Runnable {
 					connectedClients.incrementAndGet();
 				}
 				
-				Thread handlerThread = new Thread(handler);
-				handlerThread.setDaemon(true);
-				handlerThread.start();
+				if(!executor.execute(String.format("MarkerClient_%s", connectedClients), handler)) {
+					synchronized(connectedClients) {
+						connectedClients.decrementAndGet();
+					}
+					
+					System.err.println(String.format("Marker client refused, the maximum of %s connections is reached.", executor.getMaxConnections()));
+				}
 			}
 			
 		} catch(IOException e) {}
 	}
 	
-	public class MarkerClientHandler implements Runnable {
+	public class MarkerClientHandler implements ConnectionExecutor.Connection {
+		
+		// the connection with the client
+		private Socket socket;
 		
 		// the input stream to receive markers
 		private DataInputStream in;
 		
 		// if the handler is connected
-		private boolean connected = true; 
+		private volatile boolean connected = true; 
 		
 		public MarkerClientHandler(Socket socket) throws IOException {
+			this.socket = socket;
+			
 			in = new DataInputStream(socket.getInputStream());
 		}
 		
@@ -136,5 +173,16 @@ public class MarkerServer implements Runnable {
 				connectedClients.decrementAndGet();
 			}
 		}
+		
+		@Override
+		public void close() {
+			connected = false;
+			
+			try {
+				socket.close();
+			} catch (IOException e) {
+				System.err.println(String.format("Disconnect error"));
+			}
+		}
 	}
 }
@@ -50,9 +50,15 @@ public abstract class DataBuffer {
 		}
 		
 		public void getData(float[] target) {
-			for(int i=0; i<capacity; i++) {
-				target[i] = data[((index%size) + i) % capacity];
+			if(size <= 0) {
+				return;
 			}
+			
+			// until the buffer is full the oldest sample is the first
+			int start = size < capacity ? 0 : index;
+			
+			System.arraycopy(data, start, target, 0, capacity - start);
+			System.arraycopy(data, 0, target, capacity - start, start);
 		}		
 	}
 	
@@ -80,9 +86,11 @@ public abstract class DataBuffer {
 				return;
 			}
 			
-			for(int i=0; i<capacity; i++) {
-				target[i] = data[((index%size) + i) % capacity];
-			}
+			// until the buffer is full the oldest sample is the first
+			int start = size < capacity ? 0 : index;
+			
+			System.arraycopy(data, start, target, 0, capacity - start);
+			System.arraycopy(data, 0, target, capacity - start, start);
 		}
 	}
 }
@@ -1,13 +1,32 @@
 package it.hakvoort.eeg.util;
 
 import it.hakvoort.eeg.util.WindowedDataBuffer.Window;
+import it.hakvoort.eeg.util.WindowedDataBuffer.WindowFunction;
+
+import java.util.Arrays;
+
 import edu.emory.mathcs.jtransforms.fft.FloatFFT_1D;
 
+/**
+ * The <code>FFTDataBuffer</code> computes the short-time Fourier transform (STFT) of incomming samples.
+ *
+ * Each frame is the FFT of the last samples, as many as the size of the buffer. A frame is computed when
+ * {@link #applyFFT()} is called, or automatically every hop size samples; successive frames overlap by the size minus the
+ * hop size, e.g. a 1024 point FFT with a hop size of 256 overlaps 75%. The coefficients of the window are computed once
+ * when the window is set and the bins are reused, so computing a frame does not allocate. To follow a few frequencies
+ * with every sample, a {@link SlidingDFT} is cheaper.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
 public class FFTDataBuffer {
 	
 	// use this window
-	private Window window = Window.HANN;
-		
+	private WindowFunction window = Window.HANN;
+	
+	// the coefficients of the window
+	private float[] coefficients;
+	
 	// the size of the buffer and fft
 	private int size;
 	
@@ -23,7 +42,7 @@ public class FFTDataBuffer {
 	
 	// WindowedDataBuffer contains incomming samples and handles windowing
 	private WindowedDataBuffer.Float buffer;
-
+	
 	// the FFT
 	private FloatFFT_1D fft;
 	
@@ -36,6 +55,15 @@ public class FFTDataBuffer {
 	// average magnitude of frequencies in bins
 	private double averageMagnitude = 0d;
 	
+	// compute the fft every number of added samples, 0 to compute it only when applyFFT is called
+	private int hopSize = 0;
+	
+	// the number of samples added since the last fft
+	private int hopCounter = 0;
+	
+	// the number of computed ffts
+	private long frameCount = 0;
+	
 	public FFTDataBuffer(int size, int rate) {
 		this.size = size;
 		this.rate = rate;
@@ -47,7 +75,9 @@ public class FFTDataBuffer {
 		
 		buffer = new WindowedDataBuffer.Float(size);
 		fft = new FloatFFT_1D(size);
-
+		
+		coefficients = WindowedDataBuffer.getCoefficients(window, size);
+		
 		target = new float[size];
 		bins = new double[getBinCount()];
 	}
@@ -60,14 +90,49 @@ public class FFTDataBuffer {
 		return buffer.getGain();
 	}
 	
-	public void setWindow(Window window) {
-		this.window = window;
+	public void setWindow(WindowFunction window) {
+		if(!window.equals(this.window)) {
+			this.coefficients = WindowedDataBuffer.getCoefficients(window, size);
+			this.window = window;
+		}
 	}
 	
-	public Window getWindow() {
+	public WindowFunction getWindow() {
 		return this.window;
 	}
 	
+	/**
+	 * Sets the number of added samples after which the FFT is computed, 0 (default) to compute it only when
+	 * {@link #applyFFT()} is called.
+	 */
+	public void setHopSize(int hopSize) {
+		this.hopSize = Math.max(hopSize, 0);
+	}
+	
+	public int getHopSize() {
+		return this.hopSize;
+	}
+	
+	/**
+	 * Sets the hop size from the overlap of successive frames, from 0 (no overlap) up to 1 (a frame for every sample).
+	 */
+	public void setOverlap(double overlap) {
+		overlap = Math.min(Math.max(overlap, 0), 1);
+		
+		setHopSize(Math.max((int) Math.round(size * (1 - overlap)), 1));
+	}
+	
+	public double getOverlap() {
+		return hopSize > 0 ? Math.max(1 - hopSize / (double) size, 0) : 0;
+	}
+	
+	/**
+	 * Returns the number of frames computed so far.
+	 */
+	public long getFrameCount() {
+		return this.frameCount;
+	}
+	
 	public void setFrequencyRange(int min, int max) {
 		this.setHighpass(min);
 		this.setLowpass(max);
@@ -97,6 +162,9 @@ public class FFTDataBuffer {
 		return (int) ((lowpass - highpass) / resolution + 1);
 	}
 	
+	/**
+	 * Returns the bins of the last frame. The array is reused by the next frame, unless the frequency range has changed.
+	 */
 	public double[] getBins() {
 		return this.bins;
 	}
@@ -109,49 +177,72 @@ public class FFTDataBuffer {
 		if (frequency < highpass || frequency > lowpass) {
 			return 0d;
 		}
-
+		
 		if(frequency % resolution != 0) {
 			double offset = frequency % resolution;
-
+			
 			double value1 = bins[(int) (((frequency - offset) - highpass) / resolution)];
 			double value2 = bins[(int) (((frequency - offset + resolution) - highpass) / resolution)];
-
+			
 			double scale1 = 1 - offset / resolution;
 			double scale2 = offset / resolution;
-
+			
 			return (scale1 * value1) + (scale2 * value2);
 		}
-
+		
 		return bins[(int) ((frequency - highpass) / resolution)];
 	}
 	
-	public void add(float value) {
+	/**
+	 * Adds a sample, and computes the FFT when the hop size is reached.
+	 *
+	 * @return	true if a new frame is computed.
+	 */
+	public boolean add(float value) {
 		buffer.add(value);
+		
+		if(hopSize > 0 && ++hopCounter >= hopSize) {
+			applyFFT();
+			return true;
+		}
+		
+		return false;
 	}
 	
 	public void applyFFT() {
 		int binCount = getBinCount();
 		double totalMagnitude = 0;
 		
-		bins = new double[binCount];
+		// reuse the bins, unless the frequency range has changed
+		if(bins.length != binCount) {
+			bins = new double[binCount];
+		}
 		
-		// get data from buffer
-		buffer.getData(target, window);
+		// get data from buffer, with the coefficients of the window
+		buffer.getData(target, coefficients);
 		
 		// perform fft
 		fft.realForward(target);
 		
+		double scale = 1d / (size / 2);
+		int i = 0;
+		
 		// get the values between the highpass and lowpass frequencies
-		for(double f = highpass, i = 0; f < lowpass; f += resolution, i++) {
+		for(double f = highpass; f < lowpass && i < binCount; f += resolution, i++) {
 			int index = (int) ((f / resolution)) * 2;
 			
 			// magnitude of frequency
-			bins[(int) i] = Math.sqrt(target[index]*target[index] + target[index+1]*target[index+1]) / (size / 2);
-
-			totalMagnitude += bins[(int) i];
+			bins[i] = Math.sqrt(target[index]*target[index] + target[index+1]*target[index+1]) * scale;
+			
+			totalMagnitude += bins[i];
 		}
 		
+		Arrays.fill(bins, i, binCount, 0d);
+		
 		// update average magnitude
 		averageMagnitude = totalMagnitude / ((double) binCount);
+		
+		hopCounter = 0;
+		frameCount++;
 	}
 }
@@ -0,0 +1,266 @@
+package it.hakvoort.eeg.util;
+
+import it.hakvoort.eeg.util.WindowedDataBuffer.Window;
+
+import java.util.Arrays;
+
+/**
+ * The <code>SlidingDFT</code> follows the magnitudes of a few frequencies of incomming samples, updated with every sample.
+ *
+ * Each frequency is tracked in the bin of a DFT of the given size, which slides one sample at a time: the new sample is
+ * added, the sample leaving the window is removed and the bin is rotated, which costs a few multiplications per bin
+ * instead of a FFT of the whole window. The windows are applied in the frequency domain, as a sum of neighbouring bins,
+ * which is exact for the periodic form of the windows; the magnitudes are scaled like the bins of the FFTDataBuffer.
+ * Rounding errors of the updates are removed by computing the bins again, from all samples, once every
+ * {@link #RESYNC} windows.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class SlidingDFT {
+	
+	// compute the bins again after this number of windows
+	public static final int RESYNC = 16;
+	
+	// use this window
+	private Window window = Window.HANN;
+	
+	// the size of the dft
+	private int size;
+	
+	// the sample rate of the incomming samples
+	private int rate;
+	
+	// the last samples, the oldest at index
+	private double[] samples;
+	private int index = 0;
+	
+	// the number of samples until the bins are computed again
+	private int resyncCounter;
+	
+	// the bins of each tracked frequency
+	private int[] frequencyBins;
+	
+	// the bins which are updated, the frequency bins and their neighbours used by the window
+	private int[] bins = new int[0];
+	
+	// the real and imaginary parts of the updated bins
+	private double[] real = new double[0];
+	private double[] imag = new double[0];
+	
+	// the rotation of each updated bin for one sample
+	private double[] cos = new double[0];
+	private double[] sin = new double[0];
+	
+	// for each tracked frequency, the index in bins of the frequency bin and of its neighbours
+	private int[][] terms;
+	
+	// the coefficients of the window as a sum of cosines
+	private double[] windowTerms;
+	
+	public SlidingDFT(int size, int rate, double... frequencies) {
+		if(size < 1 || frequencies.length == 0) {
+			throw new IllegalArgumentException(String.format("Invalid size %s or number of frequencies %s", size, frequencies.length));
+		}
+		
+		this.size = size;
+		this.rate = rate;
+		
+		this.samples = new double[size];
+		this.resyncCounter = RESYNC * size;
+		
+		frequencyBins = new int[frequencies.length];
+		
+		for(int i=0; i<frequencies.length; i++) {
+			frequencyBins[i] = ((int) Math.round(frequencies[i] * size / rate) % size + size) % size;
+		}
+		
+		init();
+	}
+	
+	public void setWindow(Window window) {
+		if(window != this.window) {
+			this.window = window;
+			
+			init();
+		}
+	}
+	
+	public Window getWindow() {
+		return this.window;
+	}
+	
+	public int getSize() {
+		return this.size;
+	}
+	
+	public double getFrequencyResolution() {
+		return ((double) rate) / ((double) size);
+	}
+	
+	/**
+	 * Returns the number of tracked frequencies.
+	 */
+	public int getFrequencyCount() {
+		return frequencyBins.length;
+	}
+	
+	/**
+	 * Returns the tracked frequency, rounded to the frequency of its bin.
+	 */
+	public double getFrequency(int i) {
+		return frequencyBins[i] * getFrequencyResolution();
+	}
+	
+	public void add(float value) {
+		double delta = value - samples[index];
+		
+		samples[index] = value;
+		index = (index + 1) % size;
+		
+		for(int b=0; b<bins.length; b++) {
+			double re = real[b] + delta;
+			double im = imag[b];
+			
+			real[b] = re * cos[b] - im * sin[b];
+			imag[b] = re * sin[b] + im * cos[b];
+		}
+		
+		if(--resyncCounter == 0) {
+			resync();
+		}
+	}
+	
+	public void add(float[] values, int offset, int length) {
+		for(int i=offset; i<offset + length; i++) {
+			add(values[i]);
+		}
+	}
+	
+	/**
+	 * Returns the magnitude of the i-th tracked frequency over the last samples.
+	 */
+	public double getMagnitude(int i) {
+		int[] term = terms[i];
+		
+		double re = windowTerms[0] * real[term[0]];
+		double im = windowTerms[0] * imag[term[0]];
+		
+		// the window multiplies the samples by cosines, which adds the neighbouring bins
+		for(int j=1; j<windowTerms.length; j++) {
+			double scale = (j % 2 == 0 ? 0.5 : -0.5) * windowTerms[j];
+			
+			re += scale * (real[term[2 * j - 1]] + real[term[2 * j]]);
+			im += scale * (imag[term[2 * j - 1]] + imag[term[2 * j]]);
+		}
+		
+		return Math.sqrt(re * re + im * im) / (size / 2);
+	}
+	
+	/**
+	 * Puts the magnitudes of all tracked frequencies in target.
+	 */
+	public void getMagnitudes(double[] target) {
+		for(int i=0; i<frequencyBins.length; i++) {
+			target[i] = getMagnitude(i);
+		}
+	}
+	
+	/**
+	 * Removes all samples.
+	 */
+	public void reset() {
+		Arrays.fill(samples, 0);
+		Arrays.fill(real, 0);
+		Arrays.fill(imag, 0);
+		
+		index = 0;
+		resyncCounter = RESYNC * size;
+	}
+	
+	// select the bins for the frequencies and the window
+	private void init() {
+		windowTerms = getWindowTerms(window);
+		
+		int span = windowTerms.length - 1;
+		
+		int[] selected = new int[frequencyBins.length * (2 * span + 1)];
+		int count = 0;
+		
+		terms = new int[frequencyBins.length][2 * span + 1];
+		
+		for(int i=0; i<frequencyBins.length; i++) {
+			for(int j=0; j<=2 * span; j++) {
+				// the bin itself, followed by the pairs of neighbours at distance 1 to span
+				int offset = j == 0 ? 0 : (j % 2 == 1 ? -(j + 1) / 2 : j / 2);
+				int bin = ((frequencyBins[i] + offset) % size + size) % size;
+				
+				int position = 0;
+				
+				while(position < count && selected[position] != bin) {
+					position++;
+				}
+				
+				if(position == count) {
+					selected[count++] = bin;
+				}
+				
+				terms[i][j] = position;
+			}
+		}
+		
+		bins = Arrays.copyOf(selected, count);
+		
+		real = new double[count];
+		imag = new double[count];
+		cos = new double[count];
+		sin = new double[count];
+		
+		for(int b=0; b<count; b++) {
+			cos[b] = Math.cos(2 * Math.PI * bins[b] / size);
+			sin[b] = Math.sin(2 * Math.PI * bins[b] / size);
+		}
+		
+		resync();
+	}
+	
+	// compute the bins from all samples, oldest first
+	private void resync() {
+		for(int b=0; b<bins.length; b++) {
+			double re = 0;
+			double im = 0;
+			
+			for(int n=0; n<size; n++) {
+				// the angle of sample n, reduced to one turn to keep its precision
+				double angle = 2 * Math.PI * (((long) bins[b] * n) % size) / size;
+				double value = samples[(index + n) % size];
+				
+				re += value * Math.cos(angle);
+				im -= value * Math.sin(angle);
+			}
+			
+			real[b] = re;
+			imag[b] = im;
+		}
+		
+		resyncCounter = RESYNC * size;
+	}
+	
+	// the coefficients a0, a1, ... of a window w(n) = a0 - a1 cos(2 pi n / N) + a2 cos(4 pi n / N) - ...
+	private static double[] getWindowTerms(Window window) {
+		switch(window) {
+			case HANN:
+				return new double[] {0.5, 0.5};
+			case HAMMING:
+				return new double[] {0.54, 0.46};
+			case BLACKMAN:
+				return new double[] {(1 - WindowedDataBuffer.BLACKMAN_ALPHA) / 2, 0.5, WindowedDataBuffer.BLACKMAN_ALPHA / 2};
+			case BLACKMAN_HARRIS:
+				return new double[] {0.35875, 0.48829, 0.14128, 0.01168};
+			case FLAT_TOP:
+				return new double[] {0.21557895, 0.41663158, 0.277263158, 0.083578947, 0.006947368};
+			default:
+				return new double[] {1};
+		}
+	}
+}
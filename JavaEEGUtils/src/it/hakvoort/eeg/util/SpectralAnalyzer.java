@@ -0,0 +1,509 @@
+package it.hakvoort.eeg.util;
+
+import it.hakvoort.eeg.util.WindowedDataBuffer.Window;
+import it.hakvoort.eeg.util.WindowedDataBuffer.WindowFunction;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_1D;
+
+/**
+ * The <code>SpectralAnalyzer</code> computes the spectra of all channels of incomming blocks of samples.
+ *
+ * The samples are kept per channel in a ring of the size of the FFT. Every hop size samples the last samples of all
+ * channels are copied, and the FFTs of the channels are divided over the threads of an ExecutorService; by default a pool
+ * shared by all analyzers, with a thread for every processor. Each thread keeps its own FFT plan, and the thread adding the
+ * samples never waits for the FFTs: when the previous frame is not finished yet, the frame is skipped.
+ *
+ * The spectra are double buffered. While the threads compute a frame in one spectrum, the other holds the last finished
+ * frame, which readers can acquire without locking. A spectrum which is still acquired is not overwritten, the frame is
+ * skipped instead. Finished spectra are also sent to the SpectrumListeners.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class SpectralAnalyzer {
+	
+	// the pool shared by all analyzers
+	private static ExecutorService sharedPool;
+	
+	// use this window
+	private WindowFunction window = Window.HANN;
+	
+	// the coefficients of the window
+	private float[] coefficients;
+	
+	// the number of channels
+	private final int numChannels;
+	
+	// the size of the rings and ffts
+	private final int size;
+	
+	// the sample rate of the incomming samples
+	private final int rate;
+	
+	// the last samples of each channel, the oldest at index once the rings are full
+	private final float[][] data;
+	private int index = 0;
+	
+	// the number of added samples
+	private long sampleCount = 0;
+	
+	// compute the spectra every number of added samples
+	private int hopSize;
+	
+	// the number of samples added since the last frame
+	private int hopCounter = 0;
+	
+	// the samples of the frame which is computed, the ffts are done in place
+	private final float[][] frame;
+	
+	// true if no frame is computed
+	private final AtomicBoolean idle = new AtomicBoolean(true);
+	
+	// the number of tasks of the frame which are not finished
+	private final AtomicInteger remaining = new AtomicInteger();
+	
+	// the two spectra, and the last finished one
+	private final Spectrum[] spectra = new Spectrum[2];
+	private volatile Spectrum latest = null;
+	
+	// the number of frames started and skipped
+	private long frameCount = 0;
+	private volatile long skippedFrames = 0;
+	
+	// the threads which compute the ffts, null to compute them in the thread which adds the samples
+	private final ExecutorService executor;
+	
+	// the number of tasks of a frame
+	private final int tasks;
+	
+	// the fft plan of each thread
+	private final ThreadLocal<FloatFFT_1D> plans = new ThreadLocal<FloatFFT_1D>() {
+		
+		@Override
+		protected FloatFFT_1D initialValue() {
+			return new FloatFFT_1D(size);
+		}
+	};
+	
+	// the listeners for finished spectra
+	private List<SpectrumListener> listeners = new CopyOnWriteArrayList<SpectrumListener>();
+	
+	/**
+	 * Creates an analyzer which computes the spectra on the shared pool.
+	 */
+	public SpectralAnalyzer(int numChannels, int size, int rate) {
+		this(numChannels, size, rate, getSharedPool(), Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates an analyzer which divides the channels of a frame in at most the given number of tasks for the executor, or
+	 * computes all channels in the thread which adds the samples if the executor is null.
+	 */
+	public SpectralAnalyzer(int numChannels, int size, int rate, ExecutorService executor, int parallelism) {
+		if(numChannels < 1 || size < 2) {
+			throw new IllegalArgumentException(String.format("Invalid number of channels %s or size %s", numChannels, size));
+		}
+		
+		this.numChannels 	= numChannels;
+		this.size 			= size;
+		this.rate 			= rate;
+		this.hopSize 		= size;
+		
+		this.executor 	= executor;
+		this.tasks 		= executor == null ? 1 : Math.min(Math.max(parallelism, 1), numChannels);
+		
+		data 	= new float[numChannels][size];
+		frame 	= new float[numChannels][size];
+		
+		spectra[0] = new Spectrum(numChannels, size / 2 + 1, rate / (double) size);
+		spectra[1] = new Spectrum(numChannels, size / 2 + 1, rate / (double) size);
+		
+		coefficients = WindowedDataBuffer.getCoefficients(window, size);
+	}
+	
+	public int getNumChannels() {
+		return numChannels;
+	}
+	
+	public int getSize() {
+		return size;
+	}
+	
+	public int getRate() {
+		return rate;
+	}
+	
+	public double getFrequencyResolution() {
+		return rate / (double) size;
+	}
+	
+	public void setWindow(WindowFunction window) {
+		if(!window.equals(this.window)) {
+			this.coefficients = WindowedDataBuffer.getCoefficients(window, size);
+			this.window = window;
+		}
+	}
+	
+	public WindowFunction getWindow() {
+		return this.window;
+	}
+	
+	/**
+	 * Sets the number of added samples after which the spectra are computed, by default the size of the FFT.
+	 */
+	public void setHopSize(int hopSize) {
+		this.hopSize = Math.max(hopSize, 1);
+	}
+	
+	public int getHopSize() {
+		return this.hopSize;
+	}
+	
+	/**
+	 * Sets the hop size from the overlap of successive frames, from 0 (no overlap) up to 1 (a frame for every sample).
+	 */
+	public void setOverlap(double overlap) {
+		overlap = Math.min(Math.max(overlap, 0), 1);
+		
+		setHopSize((int) Math.round(size * (1 - overlap)));
+	}
+	
+	public double getOverlap() {
+		return Math.max(1 - hopSize / (double) size, 0);
+	}
+	
+	/**
+	 * Returns the number of frames which were skipped, because the previous frame was not finished or its spectrum was
+	 * still acquired.
+	 */
+	public long getSkippedFrames() {
+		return skippedFrames;
+	}
+	
+	/**
+	 * Adds a block of samples, stored channel by channel like the blocks of a BDFBlockListener: the value of channel c for
+	 * sample s is stored at <code>data[c * samples + s]</code>.
+	 */
+	public void add(float[] block, int samples) {
+		for(int offset = 0; offset < samples;) {
+			int count = Math.min(samples - offset, Math.min(Math.max(hopSize - hopCounter, 1), size - index));
+			
+			for(int c=0; c<numChannels; c++) {
+				System.arraycopy(block, c * samples + offset, data[c], index, count);
+			}
+			
+			advance(count);
+			offset += count;
+		}
+	}
+	
+	/**
+	 * Adds a block of samples, stored channel by channel like the blocks of a BDFBlockListener.
+	 */
+	public void add(int[] block, int samples) {
+		for(int offset = 0; offset < samples;) {
+			int count = Math.min(samples - offset, Math.min(Math.max(hopSize - hopCounter, 1), size - index));
+			
+			for(int c=0; c<numChannels; c++) {
+				float[] channel = data[c];
+				
+				for(int i=0, j=c * samples + offset; i<count; i++, j++) {
+					channel[index + i] = block[j];
+				}
+			}
+			
+			advance(count);
+			offset += count;
+		}
+	}
+	
+	/**
+	 * Adds one sample of all channels.
+	 */
+	public void add(float[] sample) {
+		for(int c=0; c<numChannels; c++) {
+			data[c][index] = sample[c];
+		}
+		
+		advance(1);
+	}
+	
+	// move the rings forward and compute the spectra when the hop size is reached
+	private void advance(int count) {
+		index = (index + count) % size;
+		sampleCount += count;
+		hopCounter += count;
+		
+		if(hopCounter >= hopSize) {
+			hopCounter = 0;
+			analyze();
+		}
+	}
+	
+	/**
+	 * Starts computing the spectra of the last samples, unless the previous frame is not finished yet.
+	 *
+	 * @return	true if the frame is started.
+	 */
+	public boolean analyze() {
+		if(!idle.compareAndSet(true, false)) {
+			skippedFrames++;
+			return false;
+		}
+		
+		final Spectrum spectrum = latest == spectra[0] ? spectra[1] : spectra[0];
+		
+		// readers which acquire the spectrum from now on see that it is not the latest, and let go of it
+		if(spectrum.readers.get() > 0) {
+			idle.set(true);
+			skippedFrames++;
+			return false;
+		}
+		
+		// copy the rings, oldest sample first
+		int start = sampleCount < size ? 0 : index;
+		
+		for(int c=0; c<numChannels; c++) {
+			System.arraycopy(data[c], start, frame[c], 0, size - start);
+			System.arraycopy(data[c], 0, frame[c], size - start, start);
+		}
+		
+		spectrum.frame 	= frameCount++;
+		spectrum.sample = sampleCount;
+		
+		remaining.set(tasks);
+		
+		for(int t=0; t<tasks; t++) {
+			final int task = t;
+			
+			Runnable runnable = new Runnable() {
+				
+				@Override
+				public void run() {
+					compute(spectrum, task);
+				}
+			};
+			
+			if(executor == null) {
+				runnable.run();
+				continue;
+			}
+			
+			try {
+				executor.execute(runnable);
+			} catch(RejectedExecutionException e) {
+				runnable.run();
+			}
+		}
+		
+		return true;
+	}
+	
+	// compute the spectra of the channels of a task
+	private void compute(Spectrum spectrum, int task) {
+		FloatFFT_1D fft = plans.get();
+		float[] coefficients = this.coefficients;
+		
+		double scale = 1d / (size / 2);
+		int binCount = spectrum.binCount;
+		
+		for(int c=task; c<numChannels; c+=tasks) {
+			float[] target = frame[c];
+			double[] bins = spectrum.bins[c];
+			
+			for(int i=0; i<size; i++) {
+				target[i] *= coefficients[i];
+			}
+			
+			fft.realForward(target);
+			
+			// 0 Hz has no imaginary part, the second value holds the last real part for an even size or the last
+			// imaginary part for an odd size
+			bins[0] = Math.abs(target[0]) * scale;
+			
+			double totalMagnitude = bins[0];
+			
+			for(int b=1; b<binCount; b++) {
+				double re = 2 * b < size ? target[2 * b] : target[1];
+				double im = 2 * b + 1 < size ? target[2 * b + 1] : (2 * b < size ? target[1] : 0);
+				
+				bins[b] = Math.sqrt(re * re + im * im) * scale;
+				
+				totalMagnitude += bins[b];
+			}
+			
+			spectrum.averageMagnitude[c] = totalMagnitude / binCount;
+		}
+		
+		if(remaining.decrementAndGet() == 0) {
+			publish(spectrum);
+		}
+	}
+	
+	// make the spectrum the latest and send it to the listeners
+	private void publish(Spectrum spectrum) {
+		// the spectrum is held during the listeners, so the frame after the next does not overwrite it
+		spectrum.readers.incrementAndGet();
+		
+		latest = spectrum;
+		idle.set(true);
+		
+		try {
+			for(SpectrumListener listener : listeners) {
+				listener.receivedSpectrum(spectrum);
+			}
+		} finally {
+			spectrum.readers.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Returns the last finished spectrum, or null if no spectrum is finished yet. The spectrum is not overwritten until it
+	 * is released with {@link #releaseSpectrum(Spectrum)}, which should be done soon: frames are skipped while the next
+	 * frame would overwrite it.
+	 */
+	public Spectrum acquireSpectrum() {
+		while(true) {
+			Spectrum spectrum = latest;
+			
+			if(spectrum == null) {
+				return null;
+			}
+			
+			spectrum.readers.incrementAndGet();
+			
+			// the spectrum may have been replaced, and its frame started, before it was acquired
+			if(spectrum == latest) {
+				return spectrum;
+			}
+			
+			spectrum.readers.decrementAndGet();
+		}
+	}
+	
+	public void releaseSpectrum(Spectrum spectrum) {
+		spectrum.readers.decrementAndGet();
+	}
+	
+	public void addListener(SpectrumListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeListener(SpectrumListener listener) {
+		listeners.remove(listener);
+	}
+	
+	public List<SpectrumListener> getListeners() {
+		return listeners;
+	}
+	
+	/**
+	 * Returns the pool shared by all analyzers, with a thread for every processor. The threads do not keep the application
+	 * running.
+	 */
+	public static synchronized ExecutorService getSharedPool() {
+		if(sharedPool == null) {
+			sharedPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				
+				// the number of created threads
+				private final AtomicInteger count = new AtomicInteger();
+				
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, String.format("SpectralAnalyzer-%s", count.incrementAndGet()));
+					thread.setDaemon(true);
+					
+					return thread;
+				}
+			});
+		}
+		
+		return sharedPool;
+	}
+	
+	/**
+	 * A <code>Spectrum</code> holds the magnitudes of the bins of all channels of one frame, from 0 Hz up to half the
+	 * sample rate. The magnitudes are scaled like the bins of the FFTDataBuffer.
+	 */
+	public static class Spectrum {
+		
+		// the magnitudes of the bins of each channel
+		private final double[][] bins;
+		
+		// the average magnitude of each channel
+		private final double[] averageMagnitude;
+		
+		private final int binCount;
+		
+		private final double resolution;
+		
+		// the number of the frame and the number of samples added before it
+		private long frame;
+		private long sample;
+		
+		// the number of readers which acquired the spectrum
+		private final AtomicInteger readers = new AtomicInteger();
+		
+		private Spectrum(int numChannels, int binCount, double resolution) {
+			this.bins 				= new double[numChannels][binCount];
+			this.averageMagnitude 	= new double[numChannels];
+			this.binCount 			= binCount;
+			this.resolution 		= resolution;
+		}
+		
+		public int getNumChannels() {
+			return bins.length;
+		}
+		
+		public int getBinCount() {
+			return binCount;
+		}
+		
+		public double getFrequencyResolution() {
+			return resolution;
+		}
+		
+		/**
+		 * Returns the magnitudes of the bins of a channel, bin b holds the frequency b times the frequency resolution.
+		 */
+		public double[] getBins(int channel) {
+			return bins[channel];
+		}
+		
+		/**
+		 * Returns the magnitude of the bin nearest to the frequency.
+		 */
+		public double getMagnitude(int channel, double frequency) {
+			int bin = (int) Math.round(frequency / resolution);
+			
+			return bin >= 0 && bin < binCount ? bins[channel][bin] : 0d;
+		}
+		
+		public double getAverageMagnitude(int channel) {
+			return averageMagnitude[channel];
+		}
+		
+		/**
+		 * Returns the number of the frame, counted from 0.
+		 */
+		public long getFrame() {
+			return frame;
+		}
+		
+		/**
+		 * Returns the number of samples added before the frame, the last sample of the frame is sample - 1.
+		 */
+		public long getSample() {
+			return sample;
+		}
+	}
+}
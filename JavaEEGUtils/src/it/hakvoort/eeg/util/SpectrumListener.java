@@ -0,0 +1,18 @@
+package it.hakvoort.eeg.util;
+
+import it.hakvoort.eeg.util.SpectralAnalyzer.Spectrum;
+
+/**
+ * A <code>SpectrumListener</code> receives the spectra of a SpectralAnalyzer as soon as they are computed.
+ *
+ * The listeners are called from the thread which finished the last channel of the spectrum, so they should return
+ * quickly. The spectrum is only valid during the call and must be copied by listeners that want to keep it.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public interface SpectrumListener {
+	
+	public void receivedSpectrum(Spectrum spectrum);
+
+}
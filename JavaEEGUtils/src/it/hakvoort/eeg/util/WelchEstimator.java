@@ -0,0 +1,407 @@
+package it.hakvoort.eeg.util;
+
+import it.hakvoort.eeg.util.WindowedDataBuffer.Window;
+import it.hakvoort.eeg.util.WindowedDataBuffer.WindowFunction;
+
+import java.util.Arrays;
+
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_1D;
+
+/**
+ * The <code>WelchEstimator</code> estimates the power spectral density (PSD) of incomming samples with Welch's method,
+ * and the power of frequency bands from it.
+ *
+ * Every hop size samples the last samples, a segment of the size of the FFT, are windowed and transformed into a
+ * periodogram. The periodograms are averaged, either over the last number of segments or exponentially. The PSD is
+ * one-sided, in squared units of the samples per Hz, and normalized by the power of the window, so the power of a band
+ * does not depend on the window: a sine with amplitude A has a power of A<sup>2</sup>/2. After each update the
+ * cumulative power over the bins is computed, so the power of any band takes two lookups.
+ *
+ * The estimator is fed by one thread. The PSD and band powers may be read from other threads and use the last complete
+ * update when they are read. The arrays are reused two updates later, so a reader which holds the PSD, or a query which
+ * takes longer than two updates, may see parts of a later update.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class WelchEstimator {
+	
+	public enum Averaging {LINEAR, EXPONENTIAL};
+	
+	/**
+	 * The common frequency bands of EEG, from the lower frequency up to but not including the higher frequency, so
+	 * adjacent bands do not share bins.
+	 */
+	public enum Band {
+		DELTA(0.5, 4), THETA(4, 8), ALPHA(8, 13), BETA(13, 30), GAMMA(30, 100);
+		
+		private final double low;
+		private final double high;
+		
+		private Band(double low, double high) {
+			this.low = low;
+			this.high = high;
+		}
+		
+		public double getLow() {
+			return low;
+		}
+		
+		public double getHigh() {
+			return high;
+		}
+	};
+	
+	// use this window
+	private WindowFunction window = Window.HANN;
+	
+	// the coefficients of the window
+	private float[] coefficients;
+	
+	// the scale of the squared magnitudes, from the sample rate and the power of the window
+	private double scale;
+	
+	// the size of the segments and fft
+	private final int size;
+	
+	// the sample rate of the incomming samples
+	private final int rate;
+	
+	// the number of bins, from 0 Hz up to half the sample rate
+	private final int binCount;
+	
+	// WindowedDataBuffer contains incomming samples
+	private final WindowedDataBuffer.Float buffer;
+	
+	// the FFT
+	private final FloatFFT_1D fft;
+	
+	// target array for performing fft
+	private final float[] target;
+	
+	// the averaging of the periodograms, over the given number of segments
+	private Averaging averaging = Averaging.LINEAR;
+	private int segments = 8;
+	
+	// the last periodograms, for linear averaging
+	private double[][] periodograms;
+	
+	// the sum of the last periodograms, or the exponential average
+	private double[] sum;
+	
+	// the position of the next periodogram, for linear averaging
+	private int position = 0;
+	
+	// the number of periodograms in the average
+	private int count = 0;
+	
+	// the PSD and the cumulative power of the last update, and the arrays for the next update
+	private volatile double[] psd;
+	private volatile double[] cumulative;
+	private double[] nextPsd;
+	private double[] nextCumulative;
+	
+	// compute a periodogram every number of added samples
+	private int hopSize;
+	
+	// the number of samples added since the last periodogram, and in total
+	private int hopCounter = 0;
+	private long sampleCount = 0;
+	
+	public WelchEstimator(int size, int rate) {
+		if(size < 2 || rate < 1) {
+			throw new IllegalArgumentException(String.format("Invalid size %s or sample rate %s", size, rate));
+		}
+		
+		this.size = size;
+		this.rate = rate;
+		this.binCount = size / 2 + 1;
+		
+		// segments overlap 50% by default
+		this.hopSize = Math.max(size / 2, 1);
+		
+		buffer = new WindowedDataBuffer.Float(size);
+		fft = new FloatFFT_1D(size);
+		target = new float[size];
+		
+		psd 			= new double[binCount];
+		cumulative 		= new double[binCount + 1];
+		nextPsd 		= new double[binCount];
+		nextCumulative 	= new double[binCount + 1];
+		
+		setAveraging(Averaging.LINEAR, segments);
+		setWindow(Window.HANN);
+	}
+	
+	public int getSize() {
+		return size;
+	}
+	
+	public int getRate() {
+		return rate;
+	}
+	
+	public int getBinCount() {
+		return binCount;
+	}
+	
+	public double getFrequencyResolution() {
+		return ((double) rate) / ((double) size);
+	}
+	
+	/**
+	 * Sets the window of the segments, which resets the average.
+	 */
+	public void setWindow(WindowFunction window) {
+		this.window = window;
+		this.coefficients = WindowedDataBuffer.getCoefficients(window, size);
+		
+		double power = 0;
+		
+		for(float coefficient : coefficients) {
+			power += (double) coefficient * coefficient;
+		}
+		
+		this.scale = 1 / (rate * power);
+		
+		reset();
+	}
+	
+	public WindowFunction getWindow() {
+		return this.window;
+	}
+	
+	/**
+	 * Sets the averaging of the periodograms, which resets the average. Linear averaging takes the mean of the last number
+	 * of segments, exponential averaging weighs each new segment by 2 / (segments + 1).
+	 */
+	public void setAveraging(Averaging averaging, int segments) {
+		this.averaging = averaging;
+		this.segments = Math.max(segments, 1);
+		
+		periodograms = averaging == Averaging.LINEAR ? new double[this.segments][binCount] : null;
+		sum = new double[binCount];
+		
+		reset();
+	}
+	
+	public Averaging getAveraging() {
+		return this.averaging;
+	}
+	
+	public int getSegments() {
+		return this.segments;
+	}
+	
+	/**
+	 * Sets the number of added samples after which the next segment is added to the average, by default half the size.
+	 */
+	public void setHopSize(int hopSize) {
+		this.hopSize = Math.max(hopSize, 1);
+	}
+	
+	public int getHopSize() {
+		return this.hopSize;
+	}
+	
+	/**
+	 * Sets the hop size from the overlap of successive segments, from 0 (no overlap) up to 1 (a segment for every sample).
+	 */
+	public void setOverlap(double overlap) {
+		overlap = Math.min(Math.max(overlap, 0), 1);
+		
+		setHopSize((int) Math.round(size * (1 - overlap)));
+	}
+	
+	public double getOverlap() {
+		return Math.max(1 - hopSize / (double) size, 0);
+	}
+	
+	/**
+	 * Returns the number of segments in the average, at most the number of segments for linear averaging.
+	 */
+	public int getSegmentCount() {
+		return count;
+	}
+	
+	/**
+	 * Removes the average, the samples of the next segment are kept.
+	 */
+	public void reset() {
+		if(periodograms != null) {
+			for(double[] periodogram : periodograms) {
+				Arrays.fill(periodogram, 0);
+			}
+		}
+		
+		Arrays.fill(sum, 0);
+		
+		position = 0;
+		count = 0;
+		
+		psd = new double[binCount];
+		cumulative = new double[binCount + 1];
+	}
+	
+	/**
+	 * Adds a sample, and updates the average when the hop size is reached.
+	 *
+	 * @return	true if the average is updated.
+	 */
+	public boolean add(float value) {
+		buffer.add(value);
+		sampleCount++;
+		
+		// only full segments are added to the average
+		if(++hopCounter >= hopSize && sampleCount >= size) {
+			hopCounter = 0;
+			update();
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Adds samples from values, starting at offset.
+	 *
+	 * @return	true if the average is updated.
+	 */
+	public boolean add(float[] values, int offset, int length) {
+		boolean updated = false;
+		
+		for(int i=offset; i<offset + length; i++) {
+			updated |= add(values[i]);
+		}
+		
+		return updated;
+	}
+	
+	// add the periodogram of the last segment to the average
+	private void update() {
+		buffer.getData(target, coefficients);
+		
+		fft.realForward(target);
+		
+		double[] periodogram = periodograms != null ? periodograms[position] : null;
+		double weight = 2.0 / (segments + 1);
+		
+		for(int k=0; k<binCount; k++) {
+			double re;
+			double im;
+			
+			// 0 Hz has no imaginary part, the second value holds the last real part for an even size or the last
+			// imaginary part for an odd size
+			if(k == 0) {
+				re = target[0];
+				im = 0;
+			} else {
+				re = 2 * k < size ? target[2 * k] : target[1];
+				im = 2 * k + 1 < size ? target[2 * k + 1] : (2 * k < size ? target[1] : 0);
+			}
+			
+			// the bins of the negative frequencies are folded onto the positive ones, except for 0 Hz and half the rate
+			double power = (re * re + im * im) * scale * (k == 0 || 2 * k == size ? 1 : 2);
+			
+			if(periodogram != null) {
+				sum[k] += power - periodogram[k];
+				periodogram[k] = power;
+			} else {
+				sum[k] = count == 0 ? power : sum[k] + weight * (power - sum[k]);
+			}
+		}
+		
+		count = Math.min(count + 1, segments);
+		
+		if(periodogram != null) {
+			position = (position + 1) % segments;
+			
+			// compute the sum again once every number of segments, so rounding errors do not add up
+			if(position == 0) {
+				Arrays.fill(sum, 0);
+				
+				for(double[] p : periodograms) {
+					for(int k=0; k<binCount; k++) {
+						sum[k] += p[k];
+					}
+				}
+			}
+		}
+		
+		publish();
+	}
+	
+	// compute the PSD and cumulative power in the next arrays, and swap them with the last
+	private void publish() {
+		double[] psd = nextPsd;
+		double[] cumulative = nextCumulative;
+		
+		double divisor = averaging == Averaging.LINEAR ? count : 1;
+		double resolution = getFrequencyResolution();
+		
+		cumulative[0] = 0;
+		
+		for(int k=0; k<binCount; k++) {
+			psd[k] = sum[k] / divisor;
+			cumulative[k + 1] = cumulative[k] + psd[k] * resolution;
+		}
+		
+		nextPsd = this.psd;
+		nextCumulative = this.cumulative;
+		
+		this.psd = psd;
+		this.cumulative = cumulative;
+	}
+	
+	/**
+	 * Returns the PSD of the last update, bin k holds the frequency k times the frequency resolution. The array is reused
+	 * by the update after the next.
+	 */
+	public double[] getPowerSpectralDensity() {
+		return this.psd;
+	}
+	
+	/**
+	 * Returns the power of the bins from low up to but not including high, in squared units of the samples.
+	 */
+	public double getBandPower(double low, double high) {
+		return getBandPower(this.cumulative, low, high);
+	}
+	
+	public double getBandPower(Band band) {
+		return getBandPower(band.getLow(), band.getHigh());
+	}
+	
+	/**
+	 * Returns the power of all bins.
+	 */
+	public double getTotalPower() {
+		double[] cumulative = this.cumulative;
+		
+		return cumulative[binCount];
+	}
+	
+	/**
+	 * Returns the power of the bins from low up to but not including high, relative to the power of all bins.
+	 */
+	public double getRelativeBandPower(double low, double high) {
+		double[] cumulative = this.cumulative;
+		double total = cumulative[binCount];
+		
+		return total > 0 ? getBandPower(cumulative, low, high) / total : 0d;
+	}
+	
+	public double getRelativeBandPower(Band band) {
+		return getRelativeBandPower(band.getLow(), band.getHigh());
+	}
+	
+	// the power of the bins within the band, a bin on the higher frequency belongs to the next band
+	private double getBandPower(double[] cumulative, double low, double high) {
+		// the bin of a frequency is frequency * size / rate, which is exact for frequencies on a bin
+		int first = Math.max((int) Math.ceil(low * size / rate), 0);
+		int last = Math.min((int) Math.ceil(high * size / rate) - 1, binCount - 1);
+		
+		return last >= first ? cumulative[last + 1] - cumulative[first] : 0d;
+	}
+}
@@ -1,75 +1,318 @@
 package it.hakvoort.eeg.util;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The <code>WindowedDataBuffer</code> applies a window function to the data of a DataBuffer.
+ *
+ * The coefficients of a window are computed once for each size and kept in a cache shared by all buffers, so getting
+ * the data costs one multiplication per sample. Besides the windows of {@link Window}, any {@link WindowFunction} can be
+ * used, e.g. a {@link KaiserWindow} or {@link TukeyWindow}.
+ *
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
 public abstract class WindowedDataBuffer extends DataBuffer {
 	
-	public enum Window {RECTANGLE, HANN, HAMMING, BLACKMAN, BLACKMAN_HARRIS};
+	/**
+	 * A <code>WindowFunction</code> gives the coefficients of a window. Windows are cached by equality, so a window
+	 * with parameters should implement equals and hashCode.
+	 */
+	public interface WindowFunction {
+		
+		/**
+		 * Returns the coefficient of sample n of a window of the given size.
+		 */
+		public double getCoefficient(int n, int size);
+	
+	}
+	
+	public enum Window implements WindowFunction {
+		RECTANGLE, HANN, HAMMING, BLACKMAN, BLACKMAN_HARRIS, FLAT_TOP;
+		
+		@Override
+		public double getCoefficient(int n, int size) {
+			return coefficient(this, n, size);
+		}
+	};
 	
 	public static float BLACKMAN_ALPHA = 0.16f;
 	
+	// the cached coefficients of each window and size
+	private static final ConcurrentMap<WindowKey, float[]> floatCoefficients = new ConcurrentHashMap<WindowKey, float[]>();
+	private static final ConcurrentMap<WindowKey, double[]> doubleCoefficients = new ConcurrentHashMap<WindowKey, double[]>();
+	
 	public WindowedDataBuffer(int capacity) {
 		super(capacity);
 	}
 	
+	/**
+	 * Returns the coefficients of a window of the given size. The array is shared and must not be modified.
+	 */
+	public static float[] getCoefficients(WindowFunction window, int size) {
+		WindowKey key = new WindowKey(window, size);
+		float[] coefficients = floatCoefficients.get(key);
+		
+		if(coefficients == null) {
+			double[] values = getDoubleCoefficients(window, size);
+			
+			coefficients = new float[size];
+			
+			for(int n=0; n<size; n++) {
+				coefficients[n] = (float) values[n];
+			}
+			
+			float[] previous = floatCoefficients.putIfAbsent(key, coefficients);
+			
+			if(previous != null) {
+				coefficients = previous;
+			}
+		}
+		
+		return coefficients;
+	}
+	
+	/**
+	 * Returns the coefficients of a window of the given size in double precision. The array is shared and must not be
+	 * modified.
+	 */
+	public static double[] getDoubleCoefficients(WindowFunction window, int size) {
+		WindowKey key = new WindowKey(window, size);
+		double[] coefficients = doubleCoefficients.get(key);
+		
+		if(coefficients == null) {
+			coefficients = new double[size];
+			
+			for(int n=0; n<size; n++) {
+				coefficients[n] = window.getCoefficient(n, size);
+			}
+			
+			double[] previous = doubleCoefficients.putIfAbsent(key, coefficients);
+			
+			if(previous != null) {
+				coefficients = previous;
+			}
+		}
+		
+		return coefficients;
+	}
+	
+	/**
+	 * Removes all cached coefficients.
+	 */
+	public static void clearCoefficients() {
+		floatCoefficients.clear();
+		doubleCoefficients.clear();
+	}
+	
+	// the coefficient of sample n of a window of the given size
+	static double coefficient(Window window, int n, int size) {
+		switch(window) {
+			case HANN:
+				return 0.5 * (1 - Math.cos((2 * Math.PI * n) / (size - 1)));
+			case HAMMING:
+				return 0.54 - 0.46 * Math.cos((2 * Math.PI * n) / (size - 1));
+			case BLACKMAN:
+				return (1 - BLACKMAN_ALPHA) / 2 - 0.5 * Math.cos((2 * Math.PI * n) / (size - 1)) + (BLACKMAN_ALPHA / 2) * Math.cos((4 * Math.PI * n) / (size - 1));
+			case BLACKMAN_HARRIS:
+				return 0.35875f - 0.48829f * Math.cos((2 * Math.PI * n) / (size - 1)) + 0.14128f * Math.cos((4 * Math.PI * n) / (size - 1)) - 0.01168f * Math.cos((6 * Math.PI * n) / (size - 1));
+			case FLAT_TOP:
+				return 0.21557895 - 0.41663158 * Math.cos((2 * Math.PI * n) / (size - 1)) + 0.277263158 * Math.cos((4 * Math.PI * n) / (size - 1)) - 0.083578947 * Math.cos((6 * Math.PI * n) / (size - 1)) + 0.006947368 * Math.cos((8 * Math.PI * n) / (size - 1));
+			default:
+				return 1;
+		}
+	}
+	
+	/**
+	 * The Kaiser window, beta sets the trade-off between the width of the main lobe and the height of the side lobes,
+	 * e.g. 0 gives a rectangle window and 8.6 is close to a Blackman window.
+	 */
+	public static class KaiserWindow implements WindowFunction {
+		
+		private final double beta;
+		
+		public KaiserWindow(double beta) {
+			this.beta = beta;
+		}
+		
+		public double getBeta() {
+			return beta;
+		}
+		
+		@Override
+		public double getCoefficient(int n, int size) {
+			double x = size > 1 ? 2.0 * n / (size - 1) - 1 : 0;
+			
+			return bessel(beta * Math.sqrt(Math.max(1 - x * x, 0))) / bessel(beta);
+		}
+		
+		// the modified Bessel function of the first kind and order 0
+		private static double bessel(double x) {
+			double sum = 1;
+			double term = 1;
+			
+			for(int k=1; k<100 && term > sum * 1e-16; k++) {
+				term *= (x / (2 * k)) * (x / (2 * k));
+				sum += term;
+			}
+			
+			return sum;
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof KaiserWindow && ((KaiserWindow) object).beta == beta;
+		}
+		
+		@Override
+		public int hashCode() {
+			return java.lang.Double.valueOf(beta).hashCode();
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("KAISER(%s)", beta);
+		}
+	}
+	
+	/**
+	 * The Tukey (tapered cosine) window, alpha is the part of the window which is tapered, from 0 (a rectangle window) to
+	 * 1 (a Hann window).
+	 */
+	public static class TukeyWindow implements WindowFunction {
+		
+		private final double alpha;
+		
+		public TukeyWindow(double alpha) {
+			this.alpha = Math.min(Math.max(alpha, 0), 1);
+		}
+		
+		public double getAlpha() {
+			return alpha;
+		}
+		
+		@Override
+		public double getCoefficient(int n, int size) {
+			double taper = alpha * (size - 1) / 2;
+			
+			if(n < taper) {
+				return 0.5 * (1 - Math.cos(Math.PI * n / taper));
+			}
+			
+			if(n > size - 1 - taper) {
+				return 0.5 * (1 - Math.cos(Math.PI * (size - 1 - n) / taper));
+			}
+			
+			return 1;
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof TukeyWindow && ((TukeyWindow) object).alpha == alpha;
+		}
+		
+		@Override
+		public int hashCode() {
+			return java.lang.Double.valueOf(alpha).hashCode();
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("TUKEY(%s)", alpha);
+		}
+	}
+	
+	// the key of cached coefficients, the Blackman window depends on BLACKMAN_ALPHA as well
+	private static class WindowKey {
+		
+		private final WindowFunction window;
+		private final int size;
+		private final float alpha;
+		
+		private WindowKey(WindowFunction window, int size) {
+			this.window = window;
+			this.size 	= size;
+			this.alpha 	= window == Window.BLACKMAN ? BLACKMAN_ALPHA : 0;
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			if(!(object instanceof WindowKey)) {
+				return false;
+			}
+			
+			WindowKey key = (WindowKey) object;
+			
+			return key.window.equals(window) && key.size == size && key.alpha == alpha;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (window.hashCode() * 31 + size) * 31 + java.lang.Float.floatToIntBits(alpha);
+		}
+	}
+	
 	public static class Float extends DataBuffer.Float {
 		
 		public Float(int capacity) {
 			super(capacity);
 		}
 		
-		public void getData(float[] target, Window window) {
+		public void getData(float[] target, WindowFunction window) {
+			getData(target, getCoefficients(window, capacity));
+		}
+		
+		/**
+		 * Gets the data, oldest sample first, multiplied by the given coefficients of a window.
+		 */
+		public void getData(float[] target, float[] coefficients) {
 			if(size <= 0) {
 				return;
 			}
 			
-			for(int i=0; i<capacity; i++) {
-				target[i] = applyWindow(data[((index%size) + i) % capacity], i, window);
+			// until the buffer is full the oldest sample is the first
+			int start = size < capacity ? 0 : index;
+			int first = capacity - start;
+			
+			for(int i=0; i<first; i++) {
+				target[i] = data[start + i] * coefficients[i];
 			}
-		}
-		
-		private float applyWindow(float value, int n, Window window) {
-			switch(window) {
-				case HANN:
-					return (float) (value * (0.5 * (1 - Math.cos((2 * Math.PI * n) / (capacity - 1)))));
-				case HAMMING:
-					return (float) (value * (0.54 - 0.46 * Math.cos((2 * Math.PI * n) / (capacity - 1))));
-				case BLACKMAN:
-					return (float) (value * ((1 - BLACKMAN_ALPHA) / 2 - 0.5 * Math.cos((2 * Math.PI * n) / (capacity - 1)) + (BLACKMAN_ALPHA / 2) * Math.cos((4 * Math.PI * n) / (capacity - 1))));
-				case BLACKMAN_HARRIS:
-					return (float) (value * (0.35875f - 0.48829f * Math.cos((2 * Math.PI * n) / (capacity - 1)) + 0.14128f * Math.cos((4 * Math.PI * n) / (capacity - 1)) - 0.01168f * Math.cos((6 * Math.PI * n) / (capacity - 1))));
-				default:
-					return value;
+			
+			for(int i=first; i<capacity; i++) {
+				target[i] = data[i - first] * coefficients[i];
 			}
 		}
 	}
 	
-	public static class Double extends DataBuffer.Float {
+	public static class Double extends DataBuffer.Double {
 		
 		public Double(int capacity) {
 			super(capacity);
 		}
-				
-		public void getData(double[] target, Window window) {
+		
+		public void getData(double[] target, WindowFunction window) {
+			getData(target, getDoubleCoefficients(window, capacity));
+		}
+		
+		/**
+		 * Gets the data, oldest sample first, multiplied by the given coefficients of a window.
+		 */
+		public void getData(double[] target, double[] coefficients) {
 			if(size <= 0) {
 				return;
 			}
 			
-			for(int i=0; i<capacity; i++) {
-				target[i] = applyWindow(data[((index%size) + i) % capacity], i, window);
+			// until the buffer is full the oldest sample is the first
+			int start = size < capacity ? 0 : index;
+			int first = capacity - start;
+			
+			for(int i=0; i<first; i++) {
+				target[i] = data[start + i] * coefficients[i];
 			}
-		}
-		
-		private double applyWindow(double value, int n, Window window) {
-			switch(window) {
-				case HANN:
-					return value * (0.5 * (1 - Math.cos((2 * Math.PI * n) / (capacity - 1))));
-				case HAMMING:
-					return value * (0.54 - 0.46 * Math.cos((2 * Math.PI * n) / (capacity - 1)));
-				case BLACKMAN:
-					return value * ((1 - BLACKMAN_ALPHA) / 2 - 0.5 * Math.cos((2 * Math.PI * n) / (capacity - 1)) + (BLACKMAN_ALPHA / 2) * Math.cos((4 * Math.PI * n) / (capacity - 1)));
-				case BLACKMAN_HARRIS:
-					return value * (0.35875f - 0.48829f * Math.cos((2 * Math.PI * n) / (capacity - 1)) + 0.14128f * Math.cos((4 * Math.PI * n) / (capacity - 1)) - 0.01168f * Math.cos((6 * Math.PI * n) / (capacity - 1)));
-				default:
-					return value;
+			
+			for(int i=first; i<capacity; i++) {
+				target[i] = data[i - first] * coefficients[i];
 			}
 		}
 	}
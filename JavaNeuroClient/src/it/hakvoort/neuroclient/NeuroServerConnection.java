@@ -1,7 +1,12 @@
 package it.hakvoort.neuroclient;
 
+import it.hakvoort.bdf.network.ConnectionListener;
+import it.hakvoort.bdf.network.ConnectionSupervisor;
+import it.hakvoort.bdf.network.ConnectionSupervisor.Connector;
+
 import java.io.BufferedReader;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
@@ -13,6 +18,8 @@ import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
+ * A connection with NeuroServer. A lost connection can be restored by the {@link ConnectionSupervisor} of the connection,
+ * the status listeners are notified when the connection is lost and the reconnect listeners when it is restored.
  * 
  * @author Gido Hakvoort (gido@hakvoort.it)
  * 
@@ -40,7 +47,16 @@ public class NeuroServerConnection {
 	private String HOST = "localhost";
 	private int PORT = 8336;
 
-	private boolean connected = false;
+	private volatile boolean connected = false;
+	
+	// restores a lost connection
+	private ConnectionSupervisor supervisor = new ConnectionSupervisor(new Connector() {
+		
+		@Override
+		public boolean reconnect(long downtime) {
+			return open();
+		}
+	});
 
 	// listeners waiting for line input
 	protected List<NeuroServerInputListener> inputListeners = new CopyOnWriteArrayList<NeuroServerInputListener>();
@@ -48,7 +64,10 @@ public class NeuroServerConnection {
 	// listeners waiting for status updates
 	protected List<NeuroServerStatusListener> statusListeners = new CopyOnWriteArrayList<NeuroServerStatusListener>();
 	
-	private NeuroServerLineReader lineReader = new NeuroServerLineReader();
+	// listeners waiting for restored connections
+	protected List<NeuroServerReconnectListener> reconnectListeners = new CopyOnWriteArrayList<NeuroServerReconnectListener>();
+	
+	private NeuroServerLineReader lineReader;
 
 	static {
 		commands.put(Command.HELLO, "hello");
@@ -66,19 +85,43 @@ public class NeuroServerConnection {
 	}
 
 	public NeuroServerConnection() {
-
+		supervisor.addListener(new ConnectionListener() {
+			
+			@Override
+			public void connectionLost() {
+				
+			}
+			
+			@Override
+			public void reconnected(long downtime) {
+				fireReconnected(downtime);
+			}
+		});
 	}
 
 	public NeuroServerConnection(String HOST) {
+		this();
+		
 		this.HOST = HOST;
 	}
 
 	public NeuroServerConnection(String HOST, int PORT) {
+		this();
+		
 		this.HOST = HOST;
 		this.PORT = PORT;
 	}
 
 	public void connect() {
+		supervisor.start();
+		
+		if (!open()) {
+			supervisor.connectionLost();
+		}
+	}
+	
+	// connects to NeuroServer and starts reading lines
+	private synchronized boolean open() {
 		try {
 			socket = new Socket();
 
@@ -96,11 +139,22 @@ public class NeuroServerConnection {
 
 		// if connected, start the input line reader
 		if (connected) {
+			lineReader = new NeuroServerLineReader();
 			lineReader.start();
+		} else {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				System.err.println(String.format("Error during disconnecting"));
+			}
 		}
+		
+		return connected;
 	}
 
 	public void disconnect() {
+		supervisor.stop();
+		
 		if (!connected) {
 			return;
 		}
@@ -121,6 +175,13 @@ public class NeuroServerConnection {
 	public boolean isConnected() {
 		return this.connected;
 	}
+	
+	/**
+	 * Returns the supervisor which restores a lost connection, disabled by default.
+	 */
+	public ConnectionSupervisor getSupervisor() {
+		return supervisor;
+	}
 
 	public void sendCommand(Command command) {
 		sendCommand(command, null);
@@ -152,9 +213,33 @@ public class NeuroServerConnection {
 		try {
 			output.writeBytes(data);
 		} catch (IOException e) {
-			System.err.println(String.format("Could not send command: %s", command));
+			lost(String.format("Could not send command: %s", command));
+		}
+	}
+	
+	// close a connection which was lost while reading or writing, and report it once
+	private void lost(String message) {
+		Socket socket;
+		
+		synchronized (this) {
+			if (!connected) {
+				return;
+			}
+			
 			connected = false;
+			socket = this.socket;
 		}
+		
+		System.err.println(message);
+		
+		try {
+			socket.close();
+		} catch (IOException e) {
+			System.err.println(String.format("Error during disconnecting"));
+		}
+		
+		supervisor.connectionLost();
+		fireDisconnected();
 	}
 
 	public void addInputListener(NeuroServerInputListener listener) {
@@ -172,6 +257,14 @@ public class NeuroServerConnection {
 	public void removeStatusListener(NeuroServerStatusListener listener) {
 		statusListeners.remove(listener);
 	}
+	
+	public void addReconnectListener(NeuroServerReconnectListener listener) {
+		reconnectListeners.add(listener);
+	}
+
+	public void removeReconnectListener(NeuroServerReconnectListener listener) {
+		reconnectListeners.remove(listener);
+	}
 
 	public void removeAllInputListeners() {
 		inputListeners.clear();
@@ -180,6 +273,10 @@ public class NeuroServerConnection {
 	public void removeAllStatusListeners() {
 		statusListeners.clear();
 	}
+
+	public void removeAllReconnectListeners() {
+		reconnectListeners.clear();
+	}
 	
 	public List<NeuroServerInputListener> getInputListeners() {
 		return inputListeners;
@@ -188,6 +285,10 @@ public class NeuroServerConnection {
 	public List<NeuroServerStatusListener> getStatusListeners() {
 		return statusListeners;
 	}
+
+	public List<NeuroServerReconnectListener> getReconnectListeners() {
+		return reconnectListeners;
+	}
 	
 	/**
 	 * Send the received line to all listeners
@@ -210,19 +311,31 @@ public class NeuroServerConnection {
 			listener.disconnected();
 		}
 	}
+	
+	/**
+	 * Send a reconnected notification, with the number of milliseconds the connection was down
+	 */
+	public void fireReconnected(long downtime) {
+		for (NeuroServerReconnectListener listener : reconnectListeners) {
+			listener.reconnected(downtime);
+		}
+	}
 
 	private class NeuroServerLineReader extends Thread {
 
 		public void run() {
 			while (connected) {
 				try {
-					fireReceivedLine(input.readLine());
-				} catch (IOException e) {
-					if (connected) {
-						System.err.println(String.format("Error while reading line"));
-						connected = false;
-						fireDisconnected();
+					String line = input.readLine();
+					
+					// the end of the stream, the connection was closed by NeuroServer
+					if (line == null) {
+						throw new EOFException();
 					}
+					
+					fireReceivedLine(line);
+				} catch (IOException e) {
+					lost(String.format("Error while reading line"));
 				}
 			}
 
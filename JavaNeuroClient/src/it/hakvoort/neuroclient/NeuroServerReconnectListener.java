@@ -0,0 +1,17 @@
+package it.hakvoort.neuroclient;
+
+/**
+ * A <code>NeuroServerReconnectListener</code> is notified when the lost connection with NeuroServer is restored by the
+ * supervisor of the connection.
+ * 
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ * 
+ */
+public interface NeuroServerReconnectListener {
+
+	/**
+	 * The connection was restored by its supervisor, after being down for the given number of milliseconds.
+	 */
+	public void reconnected(long downtime);
+	
+}
@@ -2,6 +2,7 @@ package it.hakvoort.neuroclient.agent;
 
 import it.hakvoort.neuroclient.NeuroServerConnection;
 import it.hakvoort.neuroclient.NeuroServerInputListener;
+import it.hakvoort.neuroclient.NeuroServerReconnectListener;
 import it.hakvoort.neuroclient.NeuroServerStatusListener;
 import it.hakvoort.neuroclient.NeuroServerConnection.Command;
 import it.hakvoort.neuroclient.reply.DefaultReply;
@@ -15,7 +16,7 @@ import it.hakvoort.neuroclient.reply.Reply.ResponseCode;
  * @author Gido Hakvoort (gido@hakvoort.it)
  * 
  */
-public abstract class DefaultAgent implements Agent, NeuroServerInputListener, NeuroServerStatusListener {
+public abstract class DefaultAgent implements Agent, NeuroServerInputListener, NeuroServerStatusListener, NeuroServerReconnectListener {
 
 	protected NeuroServerConnection connection = null;
 
@@ -29,6 +30,7 @@ public abstract class DefaultAgent implements Agent, NeuroServerInputListener, N
 
 		if (connection.isConnected()) {
 			connection.addInputListener(this);
+			connection.addReconnectListener(this);
 			init();
 		}
 	}
@@ -39,6 +41,7 @@ public abstract class DefaultAgent implements Agent, NeuroServerInputListener, N
 
 		if (connection.isConnected()) {
 			connection.addInputListener(this);
+			connection.addReconnectListener(this);
 			init();
 		}
 	}
@@ -49,6 +52,7 @@ public abstract class DefaultAgent implements Agent, NeuroServerInputListener, N
 
 		if (connection.isConnected()) {
 			connection.addInputListener(this);
+			connection.addReconnectListener(this);
 			init();
 		}
 	}
@@ -74,6 +78,7 @@ public abstract class DefaultAgent implements Agent, NeuroServerInputListener, N
 
 		connection.disconnect();
 		connection.removeInputListener(this);
+		connection.removeReconnectListener(this);
 
 		return reply;
 	}
@@ -133,6 +138,7 @@ public abstract class DefaultAgent implements Agent, NeuroServerInputListener, N
 					if(!finished) {
 						System.err.println("Timeout during executing command, closing connection.");
 						connection.removeInputListener(this);
+						connection.removeReconnectListener(this);
 						connection.disconnect();
 					}
 				} catch (InterruptedException e) {
@@ -148,8 +154,20 @@ public abstract class DefaultAgent implements Agent, NeuroServerInputListener, N
 
 	@Override
 	public void disconnected() {
+		// the connection is being restored by its supervisor
+		if (connection.getSupervisor().isReconnecting()) {
+			return;
+		}
+		
 		connection.disconnect();
 		connection.removeInputListener(this);
+		connection.removeReconnectListener(this);
+	}
+	
+	@Override
+	public void reconnected(long downtime) {
+		// NeuroServer does not remember the role of a client
+		init();
 	}
 	
 	@Override
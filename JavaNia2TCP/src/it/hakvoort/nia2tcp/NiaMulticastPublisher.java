@@ -0,0 +1,125 @@
+package it.hakvoort.nia2tcp;
+
+import it.hakvoort.bdf.network.BDFMulticastPublisher;
+import it.hakvoort.nia.NiaDevice;
+import it.hakvoort.nia.NiaListener;
+import it.hakvoort.nia.NiaSample;
+
+import java.io.IOException;
+import java.net.NetworkInterface;
+
+/**
+ * The <code>NiaMulticastPublisher</code> sends the samples of a NiaDevice to a UDP multicast group, as a single channel
+ * stream of a {@link BDFMulticastPublisher}. Missing samples of the device are not sent, receivers fill them in again.
+ * The samples are sent as signed 24 bit values, for a device which reads unsigned samples the
+ * {@link NiaMulticastSubscriber} should be set to unsigned as well.
+ * 
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class NiaMulticastPublisher implements NiaListener {
+	
+	// the nia
+	private NiaDevice device;
+	
+	// the publisher of the samples
+	private BDFMulticastPublisher publisher;
+	
+	// the samples of the next datagram
+	private int[] values;
+	
+	// the number of samples in the next datagram
+	private int count = 0;
+	
+	// the number of the first sample in the next datagram
+	private long firstSample = 0;
+	
+	public NiaMulticastPublisher(NiaDevice device, String GROUP, int PORT) {
+		this.device = device;
+		
+		publisher = new BDFMulticastPublisher(GROUP, PORT, 1);
+		
+		// about 8ms of samples in a datagram
+		publisher.setSamplesPerPacket(32);
+	}
+	
+	public BDFMulticastPublisher getPublisher() {
+		return publisher;
+	}
+	
+	public void setNetworkInterface(NetworkInterface networkInterface) {
+		publisher.setNetworkInterface(networkInterface);
+	}
+	
+	public synchronized void start() throws IOException {
+		publisher.open();
+		
+		values = new int[publisher.getMaxSamples()];
+		count = 0;
+		
+		device.addListener(this);
+		
+		if(!device.isConnected()) {
+			device.start();
+		}
+	}
+	
+	public synchronized void stop() {
+		device.removeListener(this);
+		
+		flush();
+		publisher.close();
+		
+		if(device.isConnected()) {
+			device.stop();
+		}
+	}
+	
+	@Override
+	public synchronized void receivedSample(NiaSample sample) {
+		if(values == null) {
+			return;
+		}
+		
+		// the samples in a datagram are consecutive
+		if(count > 0 && sample.number != firstSample + count) {
+			flush();
+		}
+		
+		// missing samples are left out, the receivers see a gap
+		if(sample.value == NiaDevice.MISSING_SAMPLE_VALUE) {
+			return;
+		}
+		
+		if(count == 0) {
+			firstSample = sample.number;
+		}
+		
+		values[count++] = sample.value;
+		
+		if(count == values.length) {
+			flush();
+		}
+	}
+	
+	// send the collected samples
+	private void flush() {
+		if(count > 0) {
+			publisher.send(firstSample, values, count);
+			count = 0;
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: NiaMulticastPublisher GROUP PORT");
+			System.out.println("GROUP : the multicast group, e.g. 239.255.0.1.");
+			System.out.println("PORT  : port number of the receivers.");
+			
+			return;
+		}
+		
+		NiaMulticastPublisher publisher = new NiaMulticastPublisher(new NiaDevice(), args[0], Integer.parseInt(args[1]));
+		publisher.start();
+	}
+}
@@ -0,0 +1,126 @@
+package it.hakvoort.nia2tcp;
+
+import it.hakvoort.bdf.BDFBlockListener;
+import it.hakvoort.bdf.network.BDFMulticastSubscriber;
+import it.hakvoort.nia.NiaDevice;
+import it.hakvoort.nia.NiaListener;
+import it.hakvoort.nia.NiaSample;
+
+import java.io.IOException;
+import java.net.NetworkInterface;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The <code>NiaMulticastSubscriber</code> receives the samples of a {@link NiaMulticastPublisher}. Samples in lost
+ * datagrams are sent to the listeners with the value NiaDevice.MISSING_SAMPLE_VALUE, just like missing samples of the device.
+ * 
+ * The samples are sent as signed 24 bit values. When the device of the publisher reads unsigned samples, the subscriber
+ * should be set to unsigned as well, otherwise values of 8388608 and higher are received as negative values.
+ * 
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
+public class NiaMulticastSubscriber implements BDFBlockListener {
+	
+	// the subscriber receiving the samples
+	private BDFMulticastSubscriber subscriber;
+	
+	// if the samples are signed, like the samples of the device
+	private boolean signed = true;
+	
+	// listeners waiting for samples
+	protected List<NiaListener> listeners = new CopyOnWriteArrayList<NiaListener>();
+	
+	public NiaMulticastSubscriber(String GROUP, int PORT) {
+		subscriber = new BDFMulticastSubscriber(GROUP, PORT);
+		subscriber.setMissingValue(NiaDevice.MISSING_SAMPLE_VALUE);
+		subscriber.addBlockListener(this);
+	}
+	
+	public BDFMulticastSubscriber getSubscriber() {
+		return subscriber;
+	}
+	
+	public void setNetworkInterface(NetworkInterface networkInterface) {
+		subscriber.setNetworkInterface(networkInterface);
+	}
+	
+	public boolean getSigned() {
+		return signed;
+	}
+	
+	/**
+	 * Sets if the samples are signed, should be the same as NiaDevice.setSigned of the publisher.
+	 */
+	public void setSigned(boolean signed) {
+		this.signed = signed;
+	}
+	
+	public void start() throws IOException {
+		subscriber.start();
+	}
+	
+	public void stop() {
+		subscriber.stop();
+	}
+	
+	public void addListener(NiaListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeListener(NiaListener listener) {
+		listeners.remove(listener);
+	}
+	
+	public void removeAllListeners() {
+		listeners.clear();
+	}
+	
+	public List<NiaListener> getListeners() {
+		return listeners;
+	}
+	
+	@Override
+	public void receivedBlock(long firstSample, int[] data, int samples) {
+		for(int s = 0; s < samples; s++) {
+			int value = data[s];
+			
+			// the 24 bits of an unsigned sample, missing samples keep their value
+			if(!signed && value != NiaDevice.MISSING_SAMPLE_VALUE) {
+				value &= 0xFFFFFF;
+			}
+			
+			fireReceivedSample(new NiaSample((int) (firstSample + s), value));
+		}
+	}
+	
+	protected void fireReceivedSample(NiaSample sample) {
+		for(NiaListener listener : listeners) {
+			listener.receivedSample(sample);
+		}
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: NiaMulticastSubscriber GROUP PORT");
+			System.out.println("GROUP : the multicast group, e.g. 239.255.0.1.");
+			System.out.println("PORT  : port number of the publisher.");
+			System.out.println("unsigned : optional, if the device of the publisher reads unsigned samples.");
+			
+			return;
+		}
+		
+		NiaMulticastSubscriber subscriber = new NiaMulticastSubscriber(args[0], Integer.parseInt(args[1]));
+		subscriber.setSigned(args.length < 3 || !args[2].equals("unsigned"));
+		subscriber.addListener(new NiaListener() {
+			
+			@Override
+			public void receivedSample(NiaSample sample) {
+				System.out.println(sample.toString());
+			}
+		});
+		
+		subscriber.start();
+	}
+}
@@ -1,5 +1,9 @@
 package it.hakvoort.nia2tcp;
 
+import it.hakvoort.bdf.BDFCodec;
+import it.hakvoort.bdf.network.ConnectionSupervisor;
+import it.hakvoort.bdf.network.ConnectionSupervisor.Connector;
+import it.hakvoort.bdf.network.GapListener;
 import it.hakvoort.nia.NiaListener;
 import it.hakvoort.nia.NiaSample;
 
@@ -26,7 +30,22 @@ public class NiaNetworkClient {
 	private int PORT;
 	
 	// if the client is connected
-	private boolean connected = false;
+	private volatile boolean connected = false;
+	
+	// the number of samples missed while the connection was down
+	private volatile long lostSamples = 0;
+	
+	// the number of samples per second, to estimate the samples missed while the connection was down
+	private int sampleRate = 0;
+	
+	// restores a lost connection
+	private ConnectionSupervisor supervisor = new ConnectionSupervisor(new Connector() {
+		
+		@Override
+		public boolean reconnect(long downtime) {
+			return open(downtime);
+		}
+	});
 
 	// the input reader
 	private NiaClientInputReader inputReader;
@@ -34,6 +53,9 @@ public class NiaNetworkClient {
 	// listeners waiting for records
 	protected List<NiaListener> listeners = new CopyOnWriteArrayList<NiaListener>();
 	
+	// listeners waiting for missing samples
+	protected List<GapListener> gapListeners = new CopyOnWriteArrayList<GapListener>();
+	
 	// if the samples are signed
 	private boolean signed = true;
 	
@@ -45,6 +67,15 @@ public class NiaNetworkClient {
 	}
 	
 	public void connect() {
+		supervisor.start();
+		
+		if(!open(-1)) {
+			supervisor.connectionLost();
+		}
+	}
+	
+	// connects to the server and starts reading, the downtime is -1 for a new connection
+	private synchronized boolean open(long downtime) {
 		try {
 			socket = new Socket();
 			socket.connect(new InetSocketAddress(HOST, PORT), 5000);
@@ -57,12 +88,41 @@ public class NiaNetworkClient {
 			System.err.println(String.format("Could not connect to %s:%s", HOST, PORT));
 		}
 		
-		if(connected) {
-			new Thread(inputReader).start();
+		if(!connected) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				System.err.println(String.format("Disconnect error"));
+			}
+			
+			return false;
 		}
+		
+		if(downtime < 0) {
+			lostSamples = 0;
+		} else if(inputReader.recordCounter > 0 && sampleRate > 0) {
+			int missing = (int) (downtime * sampleRate / 1000);
+			
+			if(missing > 0) {
+				lostSamples += missing;
+				
+				fireReceivedGap(inputReader.recordCounter, missing);
+				inputReader.recordCounter += missing;
+			}
+		}
+		
+		new Thread(inputReader).start();
+		
+		return true;
 	}
 	
 	public void disconnect() {
+		supervisor.stop();
+		
+		close();
+	}
+	
+	private void close() {
 		if(!connected) {
 			return;
 		}
@@ -81,6 +141,32 @@ public class NiaNetworkClient {
 		return this.connected;
 	}
 	
+	public int getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * Sets the sample rate of the NiaDevice, to estimate the number of samples missed while the connection was down.
+	 * 0 (default) for an unknown sample rate, missed samples are not reported.
+	 */
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = Math.max(sampleRate, 0);
+	}
+	
+	/**
+	 * Returns the number of samples missed while the connection was down.
+	 */
+	public long getLostSamples() {
+		return lostSamples;
+	}
+	
+	/**
+	 * Returns the supervisor which restores a lost connection, disabled by default.
+	 */
+	public ConnectionSupervisor getSupervisor() {
+		return supervisor;
+	}
+	
 	public boolean isSigned() {
 		return this.signed;
 	}
@@ -105,6 +191,24 @@ public class NiaNetworkClient {
 		return listeners;
 	}
 	
+	public void addGapListener(GapListener listener) {
+		gapListeners.add(listener);
+	}
+	
+	public void removeGapListener(GapListener listener) {
+		gapListeners.remove(listener);
+	}
+	
+	public List<GapListener> getGapListeners() {
+		return gapListeners;
+	}
+	
+	protected void fireReceivedGap(long firstSample, long samples) {
+		for(GapListener listener : gapListeners) {
+			listener.receivedGap(firstSample, samples);
+		}
+	}
+	
 	protected void fireReceivedSample(NiaSample sample) {
 		for(NiaListener listener : listeners) {
 			listener.receivedSample(sample);
@@ -120,16 +224,12 @@ public class NiaNetworkClient {
 		}
 		
 		public void run() {
-			byte[] buffer = new byte[3];
+			byte[] buffer = new byte[BDFCodec.SAMPLE_SIZE];
 			
 			try {
 				while(connected && input.read(buffer) != -1) {
 					
-					int value = (buffer[0] & 0xFF) | ((buffer[1] & 0xFF) << 8) | ((buffer[2] & 0xFF) << 16);
-					
-					if(signed && (value & 0x800000) != 0) {
-						value = ~(value ^ 0x7fffff) + 0x800000;
-					}
+					int value = signed ? BDFCodec.decode(buffer, 0) : BDFCodec.decodeUnsigned(buffer, 0);
 					
 					fireReceivedSample(new NiaSample(recordCounter, value));
 					recordCounter++;						
@@ -137,8 +237,16 @@ public class NiaNetworkClient {
 			} catch(IOException e) {
 				
 			}
-			connected = false;
+			
+			// the connection was not closed by disconnect
+			boolean lost = connected;
+			
+			close();
 			System.err.println("NiaNetworkClient disconnected.");
+			
+			if(lost) {
+				supervisor.connectionLost();
+			}
 		}
 	}
 }
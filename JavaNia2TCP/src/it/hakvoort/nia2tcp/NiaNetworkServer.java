@@ -1,5 +1,7 @@
 package it.hakvoort.nia2tcp;
 
+import it.hakvoort.bdf.BDFCodec;
+import it.hakvoort.bdf.network.ConnectionExecutor;
 import it.hakvoort.nia.NiaDevice;
 import it.hakvoort.nia.NiaListener;
 import it.hakvoort.nia.NiaSample;
@@ -13,6 +15,13 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * The <code>NiaNetworkServer</code> sends the samples of a NiaDevice to all connected clients. The handlers of the
+ * connections are run by a {@link ConnectionExecutor}, which can also limit the number of connections.
+ * 
+ * @author Gido Hakvoort (gido@hakvoort.it)
+ *
+ */
 public class NiaNetworkServer implements Runnable {
 	
 	// the server socket
@@ -28,13 +37,16 @@ public class NiaNetworkServer implements Runnable {
 	private int PORT;
 	
 	// if the server is listening for new connections
-	private boolean listening = true;
+	private volatile boolean listening = true;
 	
 	// the number of connected clients
 	private AtomicInteger connectedClients = new AtomicInteger(0);
 	
 	// the server thread
 	private Thread serverThread;
+	
+	// runs the handlers of the connections
+	private ConnectionExecutor executor = new ConnectionExecutor();
 
 	public NiaNetworkServer(NiaDevice device, int PORT) {
 		this.device = device;
@@ -42,6 +54,18 @@ public class NiaNetworkServer implements Runnable {
 		this.PORT = PORT;
 	}
 	
+	public ConnectionExecutor getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Sets the executor which runs the handlers of the connections, e.g. with a virtual thread for every connection:
+	 * <code>new ConnectionExecutor(ConnectionExecutor.newVirtualThreadExecutor())</code>. Should be set before the server is started.
+	 */
+	public void setExecutor(ConnectionExecutor executor) {
+		this.executor = executor;
+	}
+	
 	public synchronized void start() {
 		if(!device.isConnected()) {
 			device.start();
@@ -75,17 +99,26 @@ public class NiaNetworkServer implements Runnable {
 				
 				String name = String.format("NiaClient_%s", connectedClients);
 				
-				System.out.println(String.format("%s connected from '%s'.", name, socket.getInetAddress().getHostAddress()));
+				if(!executor.execute(name, handler)) {
+					device.removeListener(handler);
+					
+					synchronized(connectedClients) {
+						connectedClients.decrementAndGet();
+					}
+					
+					System.err.println(String.format("%s refused, the maximum of %s connections is reached.", name, executor.getMaxConnections()));
+					continue;
+				}
 				
-				Thread handlerThread = new Thread(handler);
-				handlerThread.setName(name);
-				handlerThread.setDaemon(true);
-				handlerThread.start();
+				System.out.println(String.format("%s connected from '%s'.", name, socket.getInetAddress().getHostAddress()));
 			}
 			
 		} catch(IOException e) {
-			e.printStackTrace();
-			System.err.println(String.format("Could not bind socket to address %s:%s", HOST, PORT));
+			// closing the server socket on stop interrupts the accept
+			if(listening) {
+				e.printStackTrace();
+				System.err.println(String.format("Could not bind socket to address %s:%s", HOST, PORT));
+			}
 		}
 	}
 	
@@ -98,6 +131,17 @@ public class NiaNetworkServer implements Runnable {
 			System.err.println(String.format("Disconnect error"));
 		}
 		
+		// close the connections and wait for the handlers
+		executor.shutdown();
+		
+		if(serverThread != null && serverThread != Thread.currentThread()) {
+			try {
+				serverThread.join(executor.getShutdownTimeout());
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
 		if(device.isConnected()) {
 			device.stop();
 		}
@@ -107,7 +151,10 @@ public class NiaNetworkServer implements Runnable {
 		return connectedClients.get();
 	}
 	
-	public class NiaClientHandler implements Runnable, NiaListener {
+	public class NiaClientHandler implements ConnectionExecutor.Connection, NiaListener {
+		
+		// the connection with the client
+		private Socket socket;
 		
 		// the input stream to keep the connection open
 		private InputStream in;
@@ -116,9 +163,11 @@ public class NiaNetworkServer implements Runnable {
 		private OutputStream out;
 		
 		// if the handler is connected
-		private boolean connected = true; 
+		private volatile boolean connected = true; 
 		
 		public NiaClientHandler(Socket socket) throws IOException {
+			this.socket = socket;
+			
 			in = socket.getInputStream();
 			out = socket.getOutputStream();
 		}
@@ -141,16 +190,25 @@ public class NiaNetworkServer implements Runnable {
 		
 		@Override
 		public void receivedSample(NiaSample sample) {
-			byte[] data = new byte[3];
+			byte[] data = new byte[BDFCodec.SAMPLE_SIZE];
 			
-			data[0] = (byte) (sample.value & 0xFF);
-			data[1] = (byte) ((sample.value >> 8) & 0xFF);
-			data[2] = (byte) ((sample.value >>> 16) & 0xFF);
+			BDFCodec.encode(sample.value, data, 0);
 			
 			try {
 				out.write(data);
 			} catch (IOException e) {
-				connected = false;
+				close();
+			}
+		}
+		
+		@Override
+		public void close() {
+			connected = false;
+			
+			try {
+				socket.close();
+			} catch (IOException e) {
+				System.err.println(String.format("Disconnect error"));
 			}
 		}
 	}
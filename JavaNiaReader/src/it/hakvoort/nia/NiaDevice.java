@@ -1,5 +1,7 @@
 package it.hakvoort.nia;
 
+import it.hakvoort.bdf.BDFCodec;
+
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -179,6 +181,10 @@ public class NiaDevice {
 	private class NiaDeviceReader extends Thread {
 		
 		private byte buffer[] = new byte[55];
+		
+		// the decoded samples of a single packet
+		private int values[] = new int[16];
+		
 		private int offset = 0;
 		
 		private int counter = 0;
@@ -273,22 +279,23 @@ public class NiaDevice {
 					offset %= INTERNAL_BUFFER_SIZE;
 					
 					// fetch the samples. each sample is divided over 3 bytes, litle endian
-					for(int i=0; i < nSamples; i++) {
+					// according to the HID information of the device, sample are between -8388608 and 8388607
+					// meaning the sample has a sign bit and is in two's complement.
+					int count = Math.min(nSamples, values.length);
+					
+					if(signed) {
+						BDFCodec.decode(buffer, 0, values, 0, count);
+					} else {
+						BDFCodec.decodeUnsigned(buffer, 0, values, 0, count);
+					}
+					
+					for(int i=0; i < count; i++) {
 						
 						// get sample number
 						int number = ((counter - offset) - nSamples) + i;
 						
-						// get sample value
-						int value = (buffer[i*3] & 0xFF) | ((buffer[i*3+1] & 0xFF) << 8) | ((buffer[i*3+2] & 0xFF) << 16);
-						
-						// according to the HID information of the device, sample are between -8388608 and 8388607
-						// meaning the sample has a sign bit and is in two's complement.
-						if(signed && ((value & 0x800000) != 0)) {
-							value = ~(value ^ 0x7fffff) + 0x800000;
-						}
-						
 						try {
-							samples.add(new NiaSample(number, value));
+							samples.add(new NiaSample(number, values[i]));
 	
 							synchronized(samples) {
 								samples.notifyAll();